@@ -0,0 +1,127 @@
+package bench;
+
+import cli.SystemEngine;
+import model.disease.DiseaseDictionary;
+import model.disease.TrendCube;
+import model.hospital.Hospital;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+
+/* Loading a large history: ingesting the records into the heap versus opening a memory-mapped archive of them.
+ * Records are spread over a few hospitals, each hospital is exported to its own archive, then a fresh engine
+ * loads the same data both ways. Load time, heap growth and the national weekly totals are compared.
+ * Run: java -Xmx4g -cp out bench.ArchiveBenchmark [records=20000000] [hospitals=8] [dir=/tmp/healthsense-archives]*/
+
+public class ArchiveBenchmark {
+    public static void main(String[] args) throws IOException {
+        int records = Integer.parseInt(Bench.arg(args, "records", "20000000"));
+        int hospitalCount = Integer.parseInt(Bench.arg(args, "hospitals", "8"));
+        Path dir = Paths.get(Bench.arg(args, "dir", "/tmp/healthsense-archives"));
+        Files.createDirectories(dir);
+
+        SystemEngine source = new SystemEngine();
+        for (int i = 0; i < hospitalCount; i++) source.addHospital("Hospital-" + i, "Region-" + (i % 3));
+        List<Hospital> all = source.getHospitalManager().getAllHospitals();
+        int[] diseaseIds = new int[20];
+        for (int d = 0; d < diseaseIds.length; d++) diseaseIds[d] = DiseaseDictionary.idOf("Disease" + d);
+        Random r = new Random(42);
+        Hospital[] hs = new Hospital[4096];
+        int[] ds = new int[4096], ws = new int[4096], cs = new int[4096];
+        for (int done = 0; done < records; ) {
+            int n = Math.min(hs.length, records - done);
+            Hospital h = all.get(r.nextInt(all.size()));
+            for (int i = 0; i < n; i++) {
+                hs[i] = h;
+                ds[i] = diseaseIds[r.nextInt(diseaseIds.length)];
+                ws[i] = 1 + r.nextInt(520);
+                cs[i] = 1 + r.nextInt(500);
+            }
+            source.ingestBatch(hs, ds, ws, cs, n);
+            done += n;
+        }
+        long start = System.nanoTime();
+        for (Hospital h : all) source.exportArchive(h, dir.resolve(h.name + ".hsa"));
+        System.out.printf("export            %.2f s, %d MB of archives%n", (System.nanoTime() - start) / 1e9, dirSize(dir) >> 20);
+        long expected = nationalTotal(source);
+
+        // the same records ingested into a fresh engine's heap
+        SystemEngine heap = new SystemEngine();
+        long before = usedHeap();
+        start = System.nanoTime();
+        for (Hospital h : all) {
+            heap.addHospital(h.name, h.region);
+            Hospital target = heap.getHospitalManager().getHospitalByName(h.name);
+            int n = h.diseaseHistory.size();
+            for (int done = 0; done < n; ) {
+                int k = Math.min(hs.length, n - done);
+                for (int i = 0; i < k; i++) {
+                    hs[i] = target;
+                    ds[i] = h.diseaseHistory.diseaseIdAt(done + i);
+                    ws[i] = h.diseaseHistory.weekAt(done + i);
+                    cs[i] = h.diseaseHistory.countAt(done + i);
+                }
+                heap.ingestBatch(hs, ds, ws, cs, k);
+                done += k;
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        long after = usedHeap();
+        java.lang.ref.Reference.reachabilityFence(source); // keep the source engine out of the heap difference
+        report("ingest into heap ", nanos, after - before, nationalTotal(heap), expected);
+        heap = null;
+        source = null;
+        all = null;
+
+        // the archives mapped in place
+        SystemEngine mapped = new SystemEngine();
+        before = usedHeap();
+        start = System.nanoTime();
+        try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+            for (Path f : (Iterable<Path>) files.sorted()::iterator) mapped.attachArchive(f);
+        }
+        nanos = System.nanoTime() - start;
+        report("open archives    ", nanos, usedHeap() - before, nationalTotal(mapped), expected);
+
+        start = System.nanoTime();
+        long scanned = 0;
+        for (Hospital h : mapped.getHospitalManager().getAllHospitals()) {
+            for (int i = 0; i < h.diseaseHistory.size(); i++) scanned += h.diseaseHistory.countAt(i);
+        }
+        System.out.printf("scan mapped rows  %.2f s (%d cases)%n", (System.nanoTime() - start) / 1e9, scanned);
+        RecoveryBenchmark.deleteDir(dir);
+    }
+
+    static void report(String label, long nanos, long heapBytes, long total, long expected) {
+        System.out.printf("%s %.2f s, heap +%d MB, national cases %d%s%n", label, nanos / 1e9, heapBytes >> 20, total,
+                total == expected ? "" : "  FAILED: expected " + expected);
+    }
+
+    // Sum of every disease's national weekly totals
+    static long nationalTotal(SystemEngine engine) {
+        long sum = 0;
+        for (int d = 0; d < 20; d++) {
+            TrendCube.Series s = engine.getTrendCube().nationalTrend("Disease" + d);
+            for (int w = s.firstWeek(); w <= s.lastWeek(); w++) sum += s.total(w);
+        }
+        return sum;
+    }
+
+    static long usedHeap() {
+        for (int i = 0; i < 3; i++) System.gc();
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    static long dirSize(Path dir) throws IOException {
+        long size = 0;
+        try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+            for (Path f : (Iterable<Path>) files::iterator) size += Files.size(f);
+        }
+        return size;
+    }
+}
@@ -0,0 +1,77 @@
+package bench;
+
+import java.lang.management.ManagementFactory;
+
+/* Small benchmark harness (warmup + timed iterations) used by the benchmark mains.
+ * Reports throughput and the bytes allocated per operation by the measuring thread,
+ * which is the same figure a gc profiler reports as the allocation rate.*/
+
+public class Bench {
+    // One benchmark case. setup() runs before every iteration and is not timed.
+    public abstract static class Case {
+        public void setup() {
+        }
+
+        // Timed body, returns a value so the JIT cannot drop the work
+        public abstract long run();
+
+        // How many operations one run() performs (e.g. records appended)
+        public long opsPerRun() {
+            return 1;
+        }
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static int warmupIterations = 3;
+    public static int measureIterations = 5;
+    public static long sink; // results of run() end up here
+
+    // Run a case and print one result line, returns the time per operation in nanoseconds (NaN if it failed)
+    public static double measure(String name, String params, Case c) {
+        try {
+            for (int i = 0; i < warmupIterations; i++) {
+                c.setup();
+                sink += c.run();
+            }
+            long nanos = 0, bytes = 0, ops = 0;
+            long threadId = Thread.currentThread().getId();
+            for (int i = 0; i < measureIterations; i++) {
+                c.setup();
+                long allocBefore = THREADS.getThreadAllocatedBytes(threadId);
+                long start = System.nanoTime();
+                sink += c.run();
+                nanos += System.nanoTime() - start;
+                bytes += THREADS.getThreadAllocatedBytes(threadId) - allocBefore;
+                ops += c.opsPerRun();
+            }
+            double opsPerSec = ops * 1e9 / Math.max(1, nanos);
+            double allocRate = bytes * 1e9 / Math.max(1, nanos) / (1024 * 1024);
+            System.out.printf("%-32s %-28s %14.1f ops/s %12.1f ns/op %10.1f B/op %9.1f MB/s alloc%n",
+                    name, params, opsPerSec, (double) nanos / ops, (double) bytes / ops, allocRate);
+            return (double) nanos / ops;
+        } catch (StackOverflowError e) {
+            System.out.printf("%-32s %-28s failed: StackOverflowError%n", name, params);
+        } catch (OutOfMemoryError e) {
+            System.out.printf("%-32s %-28s failed: OutOfMemoryError%n", name, params);
+        }
+        return Double.NaN;
+    }
+
+    // Parse a comma separated list of sizes such as "1000,1000000"
+    public static int[] sizes(String value) {
+        String[] parts = value.split(",");
+        int[] out = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) out[i] = Integer.parseInt(parts[i].trim());
+        return out;
+    }
+
+    // Read key=value from the program arguments, or return the default
+    public static String arg(String[] args, String key, String def) {
+        for (String a : args) {
+            if (a.startsWith(key + "=")) return a.substring(key.length() + 1);
+        }
+        return def;
+    }
+}
@@ -0,0 +1,155 @@
+package bench;
+
+import cli.SystemEngine;
+import model.disease.DiseaseDictionary;
+import model.disease.DiseaseRecordLinkedList;
+import model.disease.TrendCube;
+import model.hospital.Hospital;
+import model.hospital.HospitalManager;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Multi-threaded ingestion stress check and throughput benchmark.
+ * For each thread count, producers ingest records in parallel (each producer owns a share of the hospitals,
+ * like one feed per hospital group) while a reader thread keeps running analytics.
+ * Afterwards histories, trend cube and severity index are checked against each other and against what was sent.
+ * Run: java -cp out bench.ConcurrentIngestBenchmark [threads=1,2,4,8] [hospitals=1000] [records=2000000]*/
+
+public class ConcurrentIngestBenchmark {
+    static final int DISEASES = 20;
+    static final int WEEKS = 520;
+    static final int BATCH = 1024;
+
+    public static void main(String[] args) throws InterruptedException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int[] threadCounts = Bench.sizes(Bench.arg(args, "threads", defaultThreads(cores)));
+        int hospitals = Integer.parseInt(Bench.arg(args, "hospitals", "1000"));
+        int records = Integer.parseInt(Bench.arg(args, "records", "2000000"));
+        System.out.println("cores=" + cores + " hospitals=" + hospitals + " records=" + records);
+        boolean ok = true;
+        for (int threads : threadCounts) ok &= run(threads, hospitals, records);
+        if (!ok) System.exit(1);
+    }
+
+    static String defaultThreads(int cores) {
+        StringBuilder sb = new StringBuilder("1");
+        for (int t = 2; t <= Math.max(cores, 4); t *= 2) sb.append(',').append(t);
+        return sb.toString();
+    }
+
+    static boolean run(int threads, int hospitalCount, int records) throws InterruptedException {
+        SystemEngine engine = new SystemEngine();
+        HospitalManager manager = engine.getHospitalManager();
+        for (int i = 0; i < hospitalCount; i++) manager.addHospital("Hospital-" + i, "Region-" + (i % 25));
+        List<Hospital> all = manager.getAllHospitals();
+        int[] diseaseIds = new int[DISEASES];
+        for (int d = 0; d < DISEASES; d++) diseaseIds[d] = DiseaseDictionary.idOf("Disease" + d);
+
+        LongAdder[] sentCases = new LongAdder[DISEASES]; // what producers sent, per disease
+        for (int d = 0; d < DISEASES; d++) sentCases[d] = new LongAdder();
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicLong queries = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+
+        Thread reader = new Thread(() -> {
+            while (!done.get()) {
+                engine.query(() -> engine.synchronizedPeakWeeks("Disease0").size());
+                queries.incrementAndGet();
+            }
+        });
+        Thread[] producers = new Thread[threads];
+        int perProducer = records / threads;
+        for (int t = 0; t < threads; t++) {
+            int producer = t;
+            producers[t] = new Thread(() -> {
+                Random r = new Random(producer);
+                Hospital[] hs = new Hospital[BATCH];
+                int[] ds = new int[BATCH], ws = new int[BATCH], cs = new int[BATCH];
+                awaitQuietly(start);
+                int sent = 0;
+                while (sent < perProducer) {
+                    int n = Math.min(BATCH, perProducer - sent);
+                    // a batch is one hospital's feed: pick a hospital owned by this producer
+                    int owned = (hospitalCount - producer + threads - 1) / threads;
+                    Hospital h = all.get(Math.min(hospitalCount - 1, producer + threads * r.nextInt(Math.max(1, owned))));
+                    for (int i = 0; i < n; i++) {
+                        int d = r.nextInt(DISEASES);
+                        hs[i] = h;
+                        ds[i] = diseaseIds[d];
+                        ws[i] = 1 + r.nextInt(WEEKS);
+                        cs[i] = 1 + r.nextInt(500);
+                        sentCases[d].add(cs[i]);
+                    }
+                    engine.ingestBatch(hs, ds, ws, cs, n);
+                    sent += n;
+                }
+            });
+            producers[t].start();
+        }
+        reader.start();
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread p : producers) p.join();
+        long nanos = System.nanoTime() - begin;
+        done.set(true);
+        reader.join();
+
+        long ingested = (long) perProducer * threads;
+        System.out.printf("threads=%-3d %12.0f records/s  (%d records in %.2f s, %d concurrent queries)%n",
+                threads, ingested * 1e9 / nanos, ingested, nanos / 1e9, queries.get());
+        return verify(engine, all, diseaseIds, sentCases, ingested);
+    }
+
+    // Histories, trend cube and severity index must agree with each other and with what was sent
+    static boolean verify(SystemEngine engine, List<Hospital> all, int[] diseaseIds, LongAdder[] sentCases, long ingested) {
+        long stored = 0;
+        long[] historyCases = new long[DISEASES];
+        long[] cubeCases = new long[DISEASES];
+        int hospitalsWithData = 0;
+        boolean ok = true;
+        for (Hospital h : all) {
+            DiseaseRecordLinkedList history = h.diseaseHistory;
+            stored += history.size();
+            if (history.size() > 0) hospitalsWithData++;
+            for (int i = 0; i < history.size(); i++) {
+                for (int d = 0; d < DISEASES; d++) {
+                    if (history.diseaseIdAt(i) == diseaseIds[d]) historyCases[d] += history.countAt(i);
+                }
+            }
+            for (int d = 0; d < DISEASES; d++) {
+                TrendCube.Series s = engine.getWeeklyTrend(h, "Disease" + d);
+                for (int w = s.firstWeek(); w <= s.lastWeek(); w++) cubeCases[d] += s.total(w);
+            }
+        }
+        if (stored != ingested) ok = fail("stored " + stored + " records, expected " + ingested);
+        for (int d = 0; d < DISEASES; d++) {
+            long sent = sentCases[d].sum();
+            if (historyCases[d] != sent) ok = fail("Disease" + d + " history total " + historyCases[d] + " != sent " + sent);
+            if (cubeCases[d] != sent) ok = fail("Disease" + d + " trend cube total " + cubeCases[d] + " != sent " + sent);
+        }
+        int severityEntries = engine.getSeverityIndex().tree().size();
+        if (severityEntries != hospitalsWithData) {
+            ok = fail("severity tree has " + severityEntries + " entries, " + hospitalsWithData + " hospitals have data");
+        }
+        if (ok) System.out.println("            consistency check passed");
+        return ok;
+    }
+
+    static boolean fail(String message) {
+        System.out.println("            FAILED: " + message);
+        return false;
+    }
+
+    static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
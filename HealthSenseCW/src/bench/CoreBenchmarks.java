@@ -0,0 +1,415 @@
+package bench;
+
+import cli.SystemEngine;
+import model.disease.DiseaseDictionary;
+import model.disease.DiseaseRecordLinkedList;
+import model.disease.TrendCube;
+import model.hospital.Hospital;
+import model.hospital.HospitalManager;
+import model.severity.SeverityBST;
+import model.severity.SeverityRecord;
+import util.MergeSortUtil;
+import util.Metrics;
+import util.RecordComparator;
+import util.WorkloadGenerator;
+
+import java.util.Random;
+
+/* Benchmarks for the core data structures and analytics.
+ * Run: java -cp out bench.CoreBenchmarks [records=1000,100000] [hospitals=10,1000] [filter=sort] [warmup=3] [iterations=5]
+ * Sizes default to 1k..10M records and 10..10k hospitals, filter keeps only benchmarks whose name contains it.*/
+
+public class CoreBenchmarks {
+    static final int DISEASES = 20;  // distinct diseases in generated data
+    static final int WEEKS = 520;    // ten years of weekly data
+
+    public static void main(String[] args) {
+        int[] recordSizes = Bench.sizes(Bench.arg(args, "records", "1000,100000,1000000,10000000"));
+        int[] hospitalSizes = Bench.sizes(Bench.arg(args, "hospitals", "10,1000,10000"));
+        String filter = Bench.arg(args, "filter", "");
+        Bench.warmupIterations = Integer.parseInt(Bench.arg(args, "warmup", "3"));
+        Bench.measureIterations = Integer.parseInt(Bench.arg(args, "iterations", "5"));
+
+        for (int n : recordSizes) {
+            if (enabled(filter, "list.")) listBenchmarks(n, filter);
+            if (enabled(filter, "sort.")) sortBenchmarks(n, filter);
+            if (enabled(filter, "severity.")) severityBenchmarks(n, filter);
+        }
+        for (int h : hospitalSizes) {
+            if (enabled(filter, "hospital.getHospitalByName")) hospitalLookup(h);
+            for (int n : recordSizes) {
+                if (enabled(filter, "engine.")) engineBenchmarks(h, n, filter);
+            }
+        }
+        if (enabled(filter, "metrics.timer")) metricsBenchmarks();
+        System.out.println("(checksum " + Bench.sink + ")");
+    }
+
+    static boolean enabled(String filter, String name) {
+        return filter.isEmpty() || name.contains(filter) || filter.contains(name);
+    }
+
+    static String diseaseName(int d) {
+        return "Disease" + d;
+    }
+
+    // History with n records, random diseases, weeks and skewed counts
+    static DiseaseRecordLinkedList randomHistory(int n, long seed) {
+        Random r = new Random(seed);
+        int[] ids = new int[DISEASES];
+        for (int d = 0; d < DISEASES; d++) ids[d] = DiseaseDictionary.idOf(diseaseName(d));
+        DiseaseRecordLinkedList list = new DiseaseRecordLinkedList();
+        for (int i = 0; i < n; i++) {
+            list.append(ids[r.nextInt(DISEASES)], 1 + r.nextInt(WEEKS), skewedCount(r));
+        }
+        return list;
+    }
+
+    // Most weeks are quiet, a few have very large counts
+    static int skewedCount(Random r) {
+        double x = r.nextDouble();
+        return 1 + (int) (x * x * x * 1000);
+    }
+
+    static void listBenchmarks(int n, String filter) {
+        String p = "records=" + n;
+        int reps = Math.max(1, 1_000_000 / n);
+        if (enabled(filter, "list.append")) {
+            int id = DiseaseDictionary.idOf(diseaseName(0));
+            Bench.measure("list.append", p, new Bench.Case() {
+                DiseaseRecordLinkedList list;
+
+                public void setup() {
+                    list = new DiseaseRecordLinkedList();
+                }
+
+                public long run() {
+                    for (int i = 0; i < n; i++) list.append(id, i, i & 1023);
+                    return list.size();
+                }
+
+                public long opsPerRun() {
+                    return n;
+                }
+            });
+        }
+        DiseaseRecordLinkedList history = randomHistory(n, 1);
+        String missing = "NotReported"; // forces a full scan
+        DiseaseDictionary.idOf(missing);
+        if (enabled(filter, "list.searchByDisease")) {
+            Bench.measure("list.searchByDisease(miss)", p, new Bench.Case() {
+                public long run() {
+                    long hits = 0;
+                    for (int i = 0; i < reps; i++) if (history.searchByDisease(missing) != null) hits++;
+                    return hits;
+                }
+
+                public long opsPerRun() {
+                    return reps;
+                }
+            });
+        }
+        if (enabled(filter, "list.getMaxCaseNode")) {
+            Bench.measure("list.getMaxCaseNode", p, new Bench.Case() {
+                public long run() {
+                    long sum = 0;
+                    for (int i = 0; i < reps; i++) sum += history.getMaxCaseNode().data.caseCount;
+                    return sum;
+                }
+
+                public long opsPerRun() {
+                    return reps;
+                }
+            });
+        }
+    }
+
+    static void sortBenchmarks(int n, String filter) {
+        String p = "records=" + n;
+        DiseaseRecordLinkedList source = randomHistory(n, 2);
+        if (enabled(filter, "sort.byCount(sequential)")) {
+            Bench.measure("sort.byCount(sequential)", p, sortCase(source, RecordComparator.BY_COUNT_DESC, false));
+        }
+        if (enabled(filter, "sort.byCount(parallel)")) {
+            Bench.measure("sort.byCount(parallel)", p, sortCase(source, RecordComparator.BY_COUNT_DESC, true));
+        }
+        if (enabled(filter, "sort.byDiseaseThenWeek")) {
+            Bench.measure("sort.byDiseaseThenWeek", p,
+                    sortCase(source, RecordComparator.BY_DISEASE.then(RecordComparator.BY_WEEK), false));
+        }
+        if (enabled(filter, "sort.byCount")) {
+            Bench.measure("sort.byCount", p, new Bench.Case() {
+                DiseaseRecordLinkedList list;
+
+                public void setup() {
+                    list = source.cloneList();
+                }
+
+                public long run() {
+                    MergeSortUtil.sortLinkedListByCount(list);
+                    return list.countAt(0);
+                }
+            });
+        }
+        if (enabled(filter, "sort.byWeek")) {
+            Bench.measure("sort.byWeek", p, new Bench.Case() {
+                DiseaseRecordLinkedList list;
+
+                public void setup() {
+                    list = source.cloneList();
+                }
+
+                public long run() {
+                    MergeSortUtil.sortLinkedListByWeek(list);
+                    return list.weekAt(0);
+                }
+            });
+        }
+    }
+
+    static Bench.Case sortCase(DiseaseRecordLinkedList source, RecordComparator cmp, boolean parallel) {
+        return new Bench.Case() {
+            DiseaseRecordLinkedList list;
+
+            public void setup() {
+                list = source.cloneList();
+            }
+
+            public long run() {
+                MergeSortUtil.sort(list, cmp, parallel);
+                return list.countAt(0);
+            }
+        };
+    }
+
+    static void severityBenchmarks(int n, String filter) {
+        String p = "records=" + n;
+        Random r = new Random(3);
+        SeverityRecord[] random = new SeverityRecord[n];
+        SeverityRecord[] sorted = new SeverityRecord[n];
+        for (int i = 0; i < n; i++) {
+            random[i] = new SeverityRecord("H" + (i % 1000), "Dengue", r.nextInt(1_000_000));
+            sorted[i] = new SeverityRecord("H" + (i % 1000), "Dengue", i); // a growing outbreak
+        }
+        if (enabled(filter, "severity.insert(random)")) {
+            Bench.measure("severity.insert(random)", p, insertCase(random));
+        }
+        if (enabled(filter, "severity.insert(sorted)")) {
+            Bench.measure("severity.insert(sorted)", p, insertCase(sorted));
+        }
+    }
+
+    static Bench.Case insertCase(SeverityRecord[] input) {
+        return new Bench.Case() {
+            SeverityBST tree;
+
+            public void setup() {
+                tree = new SeverityBST();
+            }
+
+            public long run() {
+                for (SeverityRecord rec : input) tree.insert(rec);
+                return input.length;
+            }
+
+            public long opsPerRun() {
+                return input.length;
+            }
+        };
+    }
+
+    static void hospitalLookup(int h) {
+        HospitalManager manager = new HospitalManager();
+        String[] names = new String[h];
+        for (int i = 0; i < h; i++) {
+            names[i] = "Hospital-" + i;
+            manager.addHospital(names[i], "Region-" + (i % 25));
+        }
+        Random r = new Random(4);
+        String[] probes = new String[1 << 16];
+        for (int i = 0; i < probes.length; i++) {
+            String name = names[r.nextInt(h)];
+            probes[i] = (i & 1) == 0 ? name : name.toUpperCase(); // lookups ignore case
+        }
+        Bench.measure("hospital.getHospitalByName", "hospitals=" + h, new Bench.Case() {
+            public long run() {
+                long found = 0;
+                for (String probe : probes) if (manager.getHospitalByName(probe) != null) found++;
+                return found;
+            }
+
+            public long opsPerRun() {
+                return probes.length;
+            }
+        });
+    }
+
+    // Cost of recording one latency (a clock read and a histogram update); an engine operation pays this plus one more clock read
+    static void metricsBenchmarks() {
+        Metrics.Timer timer = new Metrics().timer("bench");
+        int ops = 1_000_000;
+        Bench.measure("metrics.timer.since", "ops=" + ops, new Bench.Case() {
+            public long run() {
+                long start = System.nanoTime();
+                for (int i = 0; i < ops; i++) timer.since(start);
+                return ops;
+            }
+
+            public long opsPerRun() {
+                return ops;
+            }
+        });
+    }
+
+    // Engine with h hospitals and about n records from the synthetic workload (skewed hospital sizes, outbreak curves)
+    static SystemEngine buildEngine(int h, int n) {
+        SystemEngine engine = new SystemEngine();
+        WorkloadGenerator.Config config = new WorkloadGenerator.Config();
+        config.seed = 5;
+        config.hospitals = h;
+        config.diseases = DISEASES;
+        config.weeks = WEEKS;
+        config.records = n;
+        engine.loadWorkload(new WorkloadGenerator(config));
+        return engine;
+    }
+
+    static void engineBenchmarks(int h, int n, String filter) {
+        if (n < h) return; // not every hospital would have data
+        String p = "hospitals=" + h + " records=" + n;
+        SystemEngine engine = buildEngine(h, n);
+        engine.setQueryCacheSize(0); // every case below measures the query itself, only engine.queryCache(on...) turns the cache on
+        String disease = diseaseName(0);
+        if (enabled(filter, "engine.getWeeklyTrend")) {
+            Bench.measure("engine.getWeeklyTrend(all)", p, new Bench.Case() {
+                public long run() {
+                    long weeks = 0;
+                    for (Hospital hospital : engine.getHospitalManager().getAllHospitals()) {
+                        weeks += engine.getWeeklyTrend(hospital, disease).peakWeek();
+                    }
+                    return weeks;
+                }
+            });
+        }
+        if (enabled(filter, "engine.regionTrend")) {
+            String region = engine.getHospitalManager().getAllHospitals().get(0).region;
+            java.util.List<Hospital> inRegion = engine.getHospitalManager().getHospitalsInRegion(region);
+            Bench.measure("engine.regionTrend(walk)", p, new Bench.Case() {
+                public long run() {
+                    return engine.getTrendCube().rollup(inRegion, disease).peakWeek();
+                }
+            });
+            Bench.measure("engine.regionTrend(maintained)", p, new Bench.Case() {
+                public long run() {
+                    return engine.getRegionalTrend(region, disease).peakWeek();
+                }
+            });
+        }
+        if (enabled(filter, "engine.topCases")) {
+            Bench.measure("engine.topCases(scan)", p, new Bench.Case() {
+                public long run() {
+                    // the 10th highest weekly total of any hospital and disease, by walking every series
+                    java.util.PriorityQueue<Integer> top = new java.util.PriorityQueue<>();
+                    for (Hospital hospital : engine.getHospitalManager().getAllHospitals()) {
+                        for (int d = 0; d < DISEASES; d++) {
+                            TrendCube.Series s = engine.getWeeklyTrend(hospital, diseaseName(d));
+                            for (int w = s.firstWeek(); w <= s.lastWeek(); w++) {
+                                if (top.size() < 10) top.add(s.total(w));
+                                else if (s.total(w) > top.peek()) {
+                                    top.poll();
+                                    top.add(s.total(w));
+                                }
+                            }
+                        }
+                    }
+                    return top.peek();
+                }
+            });
+            Bench.measure("engine.topCases(leaderboard)", p, new Bench.Case() {
+                public long run() {
+                    long sum = 0;
+                    for (int i = 0; i < 1000; i++) sum += engine.topCases("", "", 10).get(0).cases + engine.topCases("", disease, 10).size();
+                    return sum;
+                }
+
+                public long opsPerRun() {
+                    return 2000;
+                }
+            });
+        }
+        if (enabled(filter, "engine.synchronizedPeaks")) {
+            Bench.measure("engine.synchronizedPeaks", p, new Bench.Case() {
+                public long run() {
+                    return engine.synchronizedPeakWeeks(disease).size();
+                }
+            });
+            Bench.measure("engine.synchronizedPeaks(local,+-2)", p, new Bench.Case() {
+                public long run() {
+                    return engine.getPeakDetector().synchronizedWeeks(disease, true, 2, 2).size();
+                }
+            });
+        }
+        if (enabled(filter, "engine.rangeSearch")) {
+            int diseaseId = DiseaseDictionary.idOf(disease);
+            Bench.measure("engine.rangeSearch(scan)", p, new Bench.Case() {
+                public long run() {
+                    long hits = 0;
+                    for (Hospital hospital : engine.getHospitalManager().getAllHospitals()) {
+                        DiseaseRecordLinkedList history = hospital.diseaseHistory;
+                        for (int i = 0; i < history.size(); i++) {
+                            if (history.countAt(i) >= 990 && history.diseaseIdAt(i) == diseaseId) hits++;
+                        }
+                    }
+                    return hits;
+                }
+            });
+            Bench.measure("engine.rangeSearch(index)", p, new Bench.Case() {
+                public long run() {
+                    long hits = 0;
+                    for (java.util.Iterator<?> it = engine.getCaseCountIndex().range(disease, 990, Integer.MAX_VALUE, null); it.hasNext(); it.next()) hits++;
+                    return hits;
+                }
+            });
+            Bench.measure("engine.rangeSearch(index,page)", p, new Bench.Case() {
+                public long run() {
+                    long sum = 0;
+                    for (int i = 0; i < 1000; i++) {
+                        sum += engine.getCaseCountIndex().stream("", 500, 600, null).limit(20).mapToInt(hit -> hit.count).sum();
+                    }
+                    return sum;
+                }
+
+                public long opsPerRun() {
+                    return 1000;
+                }
+            });
+        }
+        if (enabled(filter, "engine.queryCache")) {
+            // a dashboard refresh: peaks, local peaks and national trend of every disease, plus the top severity
+            Bench.Case dashboard = new Bench.Case() {
+                public long run() {
+                    long sum = engine.topSeverity(10).size();
+                    for (int d = 0; d < DISEASES; d++) {
+                        String name = diseaseName(d);
+                        sum += engine.synchronizedPeaks(name, false, 0, 1).size() + engine.synchronizedPeaks(name, true, 2, 2).size();
+                        sum += engine.getNationalTrend(name).peakWeek();
+                    }
+                    return sum;
+                }
+            };
+            engine.setQueryCacheSize(0);
+            Bench.measure("engine.queryCache(off)", p, dashboard);
+            engine.setQueryCacheSize(util.QueryCache.DEFAULT_SIZE);
+            Bench.measure("engine.queryCache(on)", p, dashboard);
+            String hospital = engine.getHospitalManager().getAllHospitals().get(0).name;
+            Random r = new Random(3);
+            Bench.measure("engine.queryCache(on,1 write)", p, new Bench.Case() {
+                public long run() {
+                    // one new record between refreshes: only its disease's results (and the severity view if its peak moved) are recomputed
+                    engine.ingestRecord(hospital, diseaseName(r.nextInt(DISEASES)), 1 + r.nextInt(WEEKS), 1 + r.nextInt(100));
+                    return dashboard.run();
+                }
+            });
+        }
+    }
+}
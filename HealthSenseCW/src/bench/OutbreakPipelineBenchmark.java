@@ -0,0 +1,116 @@
+package bench;
+
+import model.outbreak.OutbreakPipeline;
+import model.outbreak.OutbreakQueueManager;
+import model.outbreak.OutbreakReport;
+import model.outbreak.OverflowPolicy;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Outbreak pipeline throughput: producer threads enqueue reports into region queues while workers drain them.
+ * Reports enqueue throughput, end-to-end throughput (until every report was handled) and checks nothing was lost
+ * except what the overflow policy dropped. One report in a hundred is Severe; with priority queues and DROP_OLDEST
+ * a smaller share of those may be dropped than of the routine ones.
+ * Run: java -cp out bench.OutbreakPipelineBenchmark [producers=1,2,4] [workers=2] [regions=25] [reports=2000000] [batch=64]
+ *      [mode=fifo|priority] [capacity=unbounded|N] [policy=BLOCK|DROP_OLDEST|REJECT]*/
+
+public class OutbreakPipelineBenchmark {
+    public static void main(String[] args) throws InterruptedException {
+        int[] producerCounts = Bench.sizes(Bench.arg(args, "producers", "1,2,4"));
+        int workers = Integer.parseInt(Bench.arg(args, "workers", "2"));
+        int regions = Integer.parseInt(Bench.arg(args, "regions", "25"));
+        int reports = Integer.parseInt(Bench.arg(args, "reports", "2000000"));
+        int batch = Integer.parseInt(Bench.arg(args, "batch", "64"));
+        boolean prioritized = Bench.arg(args, "mode", "fifo").equalsIgnoreCase("priority");
+        String capacityArg = Bench.arg(args, "capacity", "unbounded");
+        int capacity = capacityArg.equals("unbounded") ? Integer.MAX_VALUE : Integer.parseInt(capacityArg);
+        OverflowPolicy policy = OverflowPolicy.valueOf(Bench.arg(args, "policy", "BLOCK"));
+        System.out.println("cores=" + Runtime.getRuntime().availableProcessors() + " workers=" + workers
+                + " regions=" + regions + " reports=" + reports + " batch=" + batch);
+        boolean ok = true;
+        for (int producers : producerCounts) {
+            OutbreakQueueManager manager = new OutbreakQueueManager(prioritized, capacity, policy);
+            ok &= run(manager, producers, workers, regions, reports, batch);
+        }
+        if (!ok) System.exit(1);
+    }
+
+    static boolean run(OutbreakQueueManager manager, int producers, int workers, int regionCount, int reports, int batch)
+            throws InterruptedException {
+        LongAdder handled = new LongAdder();
+        LongAdder severeHandled = new LongAdder();
+        OutbreakPipeline pipeline = new OutbreakPipeline(manager, workers, batch, (region, reportBatch) -> {
+            handled.add(reportBatch.size());
+            for (OutbreakReport r : reportBatch) {
+                if (r.severityBand() == 2) severeHandled.increment();
+            }
+        });
+        String[] regions = new String[regionCount];
+        for (int i = 0; i < regionCount; i++) regions[i] = "Region-" + i;
+        OutbreakReport[] routine = new OutbreakReport[regionCount];
+        OutbreakReport[] severe = new OutbreakReport[regionCount];
+        for (int i = 0; i < regionCount; i++) {
+            routine[i] = new OutbreakReport(regions[i], "Hospital-" + i, "cases rising", 10);
+            severe[i] = new OutbreakReport(regions[i], "Hospital-" + i, "outbreak", 500);
+        }
+        LongAdder severeSent = new LongAdder();
+        pipeline.start();
+
+        CountDownLatch start = new CountDownLatch(1);
+        int perProducer = reports / producers;
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            threads[p] = new Thread(() -> {
+                ConcurrentIngestBenchmark.awaitQuietly(start);
+                for (int i = 0; i < perProducer; i++) {
+                    int r = (i * 31 + producer) % regionCount;
+                    if (i % 100 == 99) {
+                        manager.enqueueReport(regions[r], severe[r]);
+                        severeSent.increment();
+                    } else {
+                        manager.enqueueReport(regions[r], routine[r]);
+                    }
+                }
+            });
+            threads[p].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread t : threads) t.join();
+        long enqueueNanos = System.nanoTime() - begin;
+        long total = (long) perProducer * producers;
+        while (handled.sum() + dropped(manager) < total && System.nanoTime() - begin < 60_000_000_000L) Thread.sleep(1);
+        long drainNanos = System.nanoTime() - begin;
+        pipeline.stop();
+
+        long dropped = dropped(manager);
+        System.out.printf("producers=%-3d %12.0f enqueued/s %12.0f handled/s end-to-end (%d reports, %d dropped, %s)%n",
+                producers, total * 1e9 / enqueueNanos, handled.sum() * 1e9 / drainNanos, total, dropped, manager.describe());
+        boolean ok = true;
+        if (handled.sum() + dropped != total || manager.totalDepth() != 0) {
+            System.out.println("              FAILED: handled " + handled.sum() + " + dropped " + dropped + " != " + total
+                    + ", depth " + manager.totalDepth());
+            ok = false;
+        }
+        long severeDropped = severeSent.sum() - severeHandled.sum();
+        long routineSent = total - severeSent.sum(), routineDropped = dropped - severeDropped;
+        if (dropped > 0) {
+            System.out.printf("              dropped %.1f%% of severe and %.1f%% of routine reports%n",
+                    100.0 * severeDropped / severeSent.sum(), 100.0 * routineDropped / routineSent);
+        }
+        if (manager.describe().startsWith("priority") && manager.describe().endsWith("DROP_OLDEST")
+                && severeDropped * routineSent > routineDropped * severeSent.sum()) {
+            System.out.println("              FAILED: severe reports were dropped more often than routine ones");
+            ok = false;
+        }
+        return ok;
+    }
+
+    static long dropped(OutbreakQueueManager manager) {
+        long dropped = 0;
+        for (OutbreakQueueManager.RegionQueue rq : manager.regionQueues()) dropped += rq.queue().droppedCount();
+        return dropped;
+    }
+}
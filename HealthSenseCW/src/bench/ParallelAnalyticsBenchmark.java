@@ -0,0 +1,98 @@
+package bench;
+
+import cli.SystemEngine;
+import model.disease.DiseaseRecordLinkedList;
+import model.disease.ParallelAnalytics;
+import model.disease.TrendCube;
+import model.hospital.Hospital;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/* Scaling of the fork/join analytics scans (weekly totals, peak weeks, case-count filter, max nodes) with thread count.
+ * Every scan is first run sequentially, then on pools of 1, 2, 4 ... threads; each parallel result is compared with the
+ * sequential one and the speedup is printed next to it. Some hospitals also report the disease under a lower-case
+ * spelling, and the sequential peak weeks are checked against the engine's peak detector, which adds spellings up.
+ * Run: java -cp out bench.ParallelAnalyticsBenchmark [threads=1,2,4,8] [hospitals=1000] [records=10000000]*/
+
+public class ParallelAnalyticsBenchmark {
+    static final String DISEASE = "Disease0";
+
+    public static void main(String[] args) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int[] threadCounts = Bench.sizes(Bench.arg(args, "threads", ConcurrentIngestBenchmark.defaultThreads(cores)));
+        int hospitals = Integer.parseInt(Bench.arg(args, "hospitals", "1000"));
+        int records = Integer.parseInt(Bench.arg(args, "records", "10000000"));
+        Bench.warmupIterations = Integer.parseInt(Bench.arg(args, "warmup", "3"));
+        Bench.measureIterations = Integer.parseInt(Bench.arg(args, "iterations", "5"));
+        System.out.println("cores=" + cores + " hospitals=" + hospitals + " records=" + records);
+
+        SystemEngine engine = CoreBenchmarks.buildEngine(hospitals, records);
+        List<Hospital> all = engine.getHospitalManager().getAllHospitals();
+        for (int i = 0; i < all.size(); i += 7) { // a second spelling that moves some hospitals' peak week
+            engine.ingestRecord(all.get(i).name, DISEASE.toLowerCase(), 1 + i % CoreBenchmarks.WEEKS, 1000 + i);
+        }
+        ParallelAnalytics sequential = ParallelAnalytics.sequential();
+        boolean ok = engine.query(() -> sequential.synchronizedPeaks(all, DISEASE, 0, 1)
+                .equals(engine.getPeakDetector().synchronizedWeeks(DISEASE, false, 0, 1)));
+        if (!ok) System.out.println("FAILED: sequential peak weeks differ from the peak detector");
+        String[] scans = {"scan.weeklyTotals", "scan.peakWeeks", "scan.countInRange", "scan.maxNodes"};
+        long[] expected = new long[scans.length];
+        double[] baseline = new double[scans.length];
+        for (int s = 0; s < scans.length; s++) {
+            expected[s] = run(sequential, all, s);
+            baseline[s] = time(scans[s], "sequential", sequential, all, s);
+        }
+        for (int threads : threadCounts) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            ParallelAnalytics parallel = new ParallelAnalytics(pool);
+            for (int s = 0; s < scans.length; s++) {
+                double nanos = time(scans[s], "threads=" + threads, parallel, all, s);
+                System.out.printf("%-32s %-28s %10.2fx speedup%n", "", "", baseline[s] / nanos);
+                if (run(parallel, all, s) != expected[s]) {
+                    System.out.println("FAILED: " + scans[s] + " on " + threads + " threads differs from the sequential result");
+                    ok = false;
+                }
+            }
+            pool.shutdown();
+        }
+        System.out.println("(checksum " + Bench.sink + ")");
+        if (!ok) System.exit(1);
+    }
+
+    // Measure one scan, returns nanoseconds per scan
+    static double time(String name, String params, ParallelAnalytics analytics, List<Hospital> all, int scan) {
+        return Bench.measure(name, params, new Bench.Case() {
+            public long run() {
+                return ParallelAnalyticsBenchmark.run(analytics, all, scan);
+            }
+        });
+    }
+
+    // Run one scan and reduce its result to a checksum that covers every value
+    static long run(ParallelAnalytics analytics, List<Hospital> all, int scan) {
+        switch (scan) {
+            case 0:
+                return checksum(analytics.weeklyTotals(all, DISEASE));
+            case 1:
+                return checksum(analytics.peakWeekCounts(all, DISEASE));
+            case 2:
+                return analytics.countInRange(all, "", 100, 1000);
+            default:
+                long sum = 0;
+                for (DiseaseRecordLinkedList.Node node : analytics.maxNodes(all)) {
+                    if (node != null) sum = 31 * sum + node.index * 1_000_003L + node.data.caseCount;
+                }
+                return sum;
+        }
+    }
+
+    // Weeks with cases and their totals (array bounds may differ between runs, the weeks with cases do not)
+    static long checksum(TrendCube.Series s) {
+        long sum = 0;
+        for (int w = s.firstWeek(); w <= s.lastWeek(); w++) {
+            if (s.total(w) != 0) sum = 31 * (31 * sum + w) + s.total(w);
+        }
+        return sum;
+    }
+}
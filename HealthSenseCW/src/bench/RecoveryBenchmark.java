@@ -0,0 +1,109 @@
+package bench;
+
+import cli.SystemEngine;
+import model.disease.DiseaseDictionary;
+import model.hospital.Hospital;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/* Durability cost and restart time.
+ * 1. ingest records with the write-ahead log on (group commit) and measure records/s,
+ * 2. copy the data directory as it would be after a crash and restart from the log alone,
+ * 3. take a snapshot and restart from the snapshot.
+ * Each restart is checked against the number of records ingested.
+ * Run: java -Xmx4g -cp out bench.RecoveryBenchmark [records=10000000] [hospitals=1000] [dir=/tmp/healthsense-recovery]*/
+
+public class RecoveryBenchmark {
+    public static void main(String[] args) throws IOException {
+        int records = Integer.parseInt(Bench.arg(args, "records", "10000000"));
+        int hospitalCount = Integer.parseInt(Bench.arg(args, "hospitals", "1000"));
+        Path dir = Paths.get(Bench.arg(args, "dir", "/tmp/healthsense-recovery"));
+        Path crashCopy = Paths.get(dir + "-crash");
+        deleteDir(dir);
+        deleteDir(crashCopy);
+
+        SystemEngine engine = new SystemEngine();
+        engine.openStore(dir);
+        for (int i = 0; i < hospitalCount; i++) engine.addHospital("Hospital-" + i, "Region-" + (i % 25));
+        List<Hospital> all = engine.getHospitalManager().getAllHospitals();
+        int[] diseaseIds = new int[20];
+        for (int d = 0; d < diseaseIds.length; d++) diseaseIds[d] = DiseaseDictionary.idOf("Disease" + d);
+        Random r = new Random(42);
+        Hospital[] hs = new Hospital[4096];
+        int[] ds = new int[4096], ws = new int[4096], cs = new int[4096];
+        long start = System.nanoTime();
+        for (int done = 0; done < records; ) {
+            int n = Math.min(hs.length, records - done);
+            Hospital h = all.get(r.nextInt(all.size())); // one feed file per hospital, as the importer sees them
+            for (int i = 0; i < n; i++) {
+                hs[i] = h;
+                ds[i] = diseaseIds[r.nextInt(diseaseIds.length)];
+                ws[i] = 1 + r.nextInt(520);
+                cs[i] = 1 + r.nextInt(500);
+            }
+            engine.ingestBatch(hs, ds, ws, cs, n);
+            done += n;
+        }
+        engine.sync();
+        long nanos = System.nanoTime() - start;
+        System.out.printf("ingest with log   %12.0f records/s (%d records in %.2f s), data dir %s%n",
+                records * 1e9 / nanos, records, nanos / 1e9, describe(dir));
+
+        copyDir(dir, crashCopy); // what a crash right now would leave behind
+        engine = restart(crashCopy, "restart from log ", records);
+        engine.closeStore(); // writes a snapshot of the recovered state
+        engine = null;
+        restart(crashCopy, "restart snapshot  ", records).closeStore();
+        deleteDir(dir);
+        deleteDir(crashCopy);
+    }
+
+    static SystemEngine restart(Path dir, String label, long expected) throws IOException {
+        System.gc();
+        String files = describe(dir);
+        SystemEngine engine = new SystemEngine();
+        long start = System.nanoTime();
+        engine.openStore(dir);
+        long nanos = System.nanoTime() - start;
+        long loaded = 0;
+        for (Hospital h : engine.getHospitalManager().getAllHospitals()) loaded += h.diseaseHistory.size();
+        System.out.printf("%s %12.0f records/s (%d records in %.2f s) from %s%s%n", label, loaded * 1e9 / nanos, loaded,
+                nanos / 1e9, files, loaded == expected ? "" : "  FAILED: expected " + expected);
+        return engine;
+    }
+
+    static String describe(Path dir) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.sorted().forEach(f -> {
+                try {
+                    sb.append(sb.length() == 0 ? "" : ", ").append(f.getFileName()).append(' ').append(Files.size(f) >> 20).append(" MB");
+                } catch (IOException e) {
+                    sb.append(f.getFileName());
+                }
+            });
+        }
+        return sb.toString();
+    }
+
+    static void copyDir(Path from, Path to) throws IOException {
+        Files.createDirectories(to);
+        try (Stream<Path> files = Files.list(from)) {
+            for (Path f : (Iterable<Path>) files::iterator) Files.copy(f, to.resolve(f.getFileName()));
+        }
+    }
+
+    static void deleteDir(Path dir) throws IOException {
+        if (!Files.exists(dir)) return;
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path f : (Iterable<Path>) files::iterator) Files.delete(f);
+        }
+        Files.delete(dir);
+    }
+}
@@ -0,0 +1,63 @@
+package bench;
+
+import cli.SystemEngine;
+import model.disease.DiseaseDictionary;
+import model.disease.RetentionPolicy;
+import model.hospital.Hospital;
+
+import java.util.List;
+import java.util.Random;
+
+/* Heap use of a long-running instance that receives one feed per hospital every week.
+ * The same feed is ingested twice, first keeping every record, then with a retention policy; every year of weeks the
+ * records kept and the heap used after a GC are printed. Without retention both grow linearly, with it they level off
+ * once the rolled-up buckets reach their limit.
+ * Run: java -Xmx4g -cp out bench.RetentionBenchmark [hospitals=200] [weeks=1040] [retain=104:13:8]*/
+
+public class RetentionBenchmark {
+    public static void main(String[] args) {
+        int hospitals = Integer.parseInt(Bench.arg(args, "hospitals", "200"));
+        int weeks = Integer.parseInt(Bench.arg(args, "weeks", "1040"));
+        RetentionPolicy policy = RetentionPolicy.parse(Bench.arg(args, "retain", "104:13:8"));
+        System.out.println("hospitals=" + hospitals + " weeks=" + weeks + " diseases=20");
+        run("keep all", null, hospitals, weeks);
+        run("retain " + policy, policy, hospitals, weeks);
+    }
+
+    static void run(String label, RetentionPolicy policy, int hospitalCount, int weeks) {
+        SystemEngine engine = new SystemEngine();
+        engine.setRetention(policy);
+        for (int i = 0; i < hospitalCount; i++) engine.addHospital("Hospital-" + i, "Region-" + (i % 25));
+        List<Hospital> all = engine.getHospitalManager().getAllHospitals();
+        int[] diseaseIds = new int[20];
+        for (int d = 0; d < diseaseIds.length; d++) diseaseIds[d] = DiseaseDictionary.idOf("Disease" + d);
+        Random r = new Random(42);
+        Hospital[] hs = new Hospital[diseaseIds.length];
+        int[] ds = new int[hs.length], ws = new int[hs.length], cs = new int[hs.length];
+        System.out.println(label + ":");
+        long start = System.nanoTime();
+        for (int week = 1; week <= weeks; week++) {
+            for (Hospital h : all) { // one weekly feed per hospital: a record per disease
+                for (int d = 0; d < diseaseIds.length; d++) {
+                    hs[d] = h;
+                    ds[d] = diseaseIds[d];
+                    ws[d] = week;
+                    cs[d] = 1 + r.nextInt(200);
+                }
+                engine.ingestBatch(hs, ds, ws, cs, hs.length);
+            }
+            if (week % 52 == 0 || week == weeks) {
+                long kept = 0;
+                for (Hospital h : all) kept += h.diseaseHistory.size();
+                System.out.printf("  week %5d  %10d records kept  %8.1f MB heap used%n", week, kept, heapUsed() / 1e6);
+            }
+        }
+        System.out.printf("  %.0f records/s%n", (double) weeks * hospitalCount * diseaseIds.length * 1e9 / (System.nanoTime() - start));
+    }
+
+    static long heapUsed() {
+        Runtime rt = Runtime.getRuntime();
+        System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
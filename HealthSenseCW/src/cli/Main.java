@@ -1,11 +1,56 @@
 package cli;
 
 //Entry point
+//Usage: java cli.Main [--data <dir>] [--undo-depth <n>] [--peak-window <k>] [--generate <key=value,...>] [--query-threads <n>]
+//                     [--retain <weeks>[:<bucketWeeks>[:<buckets>]]] [--query-cache <entries>] [record files (CSV/NDJSON) or history archives (*.hsa)...]
+//With --data, state is kept in <dir> (write-ahead log + snapshots) and restored on the next start.
+//--generate loads a synthetic workload instead of the sample data, e.g. --generate hospitals=1000,records=1000000,seed=7
+//--query-threads sets how many threads analytics scans use (default: the common fork/join pool, 1 = sequential).
+//--retain keeps the newest <weeks> weeks at full resolution and rolls older ones up into buckets (default 13 weeks,
+//at most 40 kept), e.g. --retain 104 or --retain 52:4:120. Without it every record is kept.
+//--query-cache sets how many trend, peak and severity results are cached (default 1024, 0 = no cache).
 
 public class Main {
     public static void main(String[] args) {
         SystemEngine engine = new SystemEngine();
-        engine.seedSampleData(); // preload sample hospitals and disease records
+        java.util.List<String> files = new java.util.ArrayList<>();
+        String dataDir = null;
+        String workload = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--data") && i + 1 < args.length) dataDir = args[++i];
+            else if (args[i].equals("--undo-depth") && i + 1 < args.length) engine.setUndoDepth(Integer.parseInt(args[++i]));
+            else if (args[i].equals("--peak-window") && i + 1 < args.length) engine.setPeakWindow(Integer.parseInt(args[++i]));
+            else if (args[i].equals("--generate") && i + 1 < args.length) workload = args[++i];
+            else if (args[i].equals("--query-threads") && i + 1 < args.length) engine.setQueryThreads(Integer.parseInt(args[++i]));
+            else if (args[i].equals("--retain") && i + 1 < args.length) engine.setRetention(model.disease.RetentionPolicy.parse(args[++i]));
+            else if (args[i].equals("--query-cache") && i + 1 < args.length) engine.setQueryCacheSize(Integer.parseInt(args[++i]));
+            else files.add(args[i]);
+        }
+        boolean recovered = false;
+        if (dataDir != null) {
+            try {
+                long start = System.nanoTime();
+                recovered = engine.openStore(java.nio.file.Paths.get(dataDir)); // load snapshot + replay the log tail
+                if (recovered) System.out.printf("Restored state from %s in %.2f s%n", dataDir, (System.nanoTime() - start) / 1e9);
+            } catch (java.io.IOException e) {
+                System.out.println("Could not open data directory " + dataDir + ": " + e.getMessage());
+                return;
+            }
+        }
+        boolean archives = files.stream().anyMatch(f -> f.endsWith(".hsa"));
+        if (workload != null) {
+            util.WorkloadGenerator generator = new util.WorkloadGenerator(util.WorkloadGenerator.Config.parse(workload));
+            long start = System.nanoTime();
+            long rows = engine.loadWorkload(generator);
+            System.out.printf("Generated workload (%s): %d records in %.2f s%n", generator.config(), rows, (System.nanoTime() - start) / 1e9);
+        } else if (!recovered && !archives) {
+            engine.seedSampleData(); // preload sample hospitals and disease records
+        }
+        for (String path : files) {
+            if (path.endsWith(".hsa")) engine.openArchives(path); // history archives are mapped, not parsed
+            else engine.importRecords(path); // bulk load any record files given on the command line
+        }
+        engine.startOutbreakPipeline(); // workers handle queued outbreak reports in the background
         engine.runCLI(); // start user interaction loop
     }
 }
@@ -0,0 +1,677 @@
+package cli;
+
+import model.disease.DiseaseDictionary;
+import model.disease.DiseaseRecordLinkedList;
+import model.disease.TrendCube;
+import model.hospital.Hospital;
+import model.outbreak.OutbreakQueueManager;
+import model.outbreak.OutbreakReport;
+import util.MergeSortUtil;
+import util.WriteAheadLog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/* Keeps the engine's state on disk: a write-ahead log of every change plus periodic compact snapshots.
+ * Files in the data directory: snapshot.bin (latest snapshot, names the first log generation it does not cover)
+ * and wal-<generation>.log. Startup loads the snapshot and replays only the logs from that generation on.
+ * A snapshot starts a new log generation before it is written, so a crash at any point leaves a snapshot
+ * plus the logs needed to bring it up to date. Logged: hospital adds, record adds and undos, enqueued and handled
+ * reports, sorts and retention rollups. Histories opened from a HistoryArchive are stored as the archive's path plus
+ * the rows added after it; rolled-up weeks are stored as the buckets of each trend series.
+ * Every logged report has a number, and the outbreak workers log the numbers of the reports they handled; replay only
+ * queues reports again that were never acknowledged. A batch a worker took but had not acknowledged before a crash
+ * is handled again (at least once).*/
+
+class StateStore implements Closeable {
+    // Log entry types
+    static final byte HOSPITAL = 1;      // hospital id, name, region
+    static final byte DISEASE = 2;       // disease id, name (logged before the first record that uses it)
+    static final byte RECORDS = 3;       // hospital id, n, then n rows of disease id, week, count
+    static final byte REMOVE_AT = 4;     // hospital id, row (undo of an add)
+    static final byte REPORT = 5;        // region, hospital, summary, severity, report number
+    static final byte SORT = 6;          // hospital id, sort key
+    static final byte PERMUTE = 7;       // hospital id, n, order: first n rows rearranged (undo/redo of a sort)
+    static final byte HANDLED = 8;       // n, then n report numbers: reports a worker handled (acknowledged)
+    static final byte ARCHIVE = 9;       // hospital id, archive file: the file became the hospital's history
+    static final byte ROLLUP = 10;       // cutoff, bucket weeks, max buckets: weeks before cutoff were rolled up
+
+    static final byte SORT_BY_COUNT = 0, SORT_BY_WEEK = 1;
+
+    private static final int SNAPSHOT_MAGIC = 0x48534e50; // "HSNP"
+    private static final int SNAPSHOT_VERSION = 1;
+    static final long SNAPSHOT_AFTER_LOG_BYTES = 256L << 20; // take a snapshot once the log has grown this much
+    private static final long FLUSH_INTERVAL_MILLIS = 20;
+    private static final int REPLAY_BATCH = 4096;
+
+    private final SystemEngine engine;
+    private final Path dir;
+    private volatile WriteAheadLog wal;  // current log generation (replaced by snapshot())
+    private long generation;             // number of the current log file
+    private volatile int diseasesLogged; // dictionary ids below this are in the snapshot or log
+    private int[] diseaseMap = new int[0]; // replay only: logged disease id -> id in this run's dictionary
+    private final java.util.concurrent.atomic.AtomicLong reportIds = new java.util.concurrent.atomic.AtomicLong(); // next report number
+    // Replay only: logged reports not acknowledged yet, in log order, and acknowledgements logged before their report
+    private final java.util.Map<Long, OutbreakReport> unhandled = new java.util.LinkedHashMap<>();
+    private final java.util.Set<Long> handledEarly = new java.util.HashSet<>();
+
+    StateStore(SystemEngine engine, Path dir) {
+        this.engine = engine;
+        this.dir = dir;
+    }
+
+    // Load the latest snapshot and replay the logs after it, then open the log for appending.
+    // Must run before the engine logs anything. Returns true if there was saved state.
+    boolean open() throws IOException {
+        Files.createDirectories(dir);
+        boolean found = false;
+        Path snapshot = dir.resolve("snapshot.bin");
+        if (Files.exists(snapshot)) {
+            generation = loadSnapshot(snapshot);
+            found = true;
+        }
+        long validLength = 0;
+        while (true) {
+            Path log = logFile(generation);
+            if (!Files.exists(log)) break;
+            found = true;
+            validLength = WriteAheadLog.replay(log, this::apply);
+            if (!Files.exists(logFile(generation + 1))) break;
+            generation++; // a crash happened while a snapshot was being taken, the next generation follows
+        }
+        for (OutbreakReport r : unhandled.values()) engine.enqueueReport(r); // keeps its number, nothing is logged yet
+        unhandled.clear();
+        handledEarly.clear();
+        wal = new WriteAheadLog(logFile(generation), validLength, true, FLUSH_INTERVAL_MILLIS);
+        return found;
+    }
+
+    private Path logFile(long gen) {
+        return dir.resolve("wal-" + gen + ".log");
+    }
+
+    // ---- logging (callers hold the locks that order the change, see SystemEngine) ----
+
+    long logHospital(Hospital h) {
+        byte[] name = utf8(h.name), region = utf8(h.region);
+        int id = h.id;
+        return wal.append(HOSPITAL, 12 + name.length + region.length, b -> {
+            b.putInt(id);
+            WriteAheadLog.putString(b, name);
+            WriteAheadLog.putString(b, region);
+        });
+    }
+
+    // Rows from..to-1 of the columns, all for one hospital
+    long logRecords(Hospital h, int[] diseaseIds, int[] weeks, int[] counts, int from, int to) {
+        for (int i = from; i < to; i++) ensureDiseaseLogged(diseaseIds[i]);
+        int id = h.id;
+        return wal.append(RECORDS, 8 + 12 * (to - from), b -> {
+            b.putInt(id);
+            b.putInt(to - from);
+            for (int i = from; i < to; i++) {
+                b.putInt(diseaseIds[i]);
+                b.putInt(weeks[i]);
+                b.putInt(counts[i]);
+            }
+        });
+    }
+
+    long logRecord(Hospital h, int diseaseId, int week, int count) {
+        ensureDiseaseLogged(diseaseId);
+        int id = h.id;
+        return wal.append(RECORDS, 20, b -> {
+            b.putInt(id);
+            b.putInt(1);
+            b.putInt(diseaseId);
+            b.putInt(week);
+            b.putInt(count);
+        });
+    }
+
+    long logRemove(Hospital h, int row) {
+        int id = h.id;
+        return wal.append(REMOVE_AT, 8, b -> {
+            b.putInt(id);
+            b.putInt(row);
+        });
+    }
+
+    // Number for a report about to be queued and logged (see OutbreakReport.withLogId)
+    long nextReportId() {
+        return reportIds.getAndIncrement();
+    }
+
+    long logReport(OutbreakReport r) {
+        byte[] region = utf8(r.region()), hospital = utf8(r.hospital()), summary = utf8(r.summary());
+        int severity = r.severity();
+        long id = r.logId();
+        return wal.append(REPORT, 24 + region.length + hospital.length + summary.length, b -> {
+            WriteAheadLog.putString(b, region);
+            WriteAheadLog.putString(b, hospital);
+            WriteAheadLog.putString(b, summary);
+            b.putInt(severity);
+            b.putLong(id);
+        });
+    }
+
+    // Reports of a batch a worker has handled (reports queued without a number are left out)
+    long logHandled(List<OutbreakReport> batch) {
+        long[] ids = new long[batch.size()];
+        int n = 0;
+        for (OutbreakReport r : batch) {
+            if (r.logId() >= 0) ids[n++] = r.logId();
+        }
+        if (n == 0) return -1;
+        int count = n;
+        return wal.append(HANDLED, 4 + 8 * count, b -> {
+            b.putInt(count);
+            for (int i = 0; i < count; i++) b.putLong(ids[i]);
+        });
+    }
+
+    long logSort(Hospital h, byte key) {
+        int id = h.id;
+        return wal.append(SORT, 5, b -> {
+            b.putInt(id);
+            b.put(key);
+        });
+    }
+
+    long logArchive(Hospital h, Path file) {
+        byte[] path = utf8(file.toString());
+        int id = h.id;
+        return wal.append(ARCHIVE, 8 + path.length, b -> {
+            b.putInt(id);
+            WriteAheadLog.putString(b, path);
+        });
+    }
+
+    // Caller holds the analytics write lock, so the rollup sits between the changes it follows and precedes
+    long logRollup(int cutoff, int bucketWeeks, int maxBuckets) {
+        return wal.append(ROLLUP, 12, b -> {
+            b.putInt(cutoff);
+            b.putInt(bucketWeeks);
+            b.putInt(maxBuckets);
+        });
+    }
+
+    // Whole history of a hospital in its current order (caller holds the hospital's lock)
+    long logPermute(Hospital h, int[] order) {
+        int id = h.id;
+        return wal.append(PERMUTE, 8 + 4 * order.length, b -> {
+            b.putInt(id);
+            b.putInt(order.length);
+            for (int row : order) b.putInt(row);
+        });
+    }
+
+    // Wait until a logged change is on disk
+    void awaitDurable(long position) {
+        if (position >= 0) wal.awaitDurable(position);
+    }
+
+    // Wait until everything logged so far is on disk
+    void sync() {
+        wal.awaitDurable(wal.appendedLength());
+    }
+
+    long logLength() {
+        return wal.appendedLength();
+    }
+
+    // Disease names go into the log once, before the first record that uses them
+    private void ensureDiseaseLogged(int diseaseId) {
+        if (diseaseId < diseasesLogged) return;
+        synchronized (this) {
+            int known = DiseaseDictionary.size();
+            for (int id = diseasesLogged; id < known; id++) {
+                int logged = id;
+                byte[] name = utf8(DiseaseDictionary.nameOf(id));
+                wal.append(DISEASE, 8 + name.length, b -> {
+                    b.putInt(logged);
+                    WriteAheadLog.putString(b, name);
+                });
+            }
+            diseasesLogged = known;
+        }
+    }
+
+    // ---- replay ----
+
+    // Apply one log entry to the engine (the engine does not log while the store is being opened)
+    private void apply(byte type, ByteBuffer b) throws IOException {
+        switch (type) {
+            case HOSPITAL: {
+                b.getInt(); // ids follow registration order, so the hospital gets the same id again
+                String name = WriteAheadLog.getString(b);
+                engine.addHospital(name, WriteAheadLog.getString(b));
+                break;
+            }
+            case DISEASE: {
+                int loggedId = b.getInt();
+                mapDisease(loggedId, WriteAheadLog.getString(b));
+                break;
+            }
+            case RECORDS: {
+                Hospital h = hospital(b.getInt());
+                int n = b.getInt();
+                Hospital[] hospitals = new Hospital[Math.min(n, REPLAY_BATCH)];
+                Arrays.fill(hospitals, h);
+                int[] diseaseIds = new int[hospitals.length], weeks = new int[hospitals.length], counts = new int[hospitals.length];
+                for (int done = 0; done < n; ) {
+                    int k = Math.min(hospitals.length, n - done);
+                    for (int i = 0; i < k; i++) {
+                        diseaseIds[i] = diseaseMap[b.getInt()];
+                        weeks[i] = b.getInt();
+                        counts[i] = b.getInt();
+                    }
+                    engine.ingestBatch(hospitals, diseaseIds, weeks, counts, k);
+                    done += k;
+                }
+                break;
+            }
+            case REPORT: {
+                String region = WriteAheadLog.getString(b);
+                String hospital = WriteAheadLog.getString(b);
+                String summary = WriteAheadLog.getString(b);
+                int severity = b.getInt();
+                replayReport(new OutbreakReport(region, hospital, summary, severity, b.getLong()));
+                break;
+            }
+            case HANDLED: {
+                int n = b.getInt();
+                for (int i = 0; i < n; i++) {
+                    long id = b.getLong();
+                    if (unhandled.remove(id) == null) handledEarly.add(id); // the worker logged it before its enqueuer did
+                }
+                break;
+            }
+            case SORT: {
+                Hospital h = hospital(b.getInt());
+                byte key = b.get();
+                engine.modifyHospital(h, () -> {
+                    if (key == SORT_BY_COUNT) MergeSortUtil.sortLinkedListByCount(h.diseaseHistory);
+                    else MergeSortUtil.sortLinkedListByWeek(h.diseaseHistory);
+                });
+                break;
+            }
+            case PERMUTE: {
+                Hospital h = hospital(b.getInt());
+                int[] order = new int[b.getInt()];
+                for (int i = 0; i < order.length; i++) order[i] = b.getInt();
+                engine.modifyHospital(h, () -> h.diseaseHistory.permute(order, order.length));
+                break;
+            }
+            case REMOVE_AT: {
+                Hospital h = hospital(b.getInt());
+                engine.removeRecordAt(h, b.getInt());
+                break;
+            }
+            case ARCHIVE: {
+                b.getInt(); // the archive names its hospital
+                engine.attachArchive(Path.of(WriteAheadLog.getString(b)));
+                break;
+            }
+            case ROLLUP:
+                engine.rollUp(b.getInt(), b.getInt(), b.getInt());
+                break;
+            default:
+                throw new IllegalStateException("unknown log entry type " + type);
+        }
+    }
+
+    private Hospital hospital(int id) {
+        return engine.hospitalManager.getAllHospitals().get(id);
+    }
+
+    // A report read back from the snapshot or log: kept until replay ends unless it was acknowledged
+    private void replayReport(OutbreakReport r) {
+        long id = r.logId();
+        reportIds.accumulateAndGet(id + 1, Math::max); // new reports are numbered after every logged one
+        if (!handledEarly.remove(id)) unhandled.put(id, r);
+    }
+
+    private void mapDisease(int loggedId, String name) {
+        if (loggedId >= diseaseMap.length) diseaseMap = Arrays.copyOf(diseaseMap, Math.max(loggedId + 1, diseaseMap.length * 2));
+        diseaseMap[loggedId] = DiseaseDictionary.idOf(name);
+        diseasesLogged = Math.max(diseasesLogged, loggedId + 1);
+    }
+
+    // ---- snapshots ----
+
+    /* Write a snapshot of everything and start a new log generation. The caller holds the engine's
+     * analytics write lock, so no change is in flight. Order: new log first, then the snapshot
+     * (written to a temporary file and renamed), then the old log is deleted.*/
+    void snapshot() throws IOException {
+        long next = generation + 1;
+        wal.close();
+        wal = new WriteAheadLog(logFile(next), 0, true, FLUSH_INTERVAL_MILLIS);
+        Path tmp = dir.resolve("snapshot.tmp");
+        try (SnapshotWriter out = new SnapshotWriter(tmp)) {
+            out.putInt(SNAPSHOT_MAGIC);
+            out.putInt(SNAPSHOT_VERSION);
+            out.putLong(next);
+            int diseases = DiseaseDictionary.size();
+            out.putInt(diseases);
+            for (int id = 0; id < diseases; id++) out.putString(DiseaseDictionary.nameOf(id));
+            List<Hospital> hospitals = engine.hospitalManager.getAllHospitals();
+            int hospitalCount = hospitals.size();
+            out.putInt(hospitalCount);
+            for (int i = 0; i < hospitalCount; i++) {
+                out.putString(hospitals.get(i).name);
+                out.putString(hospitals.get(i).region);
+            }
+            for (int i = 0; i < hospitalCount; i++) {
+                DiseaseRecordLinkedList history = hospitals.get(i).diseaseHistory;
+                Path archive = history.archiveFile(); // archived rows stay in their file, only the path is stored
+                out.putString(archive == null ? "" : archive.toAbsolutePath().toString());
+                int n = history.size();
+                out.putInt(n - history.archivedSize());
+                for (int r = history.archivedSize(); r < n; r++) {
+                    out.putInt(history.diseaseIdAt(r));
+                    out.putInt(history.weekAt(r));
+                    out.putInt(history.countAt(r));
+                }
+            }
+            List<OutbreakReport> reports = new ArrayList<>();
+            for (OutbreakQueueManager.RegionQueue rq : engine.queueManager.regionQueues()) reports.addAll(rq.unhandled());
+            out.putInt(reports.size());
+            for (OutbreakReport r : reports) {
+                out.putString(r.region());
+                out.putString(r.hospital());
+                out.putString(r.summary());
+                out.putInt(r.severity());
+                out.putLong(r.logId());
+            }
+            writeRollups(out, hospitals);
+            out.finish();
+            diseasesLogged = diseases;
+        }
+        Files.move(tmp, dir.resolve("snapshot.bin"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        for (long g = generation; g >= 0 && Files.deleteIfExists(logFile(g)); g--) {
+            // older generations are covered by the snapshot
+        }
+        generation = next;
+    }
+
+    // Load a snapshot into the (empty) engine, returns the first log generation to replay
+    private long loadSnapshot(Path file) throws IOException {
+        try (SnapshotReader in = new SnapshotReader(file)) {
+            if (in.getInt() != SNAPSHOT_MAGIC || in.getInt() != SNAPSHOT_VERSION) throw new IOException("not a snapshot file: " + file);
+            long next = in.getLong();
+            int diseases = in.getInt();
+            for (int id = 0; id < diseases; id++) mapDisease(id, in.getString());
+            int hospitalCount = in.getInt();
+            for (int i = 0; i < hospitalCount; i++) {
+                String name = in.getString();
+                engine.addHospital(name, in.getString());
+            }
+            Hospital[] hospitals = new Hospital[REPLAY_BATCH];
+            int[] diseaseIds = new int[REPLAY_BATCH], weeks = new int[REPLAY_BATCH], counts = new int[REPLAY_BATCH];
+            int[] row = new int[3 * REPLAY_BATCH];
+            for (int i = 0; i < hospitalCount; i++) {
+                Arrays.fill(hospitals, hospital(i));
+                String archive = in.getString();
+                if (!archive.isEmpty()) engine.attachArchive(Path.of(archive));
+                int n = in.getInt();
+                for (int done = 0; done < n; ) {
+                    int k = Math.min(REPLAY_BATCH, n - done);
+                    in.getInts(row, 3 * k);
+                    for (int r = 0; r < k; r++) {
+                        diseaseIds[r] = diseaseMap[row[3 * r]];
+                        weeks[r] = row[3 * r + 1];
+                        counts[r] = row[3 * r + 2];
+                    }
+                    engine.ingestBatch(hospitals, diseaseIds, weeks, counts, k);
+                    done += k;
+                }
+            }
+            int reports = in.getInt();
+            for (int i = 0; i < reports; i++) {
+                String region = in.getString(), hospital = in.getString(), summary = in.getString();
+                int severity = in.getInt();
+                replayReport(new OutbreakReport(region, hospital, summary, severity, in.getLong()));
+            }
+            readRollups(in);
+            in.verify();
+            return next;
+        }
+    }
+
+    /* Retention section: the cutoff and bucket settings of the last rollup, then every series with rolled-up buckets,
+     * each hospital's (hospital index, disease id) and each region's or the national one (region name, "" = national).
+ * Series hold every spelling of a disease, they are written under the id of its first spelling.*/
+    private void writeRollups(SnapshotWriter out, List<Hospital> hospitals) throws IOException {
+        out.putInt(engine.rolledUpBefore);
+        out.putInt(engine.rollupBucketWeeks);
+        out.putInt(engine.rollupMaxBuckets);
+        TrendCube cube = engine.trendCube;
+        int diseases = DiseaseDictionary.symbolCount();
+        List<int[]> cells = new ArrayList<>();
+        for (int i = 0; i < hospitals.size(); i++) {
+            for (int symbol = 0; symbol < diseases; symbol++) {
+                TrendCube.Series s = cube.series(hospitals.get(i), symbol);
+                if (s != null && s.rolledUpBuckets() > 0) cells.add(new int[]{i, symbol});
+            }
+        }
+        out.putInt(cells.size());
+        for (int[] cell : cells) {
+            out.putInt(cell[0]);
+            out.putInt(DiseaseDictionary.firstIdOf(cell[1]));
+            writeBuckets(out, cube.series(hospitals.get(cell[0]), cell[1]));
+        }
+        List<int[]> totals = new ArrayList<>();
+        for (int r = -1; r < engine.regions.size(); r++) {
+            for (int symbol = 0; symbol < diseases; symbol++) {
+                TrendCube.Series s = cube.series(r, symbol);
+                if (s != null && s.rolledUpBuckets() > 0) totals.add(new int[]{r, symbol});
+            }
+        }
+        out.putInt(totals.size());
+        for (int[] total : totals) {
+            out.putString(total[0] < 0 ? "" : engine.regions.get(total[0]).name);
+            out.putInt(DiseaseDictionary.firstIdOf(total[1]));
+            writeBuckets(out, cube.series(total[0], total[1]));
+        }
+    }
+
+    private static void writeBuckets(SnapshotWriter out, TrendCube.Series s) throws IOException {
+        out.putInt(s.rolledUpBefore());
+        out.putInt(s.bucketWeeks());
+        out.putInt(s.bucketFirstWeek(0) / s.bucketWeeks());
+        out.putInt(s.rolledUpBuckets());
+        for (int i = 0; i < s.rolledUpBuckets(); i++) {
+            out.putInt(s.bucketTotal(i));
+            out.putInt(s.bucketPeakWeek(i));
+            out.putInt(s.bucketPeakTotal(i));
+        }
+    }
+
+    // Counterpart of writeRollups, after the full-resolution records were loaded
+    private void readRollups(SnapshotReader in) throws IOException {
+        engine.rolledUpBefore = in.getInt();
+        engine.rollupBucketWeeks = in.getInt();
+        engine.rollupMaxBuckets = in.getInt();
+        TrendCube cube = engine.trendCube;
+        int cells = in.getInt();
+        for (int i = 0; i < cells; i++) {
+            Hospital h = hospital(in.getInt());
+            int diseaseId = diseaseMap[in.getInt()];
+            int fullFrom = in.getInt(), bucketWeeks = in.getInt(), firstBucket = in.getInt();
+            int[][] buckets = readBuckets(in);
+            cube.restoreRollup(h, diseaseId, fullFrom, bucketWeeks, firstBucket, buckets[0], buckets[1], buckets[2]);
+        }
+        int totals = in.getInt();
+        for (int i = 0; i < totals; i++) {
+            String region = in.getString();
+            int regionId = region.isEmpty() ? -1 : engine.regions.region(region).id;
+            int diseaseId = diseaseMap[in.getInt()];
+            int fullFrom = in.getInt(), bucketWeeks = in.getInt(), firstBucket = in.getInt();
+            int[][] buckets = readBuckets(in);
+            cube.restoreRollup(regionId, diseaseId, fullFrom, bucketWeeks, firstBucket, buckets[0], buckets[1], buckets[2]);
+        }
+    }
+
+    // Bucket count, then total, peak week and peak total of each bucket: {totals, peakWeeks, peakTotals}
+    private static int[][] readBuckets(SnapshotReader in) throws IOException {
+        int n = in.getInt();
+        int[][] buckets = new int[3][n];
+        for (int b = 0; b < n; b++) {
+            buckets[0][b] = in.getInt();
+            buckets[1][b] = in.getInt();
+            buckets[2][b] = in.getInt();
+        }
+        return buckets;
+    }
+
+    // Flush the log and close it (take a snapshot first for a fast next start)
+    @Override
+    public void close() throws IOException {
+        wal.close();
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Buffered snapshot output with a CRC32 over everything written, stored at the end
+    private static class SnapshotWriter implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocate(1 << 20);
+        private final CRC32 crc = new CRC32();
+
+        SnapshotWriter(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        private void room(int n) throws IOException {
+            if (buf.remaining() < n) drain();
+        }
+
+        private void drain() throws IOException {
+            crc.update(buf.array(), 0, buf.position());
+            buf.flip();
+            while (buf.hasRemaining()) channel.write(buf);
+            buf.clear();
+        }
+
+        void putInt(int v) throws IOException {
+            room(4);
+            buf.putInt(v);
+        }
+
+        void putLong(long v) throws IOException {
+            room(8);
+            buf.putLong(v);
+        }
+
+        void putString(String s) throws IOException {
+            byte[] bytes = utf8(s);
+            room(4 + bytes.length);
+            buf.putInt(bytes.length);
+            buf.put(bytes);
+        }
+
+        // Write the checksum and force the file to disk
+        void finish() throws IOException {
+            drain();
+            buf.putInt((int) crc.getValue());
+            buf.flip();
+            while (buf.hasRemaining()) channel.write(buf);
+            channel.force(true);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    // Reads what SnapshotWriter wrote and checks the CRC at the end
+    private static class SnapshotReader implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocate(1 << 20);
+        private final CRC32 crc = new CRC32();
+        private final long dataLength; // file length without the trailing CRC
+        private long consumed;         // bytes of the file already moved into buf
+
+        SnapshotReader(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            dataLength = channel.size() - 4;
+            if (dataLength < 0) throw new IOException("snapshot is truncated");
+            buf.limit(0);
+        }
+
+        // Make at least n bytes available (n is at most the buffer size), every byte read is added to the crc
+        private void need(int n) throws IOException {
+            if (buf.remaining() >= n) return;
+            buf.compact();
+            int keep = buf.position();
+            buf.limit((int) Math.min(buf.capacity(), keep + dataLength - consumed));
+            while (buf.hasRemaining() && channel.read(buf) >= 0) {
+                // keep reading
+            }
+            crc.update(buf.array(), keep, buf.position() - keep);
+            consumed += buf.position() - keep;
+            buf.flip();
+            if (buf.remaining() < n) throw new IOException("snapshot is truncated");
+        }
+
+        int getInt() throws IOException {
+            need(4);
+            return buf.getInt();
+        }
+
+        long getLong() throws IOException {
+            need(8);
+            return buf.getLong();
+        }
+
+        String getString() throws IOException {
+            int length = getInt();
+            need(length);
+            String s = new String(buf.array(), buf.position(), length, StandardCharsets.UTF_8);
+            buf.position(buf.position() + length);
+            return s;
+        }
+
+        // Read count ints into out
+        void getInts(int[] out, int count) throws IOException {
+            for (int done = 0; done < count; ) {
+                need(4);
+                int k = Math.min(count - done, buf.remaining() / 4);
+                buf.asIntBuffer().get(out, done, k);
+                buf.position(buf.position() + 4 * k);
+                done += k;
+            }
+        }
+
+        // Everything must have been read and match the checksum stored at the end
+        void verify() throws IOException {
+            ByteBuffer stored = ByteBuffer.allocate(4);
+            while (stored.hasRemaining() && channel.read(stored, dataLength + stored.position()) >= 0) {
+                // keep reading
+            }
+            if (buf.hasRemaining() || consumed != dataLength || stored.getInt(0) != (int) crc.getValue()) {
+                throw new IOException("snapshot is corrupt");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -2,34 +2,259 @@ package cli;
 
 import model.hospital.Hospital;
 import model.hospital.HospitalManager;
-import model.disease.DiseaseRecord;
+import model.hospital.Region;
+import model.hospital.RegionRegistry;
+import model.disease.CaseCountIndex;
+import model.disease.DiseaseDictionary;
+import model.disease.DiseaseIndex;
+import model.disease.TrendCube;
 import model.disease.DiseaseRecordLinkedList;
+import model.disease.PeakDetector;
+import model.disease.ParallelAnalytics;
+import model.disease.HistoryArchive;
+import model.disease.Leaderboard;
+import model.disease.RetentionPolicy;
+import model.outbreak.OutbreakPipeline;
 import model.outbreak.OutbreakReport;
 import model.outbreak.OutbreakQueueManager;
+import model.outbreak.OverflowPolicy;
 import model.severity.SeverityBST;
+import model.severity.SeverityIndex;
 import model.severity.SeverityRecord;
 import model.undo.Operation;
 import model.undo.UndoManager;
 import util.MergeSortUtil;
+import util.Metrics;
+import util.QueryCache;
+import util.RecordComparator;
+import util.RecordImporter;
+import util.WorkloadGenerator;
 
 import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 
 //Main controller that ties together all parts of the system.
 
 public class SystemEngine {
     // Core subsystem managers
-    HospitalManager hospitalManager = new HospitalManager();          // stores and retrieves hospitals
-    OutbreakQueueManager queueManager = new OutbreakQueueManager();  // manages outbreak alert queue per region
-    SeverityBST severityTree = new SeverityBST();                    // binary search tree for severity ranking
+    RegionRegistry regions = new RegionRegistry();                   // region ids shared by hospitals, queues and regional totals
+    HospitalManager hospitalManager = new HospitalManager(regions);   // stores and retrieves hospitals
+    OutbreakQueueManager queueManager =                              // manages outbreak alert queue per region, most severe first
+            new OutbreakQueueManager(regions, true, 1000, OverflowPolicy.DROP_OLDEST);
+    DiseaseIndex diseaseIndex = new DiseaseIndex();                  // disease -> hospitals -> records, kept up to date on every change
+    PeakDetector peakDetector = new PeakDetector(PeakDetector.DEFAULT_WINDOW); // overall and local peaks per week, fed by trendCube
+    TrendCube trendCube =                                            // (disease, hospital, week) case totals and the top cells, kept up to date on every change
+            new TrendCube(peakDetector, Leaderboard.DEFAULT_SIZE);
+    SeverityIndex severityIndex = new SeverityIndex();               // severity tree of hospital peaks, kept up to date on every change
+    CaseCountIndex caseCountIndex = new CaseCountIndex(diseaseIndex); // postings ordered by case count, for threshold/range search
+    OutbreakPipeline outbreakPipeline =                              // workers that drain the region queues in batches
+            new OutbreakPipeline(queueManager, 2, 64, this::handleReports);
     UndoManager undoManager = new UndoManager();                    // tracks undoable operations
+    ParallelAnalytics analytics = ParallelAnalytics.common();       // fork/join scans over the histories (menu 22)
     Scanner scanner = new Scanner(System.in);                       // reads user input
 
+    // Latency, counters and gauges of the operations below (menu 21). Instruments are looked up once here.
+    final Metrics metrics = new Metrics();
+    private final Metrics.Timer appendTimer = metrics.timer("ingest.append");
+    private final Metrics.Timer batchTimer = metrics.timer("ingest.batch");
+    private final Metrics.Timer removeTimer = metrics.timer("ingest.remove");
+    private final Metrics.Timer queryWaitTimer = metrics.timer("query.lockWait");   // analytics waiting for writers to pause
+    private final Metrics.Timer queryTimer = metrics.timer("query.run");
+    private final Metrics.Timer searchDiseaseTimer = metrics.timer("search.disease");
+    private final Metrics.Timer searchRangeTimer = metrics.timer("search.range");
+    private final Metrics.Timer sortTimer = metrics.timer("sort");
+    private final Metrics.Timer trendTimer = metrics.timer("trend.weekly");
+    private final Metrics.Timer rollupTimer = metrics.timer("trend.rollup");
+    private final Metrics.Timer peaksTimer = metrics.timer("peaks.synchronized");
+    private final Metrics.Timer severityTimer = metrics.timer("severity.query");
+    private final Metrics.Timer scanTimer = metrics.timer("analytics.scan");
+    private final Metrics.Timer leaderboardTimer = metrics.timer("leaderboard.query");
+    private final Metrics.Timer enqueueTimer = metrics.timer("queue.enqueue");
+    private final Metrics.Timer handleBatchTimer = metrics.timer("queue.handleBatch");
+    private final Metrics.Timer archiveExportTimer = metrics.timer("archive.export");
+    private final Metrics.Timer archiveOpenTimer = metrics.timer("archive.open");
+    private final Metrics.Timer undoTimer = metrics.timer("undo");
+    private final Metrics.Timer redoTimer = metrics.timer("redo");
+    private final Metrics.Timer rollupRetentionTimer = metrics.timer("retention.rollup");
+    private final LongAdder recordsIngested = metrics.counter("records.ingested");
+    private final LongAdder recordsRemoved = metrics.counter("records.removed");
+    private final LongAdder recordsRolledUp = metrics.counter("records.rolledUp");  // aged out of the histories by retention
+    private final LongAdder recordsTooOld = metrics.counter("records.tooOld");      // refused, their week was rolled up already
+    private final LongAdder reportsEnqueued = metrics.counter("reports.enqueued");
+    private final LongAdder reportsRejected = metrics.counter("reports.rejected");
+    private final LongAdder reportsDequeued = metrics.counter("reports.dequeued");
+
+    // Results of repeated trend, peak and severity queries, kept until a hospital or disease they read changes
+    final QueryCache queryCache = new QueryCache(metrics, QueryCache.DEFAULT_SIZE);
+
+    {
+        metrics.gauge("hospitals", () -> hospitalManager.size());
+        metrics.gauge("regions", () -> regions.size());
+        metrics.gauge("records", () -> {
+            long n = 0;
+            for (Hospital h : hospitalManager.getAllHospitals()) n += h.diseaseHistory.size();
+            return n;
+        });
+        metrics.gauge("records.longestHistory", () -> {
+            long max = 0;
+            for (Hospital h : hospitalManager.getAllHospitals()) max = Math.max(max, h.diseaseHistory.size());
+            return max;
+        });
+        metrics.gauge("queue.depth", () -> queueManager.totalDepth());
+        metrics.gauge("undo.entries", () -> undoManager.size());
+        metrics.gauge("undo.bytes", () -> undoManager.bytes());
+        metrics.gauge("heap.used", () -> Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory());
+    }
+
+    /* Writers to different hospitals run in parallel: each holds the shared side of this lock plus the hospital's own lock.
+     * Analytics take the exclusive side, so they see histories and indexes in a consistent state while ingestion pauses.*/
+    final ReentrantReadWriteLock analyticsLock = new ReentrantReadWriteLock();
+
+    // Write-ahead log and snapshots, null when running in memory only. Every change below is logged while its locks are held.
+    StateStore store;
+    private Thread snapshotter;
+    private boolean replaying; // the store is loading: rollups only happen where the log has them
+
+    /* Retention (null keeps every record, see RetentionPolicy). The clock is the newest week ingested; once it passes a
+     * bucket boundary the next writer rolls everything before the new cutoff up, with all writers paused.
+     * Weeks before rolledUpBefore are rolled up: records for them are refused. The bucket size and count of the
+     * last rollup are kept for archives opened later, whose old weeks are rolled up the same way.*/
+    RetentionPolicy retention;
+    private final AtomicInteger newestWeek = new AtomicInteger(Integer.MIN_VALUE);
+    private final AtomicInteger oldestWeek = new AtomicInteger(Integer.MAX_VALUE); // nothing to roll up before it
+    volatile int rolledUpBefore = Integer.MIN_VALUE;
+    int rollupBucketWeeks, rollupMaxBuckets;
+
+    // In-process metrics of this engine (timers per operation, counters, gauges)
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    // Hospital registry, used by tools that drive the engine directly (benchmarks, loaders)
+    public HospitalManager getHospitalManager() {
+        return hospitalManager;
+    }
+
+    // Start the outbreak report workers (stopped again on exit)
+    public void startOutbreakPipeline() {
+        outbreakPipeline.start();
+    }
+
+    public OutbreakQueueManager getQueueManager() {
+        return queueManager;
+    }
+
+    // Maintained indexes, for tools that read them directly (benchmarks, stress checks)
+    public TrendCube getTrendCube() {
+        return trendCube;
+    }
+
+    public SeverityIndex getSeverityIndex() {
+        return severityIndex;
+    }
+
+    public PeakDetector getPeakDetector() {
+        return peakDetector;
+    }
+
+    // Window k of the peak detector: local peaks are the highest week within +-2k weeks (default PeakDetector.DEFAULT_WINDOW)
+    public void setPeakWindow(int window) {
+        inSnapshot(() -> {
+            trendCube.setPeakWindow(window);
+            queryCache.invalidateAll(); // every local peak may have moved
+        });
+    }
+
+    // Most query results kept by the cache (default QueryCache.DEFAULT_SIZE, 0 turns it off)
+    public void setQueryCacheSize(int entries) {
+        queryCache.setCapacity(entries);
+    }
+
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    public CaseCountIndex getCaseCountIndex() {
+        return caseCountIndex;
+    }
+
+    // Threads used by analytics scans: 1 runs them on the calling thread, more splits them across a fork/join pool
+    public void setQueryThreads(int threads) {
+        if (threads < 1) throw new IllegalArgumentException("query threads must be at least 1");
+        inSnapshot(() -> analytics = threads == 1 ? ParallelAnalytics.sequential()
+                : new ParallelAnalytics(new java.util.concurrent.ForkJoinPool(threads)));
+    }
+
+    public ParallelAnalytics getAnalytics() {
+        return analytics;
+    }
+
+    /* Keep state in a data directory: load the latest snapshot, replay the log after it, and log every change from now on.
+     * Returns true if saved state was found (otherwise the directory is new and the caller may seed it).
+     * A background thread takes a new snapshot whenever the log has grown past StateStore.SNAPSHOT_AFTER_LOG_BYTES.*/
+    public boolean openStore(java.nio.file.Path dir) throws java.io.IOException {
+        StateStore opened = new StateStore(this, dir);
+        boolean recovered;
+        replaying = true;
+        try {
+            recovered = opened.open(); // replayed changes are not logged again, store is still null here
+        } finally {
+            replaying = false;
+        }
+        store = opened;
+        queryCache.invalidateAll(); // a snapshot restores the indexes without going through the writers
+        rollUpIfDue(); // the retention policy may be new or shorter than the one the state was saved with
+        snapshotter = new Thread(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(1000);
+                    if (store.logLength() > StateStore.SNAPSHOT_AFTER_LOG_BYTES) saveSnapshot();
+                }
+            } catch (InterruptedException e) {
+                // store closed
+            } catch (java.io.IOException e) {
+                System.out.println("Snapshot failed: " + e.getMessage());
+            }
+        }, "snapshotter");
+        snapshotter.setDaemon(true);
+        snapshotter.start();
+        return recovered;
+    }
+
+    // Write a snapshot and start a new log, pausing all changes while it is written
+    public void saveSnapshot() throws java.io.IOException {
+        if (store == null) return;
+        analyticsLock.writeLock().lock();
+        try {
+            store.snapshot();
+        } finally {
+            analyticsLock.writeLock().unlock();
+        }
+    }
+
+    // Snapshot and close the data directory (next start loads the snapshot and has no log to replay)
+    public void closeStore() throws java.io.IOException {
+        if (store == null) return;
+        snapshotter.interrupt();
+        saveSnapshot();
+        store.close();
+        store = null;
+    }
+
+    // Wait until every logged change is on disk (no-op in memory only mode)
+    public void sync() {
+        if (store != null) store.sync();
+    }
+
     // Load sample data so the system has something to work with initially
     void seedSampleData() {
         // Add example hospitals with regions
-        hospitalManager.addHospital("NHSL", "Western");   // e.g., National Hospital of Sri Lanka - Colombo
-        hospitalManager.addHospital("KTH", "Central");    // Kandy Teaching Hospital
-        hospitalManager.addHospital("THJ", "Southern");   // Teaching Hospital Jaffna
+        addHospital("NHSL", "Western");   // e.g., National Hospital of Sri Lanka - Colombo
+        addHospital("KTH", "Central");    // Kandy Teaching Hospital
+        addHospital("THJ", "Southern");   // Teaching Hospital Jaffna
 
         // Add sample disease outbreak records (week number and case counts)
         addRecordInternal("NHSL", "Dengue", 10, 120, false);
@@ -45,8 +270,8 @@ public class SystemEngine {
         addRecordInternal("THJ", "Dengue", 11, 95, false);
 
         // Put some alert reports into the queue for regions
-        queueManager.enqueueReport("Western", new OutbreakReport("Western", "NHSL", "Dengue cases rising sharply in Colombo (Week 12)"));
-        queueManager.enqueueReport("Central", new OutbreakReport("Central", "KTH", "Leptospirosis trend increasing in Kandy"));
+        enqueueReport(new OutbreakReport("Western", "NHSL", "Dengue cases rising sharply in Colombo (Week 12)", 250));
+        enqueueReport(new OutbreakReport("Central", "KTH", "Leptospirosis trend increasing in Kandy", 60));
     }
 
 
@@ -93,8 +318,44 @@ public class SystemEngine {
                     handleUndo();
                     break;
                 case "13":
+                    outbreakPipeline.stop(); // handle reports still queued
+                    try {
+                        closeStore(); // snapshot so the next start does not replay the log
+                    } catch (java.io.IOException e) {
+                        System.out.println("Could not save snapshot: " + e.getMessage());
+                    }
                     System.out.println("Exiting.");
                     return;  // stop loop and exit
+                case "14":
+                    handleImportRecords();
+                    break;
+                case "15":
+                    handleShowRollupForDisease();
+                    break;
+                case "16":
+                    outbreakPipeline.printMetrics();
+                    break;
+                case "17":
+                    handleExportArchive();
+                    break;
+                case "18":
+                    handleOpenArchive();
+                    break;
+                case "19":
+                    handleRedo();
+                    break;
+                case "20":
+                    undoManager.printHistory();
+                    break;
+                case "21":
+                    metrics.snapshot().print();
+                    break;
+                case "22":
+                    handleRecomputeAnalytics();
+                    break;
+                case "23":
+                    handleShowLeaderboard();
+                    break;
                 default:
                     System.out.println("Invalid choice.");
             }
@@ -118,6 +379,16 @@ public class SystemEngine {
         System.out.println("11. View/build severity BST (with traversals)");
         System.out.println("12. Undo last operation");
         System.out.println("13. Exit");
+        System.out.println("14. Import disease records from file (CSV/NDJSON)");
+        System.out.println("15. Show regional/national weekly totals for a disease");
+        System.out.println("16. Show outbreak pipeline metrics");
+        System.out.println("17. Export a hospital's history to an archive file");
+        System.out.println("18. Open history archive file(s) (memory-mapped, read in place)");
+        System.out.println("19. Redo last undone operation");
+        System.out.println("20. Show undo/redo history (memory per entry)");
+        System.out.println("21. Show engine metrics (latency percentiles, counters, gauges)");
+        System.out.println("22. Recompute analytics from the raw histories (parallel scan) and check the indexes");
+        System.out.println("23. Show the top hospital-weeks by case count (national, regional, per disease)");
         System.out.print("Select: ");
     }
 
@@ -131,10 +402,26 @@ public class SystemEngine {
             System.out.println("name or region is empty.");
             return;
         }
-        hospitalManager.addHospital(name, region);  // add to manager
+        addHospital(name, region);  // add to manager
         System.out.println("Added hospital " + name + " in " + region + ".");
     }
 
+    // Register a hospital and log it. Returns false if a hospital with that name exists.
+    public boolean addHospital(String name, String region) {
+        long[] logged = {-1};
+        analyticsLock.readLock().lock();
+        try {
+            // logged under the registry's lock: registration order and log order must match, ids are registry positions
+            if (!hospitalManager.addHospital(name, region, h -> {
+                if (store != null) logged[0] = store.logHospital(h);
+            })) return false;
+        } finally {
+            analyticsLock.readLock().unlock();
+        }
+        if (store != null) store.awaitDurable(logged[0]);
+        return true;
+    }
+
     // Prompt user to add a disease record
     void handleAddDiseaseRecord() {
         try {
@@ -163,31 +450,421 @@ public class SystemEngine {
             System.out.println("Hospital not found: " + hospitalName);
             return;
         }
-        DiseaseRecord newRec = new DiseaseRecord(disease, week, count);
-        hospital.diseaseHistory.append(newRec);  // add to the linked list of records
+        int diseaseId = DiseaseDictionary.idOf(disease);
+        int[] row = {appendRecord(hospital, diseaseId, week, count)};  // add to the record history, keep its row as the handle
+        if (row[0] < 0) {
+            System.out.println("Week " + week + " is before week " + rolledUpBefore + ", the oldest week still kept at full resolution.");
+            return;
+        }
         if (trackUndo) {
             // push undo operation: delete this exact record if undone, and re-add if redo
-            undoManager.push(new Operation("ADD_RECORD", () -> {
-                hospital.diseaseHistory.deleteLastMatching(d -> d.equals(newRec));
+            undoManager.push(new Operation("ADD_RECORD", 32, () -> {
+                removeRecord(hospital, row[0], diseaseId, week, count);
             }, () -> {
-                hospital.diseaseHistory.append(newRec);
+                row[0] = appendRecord(hospital, diseaseId, week, count);
             }));
         }
         System.out.println("Added record to " + hospitalName + ": " + disease + " week " + week + " count " + count);
     }
 
+    // Append a record and update the indexes that depend on it. Safe to call from several threads.
+    // Returns the new row once the change is logged and on disk (group commit: concurrent callers share one fsync),
+    // or -1 if the week is already rolled up by the retention policy.
+    int appendRecord(Hospital hospital, int diseaseId, int week, int count) {
+        long start = System.nanoTime();
+        long logged = -1;
+        int row;
+        analyticsLock.readLock().lock();
+        hospital.lock.lock();
+        try {
+            if (week < rolledUpBefore) {
+                recordsTooOld.increment();
+                return -1;
+            }
+            if (store != null) logged = store.logRecord(hospital, diseaseId, week, count);
+            row = hospital.diseaseHistory.size();
+            appendLocked(hospital, diseaseId, week, count);
+        } finally {
+            hospital.lock.unlock();
+            analyticsLock.readLock().unlock();
+        }
+        if (store != null) store.awaitDurable(logged);
+        recordsIngested.increment();
+        appendTimer.since(start);
+        rollUpIfDue();
+        return row;
+    }
+
+    // Body of appendRecord, caller holds the shared analytics lock and the hospital's lock
+    private void appendLocked(Hospital hospital, int diseaseId, int week, int count) {
+        if (week > newestWeek.get()) newestWeek.accumulateAndGet(week, Math::max); // the retention clock
+        if (week < oldestWeek.get()) oldestWeek.accumulateAndGet(week, Math::min);
+        hospital.diseaseHistory.append(diseaseId, week, count);
+        diseaseIndex.recordAdded(hospital, diseaseId, week, count);
+        trendCube.recordAdded(hospital, diseaseId, week, count);
+        severityIndex.recordAdded(hospital, diseaseId, count);
+        caseCountIndex.recordAdded(hospital, diseaseId);
+        queryCache.hospitals.bump(hospital.id);
+        queryCache.diseases.bump(diseaseId);
+    }
+
+    // Undo of an add: remove the row the add returned, or the last record with the same values if that row no longer holds it
+    void removeRecord(Hospital hospital, int row, int diseaseId, int week, int count) {
+        long start = System.nanoTime();
+        long logged = -1;
+        analyticsLock.readLock().lock();
+        hospital.lock.lock();
+        try {
+            DiseaseRecordLinkedList history = hospital.diseaseHistory;
+            if (!history.matches(row, diseaseId, week, count)) row = history.lastMatching(diseaseId, week, count);
+            if (row >= 0) logged = removeLocked(hospital, row);
+        } finally {
+            hospital.lock.unlock();
+            analyticsLock.readLock().unlock();
+        }
+        if (store != null) store.awaitDurable(logged);
+        removeTimer.since(start);
+    }
+
+    // Remove one row by position (log replay)
+    void removeRecordAt(Hospital hospital, int row) {
+        modifyHospital(hospital, () -> {
+            if (row < hospital.diseaseHistory.size()) removeLocked(hospital, row);
+        });
+    }
+
+    // Remove a row, log it and update the indexes (caller holds the shared analytics lock and the hospital's lock)
+    private long removeLocked(Hospital hospital, int row) {
+        DiseaseRecordLinkedList history = hospital.diseaseHistory;
+        int diseaseId = history.diseaseIdAt(row), week = history.weekAt(row), count = history.countAt(row);
+        history.removeAt(row);
+        long logged = store != null ? store.logRemove(hospital, row) : -1;
+        caseCountIndex.recordRemoved(hospital, diseaseId, week, count); // before the posting it reads is removed
+        diseaseIndex.recordRemoved(hospital, diseaseId, week, count);
+        trendCube.recordRemoved(hospital, diseaseId, week, count);
+        severityIndex.recordRemoved(hospital, count);
+        queryCache.hospitals.bump(hospital.id);
+        queryCache.diseases.bump(diseaseId);
+        recordsRemoved.increment();
+        return logged;
+    }
+
+    // Run a change to one hospital's history (e.g. a sort) under that hospital's lock
+    void modifyHospital(Hospital hospital, Runnable change) {
+        analyticsLock.readLock().lock();
+        hospital.lock.lock();
+        try {
+            change.run();
+        } finally {
+            hospital.lock.unlock();
+            analyticsLock.readLock().unlock();
+        }
+    }
+
+    // Keep at most policy.weeks weeks (plus the current bucket) at full resolution and roll older ones up (null: keep all)
+    public void setRetention(RetentionPolicy policy) {
+        retention = policy;
+        rollUpIfDue();
+    }
+
+    public RetentionPolicy getRetention() {
+        return retention;
+    }
+
+    // First week still at full resolution, Integer.MIN_VALUE if nothing was rolled up
+    public int rolledUpBefore() {
+        return rolledUpBefore;
+    }
+
+    // Roll up if the clock has passed the next bucket boundary (called by writers once they hold no lock)
+    private void rollUpIfDue() {
+        RetentionPolicy policy = retention;
+        if (policy == null || replaying || !rollUpDue(policy)) return;
+        analyticsLock.writeLock().lock();
+        try {
+            if (rollUpDue(policy)) rollUpLocked(policy.cutoff(newestWeek.get()), policy.bucketWeeks, policy.maxBuckets); // another writer may have done it
+        } finally {
+            analyticsLock.writeLock().unlock();
+        }
+    }
+
+    private boolean rollUpDue(RetentionPolicy policy) {
+        int cutoff = policy.cutoff(newestWeek.get());
+        return cutoff > rolledUpBefore && cutoff > oldestWeek.get();
+    }
+
+    // Roll every week before cutoff up with all writers paused (log replay, archives opened after a rollup)
+    void rollUp(int cutoff, int bucketWeeks, int maxBuckets) {
+        analyticsLock.writeLock().lock();
+        try {
+            rollUpLocked(cutoff, bucketWeeks, maxBuckets);
+        } finally {
+            analyticsLock.writeLock().unlock();
+        }
+    }
+
+    /* Roll every week before cutoff up and log it (caller holds the analytics write lock): records of those weeks leave
+     * the histories, the disease and case-count indexes and the severity peaks, their weekly totals go into buckets
+     * (TrendCube.rollUp). The undo history is cleared, its entries point at rows that have moved or are gone.*/
+    private void rollUpLocked(int cutoff, int bucketWeeks, int maxBuckets) {
+        long start = System.nanoTime();
+        if (store != null) store.logRollup(cutoff, bucketWeeks, maxBuckets);
+        long removed = 0;
+        for (Hospital h : hospitalManager.getAllHospitals()) {
+            caseCountIndex.removeWeeksBefore(h, cutoff); // reads the postings the disease index is about to drop
+            diseaseIndex.removeWeeksBefore(h, cutoff);
+            int n = h.diseaseHistory.removeWeeksBefore(cutoff);
+            if (n > 0) severityIndex.refresh(h);
+            removed += n;
+        }
+        trendCube.rollUp(cutoff, bucketWeeks, maxBuckets);
+        queryCache.invalidateAll();
+        rolledUpBefore = Math.max(rolledUpBefore, cutoff);
+        rollupBucketWeeks = bucketWeeks;
+        rollupMaxBuckets = maxBuckets;
+        undoManager.clear();
+        recordsRolledUp.add(removed);
+        rollupRetentionTimer.since(start);
+    }
+
+    // Run a read-only query while ingestion is paused, so histories and indexes are seen consistently
+    public <T> T query(Supplier<T> query) {
+        long start = System.nanoTime();
+        analyticsLock.writeLock().lock();
+        long locked = System.nanoTime();
+        queryWaitTimer.record(locked - start);
+        try {
+            return query.get();
+        } finally {
+            analyticsLock.writeLock().unlock();
+            queryTimer.since(locked);
+        }
+    }
+
+    // Same as query() for code that prints instead of returning a result
+    void inSnapshot(Runnable query) {
+        query(() -> {
+            query.run();
+            return null;
+        });
+    }
+
+    // Thread-safe ingestion of one record without console output or undo entry.
+    // Returns false if the hospital is unknown or the week is already rolled up.
+    public boolean ingestRecord(String hospitalName, String disease, int week, int count) {
+        Hospital hospital = hospitalManager.getHospitalByName(hospitalName);
+        if (hospital == null) return false;
+        return appendRecord(hospital, DiseaseDictionary.idOf(disease), week, count) >= 0;
+    }
+
+    /* Register a synthetic workload's hospitals, then feed its records and outbreak reports through the normal
+     * ingestion path (log, indexes, queues), as a live feed would. Returns the number of records ingested.*/
+    public long loadWorkload(WorkloadGenerator generator) {
+        WorkloadGenerator.Config config = generator.config();
+        for (int h = 0; h < config.hospitals; h++) addHospital(generator.hospitalName(h), generator.regionName(h));
+        long rows = generator.ingest(hospitalManager, this::ingestBatch, report -> enqueueReport(report));
+        sync();
+        return rows;
+    }
+
+    // Prompt for a file and bulk load its records
+    void handleImportRecords() {
+        System.out.print("File path: ");
+        String path = scanner.nextLine().trim();
+        if (path.isEmpty()) {
+            System.out.println("Path is empty.");
+            return;
+        }
+        importRecords(path);
+    }
+
+    // Bulk load a CSV/NDJSON file. Rows go straight into the histories in batches, without console output or undo entries
+    void importRecords(String path) {
+        try {
+            RecordImporter.Result result = new RecordImporter(hospitalManager, this::ingestBatch)
+                    .importFile(java.nio.file.Paths.get(path));
+            sync(); // the whole file is durable once the import reports success
+            System.out.println("Imported " + path + ": " + result);
+            for (String problem : result.problems) System.out.println("  " + problem);
+            if (result.rejected > result.problems.size()) System.out.println("  ... and " + (result.rejected - result.problems.size()) + " more");
+        } catch (java.io.IOException | java.nio.file.InvalidPathException e) {
+            System.out.println("Import failed: " + e.getMessage());
+        }
+    }
+
+    // Prompt for a hospital and a file, and write its history as an archive
+    void handleExportArchive() {
+        System.out.print("Hospital name: ");
+        Hospital h = hospitalManager.getHospitalByName(scanner.nextLine().trim());
+        if (h == null) {
+            System.out.println("Hospital not found.");
+            return;
+        }
+        System.out.print("Archive file: ");
+        String path = scanner.nextLine().trim();
+        if (path.isEmpty()) {
+            System.out.println("Path is empty.");
+            return;
+        }
+        try {
+            exportArchive(h, java.nio.file.Paths.get(path));
+            System.out.println("Wrote " + h.diseaseHistory.size() + " records of " + h.name + " to " + path + ".");
+        } catch (java.io.IOException | java.nio.file.InvalidPathException e) {
+            System.out.println("Export failed: " + e.getMessage());
+        }
+    }
+
+    // Write one hospital's history as a HistoryArchive file (the history itself is not changed)
+    public void exportArchive(Hospital h, java.nio.file.Path file) throws java.io.IOException {
+        long start = System.nanoTime();
+        analyticsLock.readLock().lock();
+        h.lock.lock();
+        try {
+            HistoryArchive.write(file, h.name, h.region, h.diseaseHistory);
+        } finally {
+            h.lock.unlock();
+            analyticsLock.readLock().unlock();
+        }
+        archiveExportTimer.since(start);
+    }
+
+    // Prompt for an archive file or a directory of them and open each
+    void handleOpenArchive() {
+        System.out.print("Archive file or directory: ");
+        String path = scanner.nextLine().trim();
+        if (path.isEmpty()) {
+            System.out.println("Path is empty.");
+            return;
+        }
+        openArchives(path);
+    }
+
+    // Open an archive file, or every *.hsa file of a directory
+    void openArchives(String path) {
+        try {
+            java.nio.file.Path p = java.nio.file.Paths.get(path);
+            java.util.List<java.nio.file.Path> files = new java.util.ArrayList<>();
+            if (java.nio.file.Files.isDirectory(p)) {
+                try (java.util.stream.Stream<java.nio.file.Path> list = java.nio.file.Files.list(p)) {
+                    list.filter(f -> f.toString().endsWith(".hsa")).sorted().forEach(files::add);
+                }
+            } else {
+                files.add(p);
+            }
+            long start = System.nanoTime(), rows = 0;
+            for (java.nio.file.Path f : files) rows += attachArchive(f).rows();
+            System.out.printf("Opened %d archive(s) from %s: %d records in %.2f s%n", files.size(), path, rows, (System.nanoTime() - start) / 1e9);
+        } catch (java.io.IOException | java.nio.file.InvalidPathException e) {
+            System.out.println("Open failed: " + e.getMessage());
+        }
+    }
+
+    /* Make an archive the history of its hospital (registered if new). The records stay in the mapped file;
+     * only the per-disease postings ranges, weekly totals and the peak are computed, in one pass over the columns.
+     * The hospital must not have records yet. Rows added later go to the heap after the archived ones.*/
+    public HistoryArchive.Mapped attachArchive(java.nio.file.Path file) throws java.io.IOException {
+        long start = System.nanoTime();
+        HistoryArchive.Mapped archive = HistoryArchive.open(file);
+        addHospital(archive.hospital, archive.region);
+        Hospital h = hospitalManager.getHospitalByName(archive.hospital);
+        long logged = -1;
+        int oldest = Integer.MAX_VALUE, newest = Integer.MIN_VALUE;
+        analyticsLock.readLock().lock();
+        h.lock.lock();
+        try {
+            if (h.diseaseHistory.size() > 0) throw new java.io.IOException(h.name + " already has records, an archive can only be opened into an empty history");
+            if (store != null) logged = store.logArchive(h, file.toAbsolutePath());
+            h.diseaseHistory = archive.history;
+            diseaseIndex.archiveAttached(h, archive);
+            trendCube.archiveAttached(h, archive);
+            caseCountIndex.archiveAttached(h, archive);
+            severityIndex.refresh(h);
+            for (int i = 0; i < archive.rows(); i++) { // the retention clock
+                oldest = Math.min(oldest, archive.history.weekAt(i));
+                newest = Math.max(newest, archive.history.weekAt(i));
+            }
+            oldestWeek.accumulateAndGet(oldest, Math::min);
+            newestWeek.accumulateAndGet(newest, Math::max);
+        } finally {
+            h.lock.unlock();
+            analyticsLock.readLock().unlock();
+        }
+        queryCache.invalidateAll(); // the hospital's trends and every disease in the archive
+        if (store != null) store.awaitDurable(logged);
+        if (oldest < rolledUpBefore && !replaying) {
+            rollUp(rolledUpBefore, rollupBucketWeeks, rollupMaxBuckets); // the archive's weeks before the cutoff (logged, replay repeats it)
+        }
+        rollUpIfDue();
+        archiveOpenTimer.since(start);
+        return archive;
+    }
+
+    // Append one batch of already resolved rows. Safe to call from several threads.
+    // A hospital's lock is kept across consecutive rows of the same hospital, feeds are usually grouped that way,
+    // and each such run is one log entry. Does not wait for the disk: the log is flushed within milliseconds,
+    // call sync() to wait (bulk loads do that once at the end). Rows of weeks already rolled up are skipped.
+    // Returns the number of rows appended (n minus the skipped ones).
+    public int ingestBatch(Hospital[] hospitals, int[] diseaseIds, int[] weeks, int[] counts, int n) {
+        long start = System.nanoTime();
+        int tooOld = 0;
+        analyticsLock.readLock().lock();
+        try {
+            int cutoff = rolledUpBefore; // only moves while writers are paused
+            int i = 0;
+            while (i < n) {
+                Hospital hospital = hospitals[i];
+                int end = i + 1;
+                while (end < n && hospitals[end] == hospital) end++;
+                hospital.lock.lock();
+                try {
+                    for (int from = i; from < end; ) { // one log entry per run of rows that are not too old
+                        if (weeks[from] < cutoff) {
+                            tooOld++;
+                            from++;
+                            continue;
+                        }
+                        int to = from + 1;
+                        while (to < end && weeks[to] >= cutoff) to++;
+                        if (store != null) store.logRecords(hospital, diseaseIds, weeks, counts, from, to);
+                        for (int j = from; j < to; j++) appendLocked(hospital, diseaseIds[j], weeks[j], counts[j]);
+                        from = to;
+                    }
+                } finally {
+                    hospital.lock.unlock();
+                }
+                i = end;
+            }
+        } finally {
+            analyticsLock.readLock().unlock();
+        }
+        recordsIngested.add(n - tooOld);
+        if (tooOld > 0) recordsTooOld.add(tooOld);
+        batchTimer.since(start);
+        rollUpIfDue();
+        return n - tooOld;
+    }
+
     // Search all hospitals to find any with a matching disease name
     void handleSearchByDisease() {
         System.out.print("Disease name to search: ");
         String disease = scanner.nextLine().trim();
+        long start = System.nanoTime();
+        inSnapshot(() -> printDiseaseOccurrences(disease));
+        searchDiseaseTimer.since(start);
+    }
+
+    // Print the first matching record of every hospital that has the disease
+    void printDiseaseOccurrences(String disease) {
         boolean found = false;
-        for (Hospital h : hospitalManager.getAllHospitals()) {
-            DiseaseRecordLinkedList.Node node = h.diseaseHistory.searchByDisease(disease);
-            if (node != null) {
-                // Print first matching record per hospital
+        // only the disease's own records are visited, through its posting lists
+        for (Hospital h : diseaseIndex.hospitalsWith(disease)) {
+            for (DiseaseIndex.Postings p : diseaseIndex.postings(h, disease)) {
+                if (p.size() == 0) continue;
+                // Print first reported record per hospital
                 System.out.printf("Hospital %s has record: %s (week %d, count %d)%n",
-                        h.name, node.data.diseaseName, node.data.weekNumber, node.data.caseCount);
+                        h.name, p.disease(), p.weekAt(0), p.countAt(0));
                 found = true;
+                break;
             }
         }
         if (!found) System.out.println("No occurrences found.");
@@ -197,26 +874,51 @@ public class SystemEngine {
     void handleSearchHospitalByCount() {
         try {
             System.out.print("Minimum case count to filter: ");
-            int threshold = Integer.parseInt(scanner.nextLine().trim());
+            int min = Integer.parseInt(scanner.nextLine().trim());
+            System.out.print("Maximum case count (or blank for no limit): ");
+            String maxText = scanner.nextLine().trim();
+            int max = maxText.isEmpty() ? Integer.MAX_VALUE : Integer.parseInt(maxText);
             System.out.print("Disease name (or blank for any): ");
             String disease = scanner.nextLine().trim();
-            for (Hospital h : hospitalManager.getAllHospitals()) {
-                DiseaseRecordLinkedList.Node current = h.diseaseHistory.head;
-                while (current != null) {
-                    if (current.data.caseCount >= threshold
-                            && (disease.isEmpty() || current.data.diseaseName.equalsIgnoreCase(disease))) {
-                        // Print all matching records
-                        System.out.printf("Hospital %s has %s cases %d in week %d%n",
-                                h.name, current.data.diseaseName, current.data.caseCount, current.data.weekNumber);
-                    }
-                    current = current.next;
-                }
+            // one indexed query per page, resumed after the last record shown
+            CaseCountIndex.Hit[] last = new CaseCountIndex.Hit[1];
+            int[] equalSeen = new int[1];
+            while (true) {
+                long start = System.nanoTime();
+                int shown = query(() -> printRecordsInRange(min, max, disease, last, equalSeen));
+                searchRangeTimer.since(start);
+                if (shown == 0 && last[0] == null) System.out.println("No records in that range.");
+                if (shown < SEARCH_PAGE_SIZE) return;
+                System.out.print("Show more? (y/n): ");
+                if (!scanner.nextLine().trim().equalsIgnoreCase("y")) return;
             }
         } catch (NumberFormatException e) {
             System.out.println("Invalid input.");
         }
     }
 
+    static final int SEARCH_PAGE_SIZE = 20;
+
+    /* Print the next page of records with min <= cases <= max (highest first), optionally only for one disease.
+     * last and equalSeen carry the position between pages: the last record shown and how many identical ones
+     * ended the previous pages. Returns the number printed.*/
+    int printRecordsInRange(int min, int max, String disease, CaseCountIndex.Hit[] last, int[] equalSeen) {
+        CaseCountIndex.Cursor after = last[0] == null ? null : CaseCountIndex.after(last[0], equalSeen[0]);
+        java.util.Iterator<CaseCountIndex.Hit> hits = caseCountIndex.range(disease, min, max, after);
+        int shown = 0;
+        while (shown < SEARCH_PAGE_SIZE && hits.hasNext()) {
+            CaseCountIndex.Hit hit = hits.next();
+            CaseCountIndex.Hit prev = last[0];
+            boolean same = prev != null && prev.count == hit.count && prev.hospital == hit.hospital
+                    && prev.week == hit.week && prev.diseaseId == hit.diseaseId;
+            equalSeen[0] = same ? equalSeen[0] + 1 : 1;
+            last[0] = hit;
+            System.out.printf("Hospital %s has %s cases %d in week %d%n", hit.hospital.name, hit.disease(), hit.count, hit.week);
+            shown++;
+        }
+        return shown;
+    }
+
     // Sort a given hospital's disease history by case count (using merge sort) and allow undoing that sort
     void handleSortTrendsByCount() {
         System.out.print("Hospital name to sort by case count: ");
@@ -226,17 +928,16 @@ public class SystemEngine {
             System.out.println("Hospital not found.");
             return;
         }
-        // make a backup copy for undo
-        DiseaseRecordLinkedList backup = h.diseaseHistory.cloneList();
-        MergeSortUtil.sortLinkedListByCount(h.diseaseHistory);  // perform sorting
-        // push undo/redo for this sort action
-        undoManager.push(new Operation("SORT_COUNT", () -> {
-            h.diseaseHistory = backup;
-        }, () -> {
-            MergeSortUtil.sortLinkedListByCount(h.diseaseHistory);
-        }));
-        System.out.println("Sorted disease records by case count for " + hname + ":");
-        h.diseaseHistory.printAll();  // show result
+        modifyHospital(h, () -> {
+            // sort and keep the permutation it applied as the undo delta
+            long start = System.nanoTime();
+            int[] order = MergeSortUtil.sortForUndo(h.diseaseHistory, RecordComparator.BY_COUNT_DESC);
+            sortTimer.since(start);
+            logSort(h, StateStore.SORT_BY_COUNT);
+            pushSortUndo("SORT_COUNT", h, order);  // push undo/redo for this sort action
+            System.out.println("Sorted disease records by case count for " + hname + ":");
+            h.diseaseHistory.printAll();  // show result
+        });
     }
 
     // Sort by week number (chronological) with undo support
@@ -248,30 +949,95 @@ public class SystemEngine {
             System.out.println("Hospital not found.");
             return;
         }
-        DiseaseRecordLinkedList backup = h.diseaseHistory.cloneList();  // preserve previous ordering
-        MergeSortUtil.sortLinkedListByWeek(h.diseaseHistory);  // sort chronologically
-        undoManager.push(new Operation("SORT_WEEK", () -> {
-            h.diseaseHistory = backup;
+        modifyHospital(h, () -> {
+            long start = System.nanoTime();
+            int[] order = MergeSortUtil.sortForUndo(h.diseaseHistory, RecordComparator.BY_WEEK);  // sort chronologically
+            sortTimer.since(start);
+            logSort(h, StateStore.SORT_BY_WEEK);
+            pushSortUndo("SORT_WEEK", h, order);
+            System.out.println("Sorted disease records chronologically for " + hname + ":");
+            h.diseaseHistory.printAll();
+        });
+    }
+
+    // Log a sort of a hospital's history (caller holds the hospital's lock). Sorts are stable, so replaying one gives the same order.
+    private void logSort(Hospital h, byte key) {
+        if (store != null) store.logSort(h, key);
+    }
+
+    /* Undo/redo entry of a sort. The only delta kept is the permutation the sort applied (4 bytes per row, none if
+     * nothing moved): undo applies its inverse, redo applies it again. Rows imported after the sort are past the
+     * permuted prefix and stay where they are.*/
+    private void pushSortUndo(String type, Hospital h, int[] order) {
+        if (order == null) {
+            undoManager.push(new Operation(type, () -> { }, () -> { }));  // already sorted, undo has nothing to move
+            return;
+        }
+        undoManager.push(new Operation(type, 4L * order.length, () -> {
+            modifyHospital(h, () -> applyOrder(h, MergeSortUtil.invert(order)));
         }, () -> {
-            MergeSortUtil.sortLinkedListByWeek(h.diseaseHistory);
+            modifyHospital(h, () -> applyOrder(h, order));
         }));
-        System.out.println("Sorted disease records chronologically for " + hname + ":");
-        h.diseaseHistory.printAll();
+    }
+
+    // Rearrange the first order.length rows of a history and log it (caller holds the hospital's lock)
+    private void applyOrder(Hospital h, int[] order) {
+        h.diseaseHistory.permute(order, order.length);
+        if (store != null) store.logPermute(h, order);
     }
 
     // Show weekly aggregated case counts for a disease, per hospital
     void handleShowWeeklyTrendForDisease() {
         System.out.print("Disease name: ");
         String disease = scanner.nextLine().trim();
-        for (Hospital h : hospitalManager.getAllHospitals()) {
-            java.util.Map<Integer, Integer> trend = getWeeklyTrend(h, disease);
+        long start = System.nanoTime();
+        inSnapshot(() -> printWeeklyTrends(disease));
+        trendTimer.since(start);
+    }
+
+    // Print the weekly totals of every hospital that has the disease
+    void printWeeklyTrends(String disease) {
+        for (Hospital h : diseaseIndex.hospitalsWith(disease)) {
+            TrendCube.Series trend = getWeeklyTrend(h, disease);
             if (trend.isEmpty()) continue;  // skip if hospital has none
             System.out.println("Hospital: " + h.name + " (Region: " + h.region + ")");
-            java.util.List<Integer> weeks = new java.util.ArrayList<>(trend.keySet());
-            java.util.Collections.sort(weeks);  // ensure week order
-            for (int wk : weeks) {
-                System.out.printf("  Week %d : %d cases%n", wk, trend.get(wk));
-            }
+            printSeries(trend);
+        }
+    }
+
+    // Show weekly totals for a disease summed over a region, or over all hospitals
+    void handleShowRollupForDisease() {
+        System.out.print("Disease name: ");
+        String disease = scanner.nextLine().trim();
+        System.out.print("Region (blank for national): ");
+        String region = scanner.nextLine().trim();
+        long start = System.nanoTime();
+        inSnapshot(() -> printRollup(disease, region));
+        rollupTimer.since(start);
+    }
+
+    // Print national (blank region) or regional weekly totals for a disease
+    void printRollup(String disease, String region) {
+        TrendCube.Series trend = region.isEmpty() ? getNationalTrend(disease) : getRegionalTrend(region, disease);
+        System.out.println((region.isEmpty() ? "National" : "Region " + region) + " weekly totals for " + disease + ":");
+        if (trend.isEmpty()) {
+            System.out.println("  (no cases)");
+            return;
+        }
+        printSeries(trend);
+    }
+
+    // Print the weeks of a series that have cases, in week order, after the rolled-up buckets of older weeks
+    void printSeries(TrendCube.Series trend) {
+        for (int i = 0; i < trend.rolledUpBuckets(); i++) {
+            if (trend.bucketTotal(i) == 0) continue;
+            int first = trend.bucketFirstWeek(i);
+            System.out.printf("  Weeks %d-%d : %d cases (peak week %d: %d)%n", first, first + trend.bucketWeeks() - 1,
+                    trend.bucketTotal(i), trend.bucketPeakWeek(i), trend.bucketPeakTotal(i));
+        }
+        for (int wk = trend.firstWeek(); wk <= trend.lastWeek(); wk++) {
+            int total = trend.total(wk);
+            if (total != 0) System.out.printf("  Week %d : %d cases%n", wk, total);
         }
     }
 
@@ -282,52 +1048,211 @@ public class SystemEngine {
             String disease = scanner.nextLine().trim();
             System.out.print("Minimum hospitals overlapping peak (e.g., 1): ");
             int overlap = Integer.parseInt(scanner.nextLine().trim());
-            java.util.Map<Integer, Integer> weekFrequency = new java.util.HashMap<>();
-
-            // For each hospital, find its peak week for that disease
-            for (Hospital h : hospitalManager.getAllHospitals()) {
-                java.util.Map<Integer, Integer> trend = getWeeklyTrend(h, disease);
-                if (trend.isEmpty()) continue;
-                int peakWeek = -1, max = -1;
-                for (var entry : trend.entrySet()) {
-                    if (entry.getValue() > max) {  // keep highest
-                        max = entry.getValue();
-                        peakWeek = entry.getKey();
-                    }
-                }
-                if (peakWeek != -1) {
-                    weekFrequency.put(peakWeek, weekFrequency.getOrDefault(peakWeek, 0) + 1);
-                }
+            int window = peakDetector.window();
+            System.out.print("Peaks within +- weeks (0-" + window + ", blank for 0): ");
+            String withinText = scanner.nextLine().trim();
+            int within = withinText.isEmpty() ? 0 : Integer.parseInt(withinText);
+            if (within < 0 || within > window) {
+                System.out.println("Must be between 0 and " + window + " (see --peak-window).");
+                return;
             }
-
-            // Report weeks where at least `overlap` hospitals had their peak
+            // both answers come from counters kept up to date as records arrive, repeated ones from the cache
+            long start = System.nanoTime();
+            java.util.Map<Integer, Integer> overall = query(() -> synchronizedPeaks(disease, false, within, overlap));
+            java.util.Map<Integer, Integer> local = query(() -> synchronizedPeaks(disease, true, within, overlap));
+            peaksTimer.since(start);
+            String span = within == 0 ? "" : " within +-" + within + " weeks";
             System.out.println("Synchronized peak weeks for disease " + disease + ":");
-            boolean any = false;
-            for (var entry : weekFrequency.entrySet()) {
-                if (entry.getValue() >= overlap) {
-                    System.out.printf("  Week %d: %d hospitals showing peak%n", entry.getKey(), entry.getValue());
-                    any = true;
-                }
+            printPeakWeeks(overall, "hospitals showing peak" + span);
+            System.out.println("Synchronized local peaks (highest week within +-" + 2 * window + " weeks) for disease " + disease + ":");
+            printPeakWeeks(local, "hospitals with a local peak" + span);
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid input.");
+        }
+    }
+
+    private static void printPeakWeeks(java.util.Map<Integer, Integer> weeks, String label) {
+        for (var entry : weeks.entrySet()) {
+            System.out.printf("  Week %d: %d %s%n", entry.getKey(), entry.getValue(), label);
+        }
+        if (weeks.isEmpty()) System.out.println("  (none meeting overlap threshold)");
+    }
+
+    // Recompute weekly totals, peak weeks, a case-count filter and severity peaks by scanning every history
+    void handleRecomputeAnalytics() {
+        try {
+            System.out.print("Disease name: ");
+            String disease = scanner.nextLine().trim();
+            System.out.print("Minimum case count to filter: ");
+            int min = Integer.parseInt(scanner.nextLine().trim());
+            System.out.print("Maximum case count (or blank for no limit): ");
+            String maxText = scanner.nextLine().trim();
+            int max = maxText.isEmpty() ? Integer.MAX_VALUE : Integer.parseInt(maxText);
+            if (disease.isEmpty()) {
+                System.out.println("Disease name is empty.");
+                return;
             }
-            if (!any) System.out.println("  (none meeting overlap threshold)");
+            long start = System.nanoTime();
+            inSnapshot(() -> printRecomputedAnalytics(disease, min, max));
+            scanTimer.since(start);
         } catch (NumberFormatException e) {
             System.out.println("Invalid input.");
         }
     }
 
-    // Helper to build per-week totals for one hospital and disease
-    java.util.Map<Integer, Integer> getWeeklyTrend(Hospital hospital, String disease) {
-        java.util.Map<Integer, Integer> trend = new java.util.HashMap<>();
-        DiseaseRecordLinkedList.Node cur = hospital.diseaseHistory.head;
-        while (cur != null) {
-            if (cur.data.diseaseName.equalsIgnoreCase(disease)) {
-                // accumulate cases per week
-                trend.put(cur.data.weekNumber,
-                        trend.getOrDefault(cur.data.weekNumber, 0) + cur.data.caseCount);
+    // Print each scan's result and time, and whether it agrees with the index maintained for the same question
+    void printRecomputedAnalytics(String disease, int min, int max) {
+        java.util.List<Hospital> all = hospitalManager.getAllHospitals();
+        System.out.println("Scanning " + all.size() + " hospitals on " + analytics.parallelism() + " thread(s):");
+
+        long start = System.nanoTime();
+        TrendCube.Series totals = analytics.weeklyTotals(all, disease);
+        long nanos = System.nanoTime() - start;
+        TrendCube.Series national = trendCube.nationalTrend(disease);
+        boolean same = true;
+        long cases = 0;
+        for (int wk = Math.min(totals.firstWeek(), national.firstWeek()); wk <= Math.max(totals.lastWeek(), national.lastWeek()); wk++) {
+            same &= totals.total(wk) == national.total(wk);
+            cases += totals.total(wk);
+        }
+        printScan("Weekly totals of " + disease + ": " + cases + " cases", nanos, same, "trend cube");
+
+        start = System.nanoTime();
+        same = true;
+        for (int id = 0; id < regions.size(); id++) {
+            Region r = regions.get(id);
+            TrendCube.Series scanned = analytics.weeklyTotals(r.hospitals(), disease);
+            TrendCube.Series kept = trendCube.regionTrend(id, disease);
+            for (int wk = Math.min(scanned.firstWeek(), kept.firstWeek()); wk <= Math.max(scanned.lastWeek(), kept.lastWeek()); wk++) {
+                same &= scanned.total(wk) == kept.total(wk);
             }
-            cur = cur.next;
         }
-        return trend;
+        printScan("Regional totals of " + disease + " in " + regions.size() + " regions", System.nanoTime() - start, same, "regional totals");
+
+        start = System.nanoTime();
+        java.util.Map<Integer, Integer> peaks = analytics.synchronizedPeaks(all, disease, 0, 1);
+        nanos = System.nanoTime() - start;
+        if (rolledUpBefore == Integer.MIN_VALUE) {
+            printScan("Peak weeks: " + peaks.size() + " weeks with a hospital's peak", nanos,
+                    peaks.equals(peakDetector.synchronizedWeeks(disease, false, 0, 1)), "peak detector");
+        } else { // the histories only go back to the cutoff, the detector's overall peaks also see the rolled-up weeks
+            System.out.printf("  Peak weeks since week %d: %d weeks with a hospital's peak (%s) - not compared, the peak detector also covers rolled-up weeks%n",
+                    rolledUpBefore, peaks.size(), Metrics.formatNanos(nanos));
+        }
+
+        start = System.nanoTime();
+        long inRange = analytics.countInRange(all, disease, min, max);
+        nanos = System.nanoTime() - start;
+        long indexed = 0;
+        for (java.util.Iterator<CaseCountIndex.Hit> hits = caseCountIndex.range(disease, min, max, null); hits.hasNext(); hits.next()) indexed++;
+        printScan("Records with " + min + ".." + (max == Integer.MAX_VALUE ? "" : max) + " cases: " + inRange,
+                nanos, inRange == indexed, "case-count index");
+
+        start = System.nanoTime();
+        DiseaseRecordLinkedList.Node[] maxNodes = analytics.maxNodes(all);
+        nanos = System.nanoTime() - start;
+        same = true;
+        int highest = 0, withData = 0;
+        for (int i = 0; i < maxNodes.length; i++) {
+            int count = maxNodes[i] == null ? -1 : maxNodes[i].data.caseCount;
+            same &= count == severityIndex.peakCount(all.get(i));
+            if (maxNodes[i] != null) {
+                withData++;
+                highest = Math.max(highest, count);
+            }
+        }
+        printScan("Severity peaks: " + withData + " hospitals, highest " + highest + " cases", nanos, same, "severity tree");
+    }
+
+    private static void printScan(String result, long nanos, boolean matches, String index) {
+        System.out.printf("  %s (%s) - %s%n", result, Metrics.formatNanos(nanos),
+                matches ? "matches the " + index : "DIFFERS from the " + index);
+    }
+
+    // Count, for each week, how many hospitals had their peak for the disease in that week
+    public java.util.Map<Integer, Integer> synchronizedPeakWeeks(String disease) {
+        return synchronizedPeaks(disease, false, 0, 1);
+    }
+
+    // PeakDetector.synchronizedWeeks, cached until the disease changes (read only)
+    public java.util.Map<Integer, Integer> synchronizedPeaks(String disease, boolean local, int within, int minHospitals) {
+        int[] ids = DiseaseDictionary.idsIgnoreCase(disease);
+        if (ids.length == 0) return peakDetector.synchronizedWeeks(disease, local, within, minHospitals);
+        return queryCache.get(new QueryCache.Key(local ? "localPeaks" : "peaks", ids[0], within, minHospitals, 0),
+                queryCache.diseases.get(ids),
+                () -> java.util.Collections.unmodifiableMap(peakDetector.synchronizedWeeks(disease, local, within, minHospitals)));
+    }
+
+    // Show the highest (hospital, disease, week) totals, optionally refreshed once a second
+    void handleShowLeaderboard() {
+        try {
+            System.out.print("Region (blank for national): ");
+            String region = scanner.nextLine().trim();
+            System.out.print("Disease name (blank for any): ");
+            String disease = scanner.nextLine().trim();
+            int size = trendCube.leaderboard().size();
+            System.out.print("How many (1-" + size + ", blank for " + size + "): ");
+            String kText = scanner.nextLine().trim();
+            int k = kText.isEmpty() ? size : Integer.parseInt(kText);
+            System.out.print("Refresh every second for how many seconds (blank for once): ");
+            String secondsText = scanner.nextLine().trim();
+            int seconds = secondsText.isEmpty() ? 0 : Integer.parseInt(secondsText);
+            if (k < 1 || k > size) {
+                System.out.println("Must be between 1 and " + size + ".");
+                return;
+            }
+            for (int i = 0; i <= seconds; i++) {
+                if (i > 0) Thread.sleep(1000);
+                long start = System.nanoTime();
+                java.util.List<Leaderboard.Entry> top = query(() -> topCases(region, disease, k));
+                leaderboardTimer.since(start);
+                System.out.println("Top " + k + " hospital-weeks" + (region.isEmpty() ? " nationally" : " in " + region)
+                        + (disease.isEmpty() ? "" : " for " + disease) + ":");
+                for (Leaderboard.Entry e : top) System.out.println("  " + e);
+                if (top.isEmpty()) System.out.println("  (no cases)");
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid input.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // The k highest weekly totals of one hospital, disease and week; region and disease may be blank (run inside query())
+    public java.util.List<Leaderboard.Entry> topCases(String region, String disease, int k) {
+        int regionId = -1;
+        if (!region.isEmpty()) {
+            Region r = regions.find(region);
+            if (r == null) return new java.util.ArrayList<>();
+            regionId = r.id;
+        }
+        return trendCube.leaderboard().top(regionId, disease, k);
+    }
+
+    // Per-week totals of a disease over one region's hospitals (read only, empty if the region is unknown)
+    public TrendCube.Series getRegionalTrend(String region, String disease) {
+        Region r = regions.find(region);
+        int[] ids = DiseaseDictionary.idsIgnoreCase(disease);
+        if (r == null || ids.length == 0) return trendCube.regionTrend(-1, disease); // empty
+        // maintained on every add/undo like the national totals (every spelling in one series); cached until the disease changes
+        return queryCache.get(new QueryCache.Key("regionTrend", r.id, ids[0], 0, 0), queryCache.diseases.get(ids),
+                () -> trendCube.regionTrend(r.id, disease));
+    }
+
+    // Per-week totals of a disease over every hospital (read only)
+    public TrendCube.Series getNationalTrend(String disease) {
+        int[] ids = DiseaseDictionary.idsIgnoreCase(disease);
+        if (ids.length == 0) return trendCube.nationalTrend(disease);
+        return queryCache.get(new QueryCache.Key("nationalTrend", ids[0], 0, 0, 0), queryCache.diseases.get(ids),
+                () -> trendCube.nationalTrend(disease));
+    }
+
+    // Per-week totals for one hospital and disease (read only), cached until the hospital's records change
+    public TrendCube.Series getWeeklyTrend(Hospital hospital, String disease) {
+        int[] ids = DiseaseDictionary.idsIgnoreCase(disease);
+        if (ids.length == 0) return trendCube.trend(hospital, disease); // unknown disease: no key, and nothing to compute
+        return queryCache.get(new QueryCache.Key("trend", hospital.id, ids[0], 0, 0), queryCache.hospitals.get(hospital.id),
+                () -> trendCube.trend(hospital, disease));
     }
 
     // Prompt user and add a new outbreak report to the queue
@@ -338,12 +1263,57 @@ public class SystemEngine {
         String hospital = scanner.nextLine().trim();
         System.out.print("Summary: ");
         String summary = scanner.nextLine().trim();
+        System.out.print("Severity score (case count, blank if unknown): ");
+        String score = scanner.nextLine().trim();
         if (region.isEmpty() || hospital.isEmpty()) {
             System.out.println("Region or Hospital is empty.");
             return;
         }
-        queueManager.enqueueReport(region, new OutbreakReport(region, hospital, summary));
-        System.out.println("Report enqueued.");
+        int severity;
+        try {
+            severity = score.isEmpty() ? 0 : Integer.parseInt(score);
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid input.");
+            return;
+        }
+        if (enqueueReport(new OutbreakReport(region, hospital, summary, severity))) {
+            System.out.println("Report enqueued.");
+        } else {
+            System.out.println("Report rejected: the queue for " + region + " is full.");
+        }
+    }
+
+    // Queue a report for its region and log it. False if the region's queue refused it.
+    public boolean enqueueReport(OutbreakReport report) {
+        long start = System.nanoTime();
+        long logged = -1;
+        boolean accepted;
+        analyticsLock.readLock().lock();
+        try {
+            if (store != null) report = report.withLogId(store.nextReportId()); // numbered before a worker can see it
+            accepted = queueManager.enqueueReport(report.region(), report);
+            if (accepted && store != null) logged = store.logReport(report);
+        } finally {
+            analyticsLock.readLock().unlock();
+        }
+        if (store != null) store.awaitDurable(logged);
+        (accepted ? reportsEnqueued : reportsRejected).increment();
+        enqueueTimer.since(start);
+        return accepted;
+    }
+
+    // Outbreak pipeline handler: mark a drained batch as handled and acknowledge it in the log (called from a worker thread)
+    private void handleReports(String region, java.util.List<OutbreakReport> batch) {
+        long start = System.nanoTime();
+        analyticsLock.readLock().lock(); // a snapshot sees the batch either in flight or acknowledged
+        try {
+            queueManager.recordHandled(region, batch);
+            if (store != null) store.logHandled(batch);
+        } finally {
+            analyticsLock.readLock().unlock();
+        }
+        reportsDequeued.add(batch.size());
+        handleBatchTimer.since(start);
     }
 
     // Prompt user for region and show the queue for that region
@@ -357,41 +1327,103 @@ public class SystemEngine {
         queueManager.printQueue(region);
     }
 
-    // Build the severity BST from current peaks across hospitals
+    // Show the severity BST of current peaks across hospitals (kept up to date as records change, nothing is rebuilt here)
     void handleSeverityClassification() {
-        severityTree.clear(); // reset previous tree
-        for (Hospital h : hospitalManager.getAllHospitals()) {
-            // get the disease with highest cases for this hospital (its peak)
-            DiseaseRecordLinkedList.Node peak = h.diseaseHistory.getMaxCaseNode();
-            if (peak != null) {
-                severityTree.insert(new SeverityRecord(h.name, peak.data.diseaseName, peak.data.caseCount));
-            }
-        }
-        System.out.println("Severity BST built from current peak counts.");
-        System.out.println("Choose traversal: 1-inorder 2-preorder 3-postorder");
+        SeverityBST severityTree = severityIndex.tree();
+        System.out.println("Severity BST of current peak counts (" + query(severityTree::size) + " hospitals).");
+        System.out.println("Choose traversal: 1-inorder 2-preorder 3-postorder 4-top k 5-count at or above N");
         String t = scanner.nextLine().trim();
+        long start = System.nanoTime();
         switch (t) {
+            case "4":
+                printTopSeverity();
+                return;
+            case "5":
+                printCountAtLeast();
+                return;
             case "1":
-                severityTree.traverseInOrder();
+                inSnapshot(severityTree::traverseInOrder);
                 break;
             case "2":
-                severityTree.traversePreOrder();
+                inSnapshot(severityTree::traversePreOrder);
                 break;
             case "3":
-                severityTree.traversePostOrder();
+                inSnapshot(severityTree::traversePostOrder);
                 break;
             default:
                 System.out.println("Invalid.");
+                return;
+        }
+        severityTimer.since(start);
+    }
+
+    // Show the k most severe hospital peaks
+    void printTopSeverity() {
+        try {
+            System.out.print("k: ");
+            int k = Integer.parseInt(scanner.nextLine().trim());
+            System.out.println("Top " + k + " by case count:");
+            long start = System.nanoTime();
+            java.util.List<SeverityRecord> top = query(() -> topSeverity(k));
+            severityTimer.since(start);
+            for (SeverityRecord rec : top) System.out.println("  " + rec);
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid input.");
         }
     }
 
+    // Count hospitals whose peak is at least N cases
+    void printCountAtLeast() {
+        try {
+            System.out.print("Minimum case count: ");
+            int n = Integer.parseInt(scanner.nextLine().trim());
+            long start = System.nanoTime();
+            int count = query(() -> countSeverityAtLeast(n));
+            severityTimer.since(start);
+            System.out.println(count + " hospitals at or above " + n + " cases.");
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid input.");
+        }
+    }
+
+    // The k most severe hospital peaks (read only), cached until a hospital's peak changes
+    public java.util.List<SeverityRecord> topSeverity(int k) {
+        return queryCache.get(new QueryCache.Key("severityTop", k, 0, 0, 0), severityIndex.version(),
+                () -> java.util.Collections.unmodifiableList(severityIndex.tree().topK(k)));
+    }
+
+    // Number of hospitals whose peak is at least n cases, cached like topSeverity
+    public int countSeverityAtLeast(int n) {
+        return queryCache.get(new QueryCache.Key("severityCount", n, 0, 0, 0), severityIndex.version(),
+                () -> severityIndex.tree().countAtLeast(n));
+    }
+
     // Undo the most recent operation if possible
     void handleUndo() {
         if (!undoManager.canUndo()) {
             System.out.println("Nothing to undo.");
             return;
         }
+        long start = System.nanoTime();
         undoManager.undo();  // perform undo
+        undoTimer.since(start);
         System.out.println("Undid last operation.");
     }
+
+    // Redo the most recently undone operation if possible
+    void handleRedo() {
+        if (!undoManager.canRedo()) {
+            System.out.println("Nothing to redo.");
+            return;
+        }
+        long start = System.nanoTime();
+        undoManager.redo();
+        redoTimer.since(start);
+        System.out.println("Redid last undone operation.");
+    }
+
+    // How many operations can be undone (default UndoManager.DEFAULT_DEPTH)
+    public void setUndoDepth(int depth) {
+        undoManager.setDepth(depth);
+    }
 }
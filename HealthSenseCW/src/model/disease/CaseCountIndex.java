@@ -0,0 +1,565 @@
+package model.disease;
+
+import model.hospital.Hospital;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/* Records ordered by case count, one B+tree per disease, for "records with at least / between N cases" queries.
+ * A query descends to the first match in O(log n) and then walks the linked leaves, so it costs O(log n + k)
+ * for k results instead of a scan over every history. Results come back lazily, highest count first
+ * (ties by hospital id, then week, then disease id), and a Cursor resumes a query after the last result seen,
+ * so callers can page through a large result one short query at a time.
+ * The trees are filled from the DiseaseIndex posting lists, which are append-only apart from undo: an add only marks
+ * its disease's tree stale, and the next query of that disease inserts every posting added since, sorted by count
+ * so the leaves are visited in order. Ingestion (and opening a mapped archive) therefore pays almost nothing for
+ * this index. Queries must run while records are not being changed (see SystemEngine.query);
+ * removals for different hospitals may run at the same time, each tree is synchronized.*/
+
+public class CaseCountIndex {
+    // One query result
+    public static class Hit {
+        public final Hospital hospital;
+        public final int diseaseId;
+        public final int week;
+        public final int count;
+
+        Hit(Hospital hospital, int diseaseId, int week, int count) {
+            this.hospital = hospital;
+            this.diseaseId = diseaseId;
+            this.week = week;
+            this.count = count;
+        }
+
+        public String disease() {
+            return DiseaseDictionary.nameOf(diseaseId);
+        }
+    }
+
+    // Position after a result: the next query with this cursor continues right after it (duplicates included)
+    public static class Cursor {
+        final int count, hospitalId, week, diseaseId;
+        final int equalSeen; // results with exactly this key and disease already returned
+
+        Cursor(int count, int hospitalId, int week, int diseaseId, int equalSeen) {
+            this.count = count;
+            this.hospitalId = hospitalId;
+            this.week = week;
+            this.diseaseId = diseaseId;
+            this.equalSeen = equalSeen;
+        }
+    }
+
+    private final DiseaseIndex source;
+    // disease id -> tree. Replaced by a bigger copy when a new disease appears.
+    private volatile Tree[] trees = new Tree[0];
+    // hospital id -> hospital, for turning stored ids back into hospitals
+    private volatile Hospital[] hospitals = new Hospital[0];
+
+    public CaseCountIndex(DiseaseIndex source) {
+        this.source = source;
+    }
+
+    // A record was added to the DiseaseIndex (caller holds the hospital's lock)
+    public void recordAdded(Hospital hospital, int diseaseId) {
+        remember(hospital);
+        Tree tree = tree(diseaseId);
+        if (!tree.stale) tree.stale = true; // read first: once stale, writers only read the flag
+    }
+
+    // A record is about to be removed from the DiseaseIndex: must run before DiseaseIndex.recordRemoved,
+    // which shifts the postings (caller holds the hospital's lock)
+    public void recordRemoved(Hospital hospital, int diseaseId, int week, int count) {
+        DiseaseIndex.Postings p = source.postings(diseaseId).get(hospital);
+        if (p == null) return;
+        Tree tree = tree(diseaseId);
+        synchronized (tree) {
+            int i = p.lastIndexOf(week, count);
+            if (i < 0 || i >= p.rangeIndexed) return; // not in the tree yet
+            tree.remove(count, hospital.id, week);
+            p.rangeIndexed--;
+        }
+    }
+
+    // Records of weeks before the given one are leaving a hospital's history (retention, writers paused):
+    // remove those already in a tree. Must run before DiseaseIndex.removeWeeksBefore.
+    public void removeWeeksBefore(Hospital hospital, int week) {
+        Tree[] table = trees;
+        for (int id = 0; id < table.length; id++) {
+            DiseaseIndex.Postings p = source.postings(id).get(hospital);
+            if (p == null) continue;
+            synchronized (table[id]) {
+                for (int i = 0; i < p.rangeIndexed; i++) {
+                    if (p.weekAt(i) < week) table[id].remove(p.countAt(i), hospital.id, p.weekAt(i));
+                }
+            }
+        }
+    }
+
+    // A mapped archive became the hospital's history: its postings are picked up by the next query of each disease
+    public void archiveAttached(Hospital hospital, HistoryArchive.Mapped archive) {
+        for (int diseaseId : archive.rangeDisease) recordAdded(hospital, diseaseId);
+    }
+
+    /* Records of the disease (name matched ignoring case, blank for every disease) with min <= count <= max,
+     * highest count first. after is null for the first page, or the cursor of the last result already shown.*/
+    public Iterator<Hit> range(String disease, int min, int max, Cursor after) {
+        if (after != null && after.count > max) after = null; // the cursor is before the range, start at its top
+        Tree[] table = trees;
+        int[] ids = disease.isEmpty() ? null : DiseaseDictionary.idsIgnoreCase(disease); // ascending, like the loop below
+        List<LeafCursor> heads = new ArrayList<>();
+        for (int i = 0, end = ids == null ? table.length : ids.length; i < end; i++) {
+            int id = ids == null ? i : ids[i];
+            if (id >= table.length) break;
+            Tree tree = table[id];
+            synchronized (tree) {
+                if (tree.stale) catchUp(tree, id);
+            }
+            LeafCursor head;
+            if (after == null) {
+                head = tree.seek(id, max, Integer.MIN_VALUE, Integer.MIN_VALUE, min);
+            } else {
+                head = tree.seek(id, after.count, after.hospitalId, after.week, min);
+                // results equal to the cursor's key were shown for lower disease ids, and equalSeen of them for its own
+                int skip = id < after.diseaseId ? Integer.MAX_VALUE : id == after.diseaseId ? after.equalSeen : 0;
+                while (skip-- > 0 && head.valid() && head.count() == after.count && head.hospital() == after.hospitalId
+                        && head.week() == after.week) {
+                    head.advance();
+                }
+            }
+            if (head.valid()) heads.add(head);
+        }
+        return new RangeIterator(heads);
+    }
+
+    // Same as range(), as a lazy stream
+    public Stream<Hit> stream(String disease, int min, int max, Cursor after) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(range(disease, min, max, after),
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    // Cursor positioned after the given result; equalSeen counts the results with exactly this key shown so far (>= 1)
+    public static Cursor after(Hit last, int equalSeen) {
+        return new Cursor(last.count, last.hospital.id, last.week, last.diseaseId, equalSeen);
+    }
+
+    /* Bring a tree up to date with the postings added since the last query (caller holds the tree's monitor,
+     * writers are paused). A small delta is inserted entry by entry; a delta that is large next to the tree
+     * (e.g. the first query after an import) is merged with the tree's entries and the tree is rebuilt bottom-up.*/
+    private void catchUp(Tree tree, int diseaseId) {
+        tree.stale = false;
+        long total = 0;
+        for (DiseaseIndex.Postings p : source.postings(diseaseId).values()) total += p.size() - p.rangeIndexed;
+        if (total == 0) return;
+        if (total > Integer.MAX_VALUE - 8) throw new IllegalStateException("too many records for one disease: " + total);
+        Entries delta = new Entries((int) total);
+        for (java.util.Map.Entry<Hospital, DiseaseIndex.Postings> e : source.postings(diseaseId).entrySet()) {
+            DiseaseIndex.Postings p = e.getValue();
+            int hospitalId = e.getKey().id;
+            for (int i = p.rangeIndexed; i < p.size(); i++) delta.add(p.countAt(i), hospitalId, p.weekAt(i));
+            p.rangeIndexed = p.size();
+        }
+        delta.sort();
+        if (delta.n < tree.size / 4) {
+            for (int i = 0; i < delta.n; i++) tree.insert(delta.counts[i], delta.hospitals[i], delta.weeks[i]);
+        } else {
+            tree.rebuild(Entries.merge(tree.entries(), delta));
+        }
+    }
+
+    // (count, hospital id, week) triples in columns
+    private static final class Entries {
+        final int[] counts, hospitals, weeks;
+        int n;
+
+        Entries(int capacity) {
+            counts = new int[capacity];
+            hospitals = new int[capacity];
+            weeks = new int[capacity];
+        }
+
+        void add(int count, int hospital, int week) {
+            counts[n] = count;
+            hospitals[n] = hospital;
+            weeks[n] = week;
+            n++;
+        }
+
+        // Sort into tree order: by count with a primitive sort, then each run of equal counts by hospital and week
+        void sort() {
+            long[] order = new long[n];
+            for (int i = 0; i < n; i++) order[i] = ((long) ~counts[i] << 32) | i; // ascending = count descending
+            Arrays.sort(order);
+            int[] sortedCounts = new int[n];
+            for (int i = 0; i < n; i++) sortedCounts[i] = counts[(int) order[i]];
+            for (int from = 0; from < n; ) {
+                int to = from + 1;
+                while (to < n && sortedCounts[to] == sortedCounts[from]) to++;
+                for (int i = from; i < to; i++) {
+                    int row = (int) order[i];
+                    order[i] = ((long) hospitals[row] << 32) | ((weeks[row] ^ 0x80000000L) & 0xffffffffL);
+                }
+                Arrays.sort(order, from, to);
+                from = to;
+            }
+            for (int i = 0; i < n; i++) {
+                counts[i] = sortedCounts[i];
+                hospitals[i] = (int) (order[i] >> 32);
+                weeks[i] = (int) order[i] ^ 0x80000000;
+            }
+        }
+
+        // Merge two sorted entry lists
+        static Entries merge(Entries a, Entries b) {
+            Entries out = new Entries(a.n + b.n);
+            int i = 0, j = 0;
+            while (i < a.n || j < b.n) {
+                boolean takeA = j == b.n || (i < a.n && compare(a.counts[i], a.hospitals[i], a.weeks[i],
+                        b.counts[j], b.hospitals[j], b.weeks[j]) <= 0);
+                if (takeA) {
+                    out.add(a.counts[i], a.hospitals[i], a.weeks[i]);
+                    i++;
+                } else {
+                    out.add(b.counts[j], b.hospitals[j], b.weeks[j]);
+                    j++;
+                }
+            }
+            return out;
+        }
+    }
+
+    private void remember(Hospital hospital) {
+        Hospital[] known = hospitals;
+        if (hospital.id < known.length && known[hospital.id] == hospital) return;
+        synchronized (this) {
+            known = hospitals;
+            if (hospital.id >= known.length) known = Arrays.copyOf(known, Math.max(hospital.id + 1, known.length * 2));
+            else known = known.clone();
+            known[hospital.id] = hospital;
+            hospitals = known;
+        }
+    }
+
+    // Tree for a disease id, growing the table under a lock the first time the id is seen
+    private Tree tree(int diseaseId) {
+        Tree[] table = trees;
+        if (diseaseId < table.length) return table[diseaseId];
+        synchronized (this) {
+            table = trees;
+            if (diseaseId >= table.length) {
+                int oldLength = table.length;
+                table = Arrays.copyOf(table, Math.max(diseaseId + 1, oldLength * 2));
+                for (int i = oldLength; i < table.length; i++) table[i] = new Tree();
+                trees = table;
+            }
+            return table[diseaseId];
+        }
+    }
+
+    // Merges the per-disease leaf walks into one ordered result
+    private class RangeIterator implements Iterator<Hit> {
+        private final PriorityQueue<LeafCursor> heads = new PriorityQueue<>(LeafCursor::compareTo);
+        private final Hospital[] known = hospitals;
+
+        RangeIterator(List<LeafCursor> heads) {
+            this.heads.addAll(heads);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public Hit next() {
+            LeafCursor head = heads.poll();
+            if (head == null) throw new NoSuchElementException();
+            Hit hit = new Hit(known[head.hospital()], head.diseaseId, head.week(), head.count());
+            head.advance();
+            if (head.valid()) heads.add(head);
+            return hit;
+        }
+    }
+
+    // Ordering of entries: count descending, then hospital id, then week
+    static int compare(int c1, int h1, int w1, int c2, int h2, int w2) {
+        if (c1 != c2) return c1 > c2 ? -1 : 1;
+        if (h1 != h2) return Integer.compare(h1, h2);
+        return Integer.compare(w1, w2);
+    }
+
+    // Walks the leaves of one tree from a position while the count stays at least min
+    private static class LeafCursor implements Comparable<LeafCursor> {
+        final int diseaseId;
+        final int min;
+        Leaf leaf;
+        int pos;
+
+        LeafCursor(int diseaseId, Leaf leaf, int pos, int min) {
+            this.diseaseId = diseaseId;
+            this.leaf = leaf;
+            this.pos = pos;
+            this.min = min;
+            skipEmpty();
+        }
+
+        boolean valid() {
+            return leaf != null && leaf.counts[pos] >= min;
+        }
+
+        int count() {
+            return leaf.counts[pos];
+        }
+
+        int hospital() {
+            return leaf.hospitals[pos];
+        }
+
+        int week() {
+            return leaf.weeks[pos];
+        }
+
+        void advance() {
+            pos++;
+            skipEmpty();
+        }
+
+        private void skipEmpty() {
+            while (leaf != null && pos >= leaf.n) { // end of leaf (removals can leave a leaf empty)
+                leaf = leaf.next;
+                pos = 0;
+            }
+        }
+
+        @Override
+        public int compareTo(LeafCursor o) {
+            int c = compare(count(), hospital(), week(), o.count(), o.hospital(), o.week());
+            return c != 0 ? c : Integer.compare(diseaseId, o.diseaseId);
+        }
+    }
+
+    private abstract static class Node {
+        int n; // entries (leaf) or children (inner)
+        final int[] counts = new int[Tree.FANOUT], hospitals = new int[Tree.FANOUT], weeks = new int[Tree.FANOUT];
+    }
+
+    private static final class Leaf extends Node {
+        Leaf next;
+    }
+
+    // keys[i] (i >= 1) is a lower bound of child i and an upper bound of child i - 1
+    private static final class Inner extends Node {
+        final Node[] children = new Node[Tree.FANOUT];
+    }
+
+    /* B+tree of (count, hospital id, week) entries of one disease, duplicates allowed.
+     * Removals (undo only) do not merge nodes: a leaf may become underfull or empty, the bounds stay valid.*/
+    private static final class Tree {
+        static final int FANOUT = 64;
+
+        Node root = new Leaf();
+        int size = 0;
+        volatile boolean stale; // postings were added since the last query
+        private int splitCount, splitHospital, splitWeek; // first key of the node split off by the last insert
+
+        // Every entry in order
+        Entries entries() {
+            Entries out = new Entries(size);
+            Node node = root;
+            while (node instanceof Inner) node = ((Inner) node).children[0];
+            for (Leaf leaf = (Leaf) node; leaf != null; leaf = leaf.next) {
+                for (int i = 0; i < leaf.n; i++) out.add(leaf.counts[i], leaf.hospitals[i], leaf.weeks[i]);
+            }
+            return out;
+        }
+
+        // Replace the tree with one built bottom-up from sorted entries (leaves 3/4 full, leaving room for inserts)
+        void rebuild(Entries sorted) {
+            int perLeaf = FANOUT * 3 / 4;
+            List<Node> level = new ArrayList<>();
+            Leaf previous = null;
+            for (int from = 0; from < sorted.n || level.isEmpty(); from += perLeaf) {
+                Leaf leaf = new Leaf();
+                leaf.n = Math.min(perLeaf, sorted.n - from);
+                System.arraycopy(sorted.counts, from, leaf.counts, 0, leaf.n);
+                System.arraycopy(sorted.hospitals, from, leaf.hospitals, 0, leaf.n);
+                System.arraycopy(sorted.weeks, from, leaf.weeks, 0, leaf.n);
+                if (previous != null) previous.next = leaf;
+                previous = leaf;
+                level.add(leaf);
+            }
+            while (level.size() > 1) {
+                List<Node> parents = new ArrayList<>();
+                for (int from = 0; from < level.size(); from += perLeaf) {
+                    Inner inner = new Inner();
+                    inner.n = Math.min(perLeaf, level.size() - from);
+                    for (int c = 0; c < inner.n; c++) {
+                        Node child = level.get(from + c);
+                        inner.children[c] = child;
+                        inner.counts[c] = child.counts[0]; // first key of the child (keys[0] of an inner node is its own first key)
+                        inner.hospitals[c] = child.hospitals[0];
+                        inner.weeks[c] = child.weeks[0];
+                    }
+                    parents.add(inner);
+                }
+                level = parents;
+            }
+            root = level.get(0);
+            size = sorted.n;
+        }
+
+        void insert(int count, int hospital, int week) {
+            size++;
+            Node right = insert(root, count, hospital, week);
+            if (right != null) { // root split: grow a level
+                Inner top = new Inner();
+                top.children[0] = root;
+                top.children[1] = right;
+                top.counts[1] = splitCount;
+                top.hospitals[1] = splitHospital;
+                top.weeks[1] = splitWeek;
+                top.n = 2;
+                root = top;
+            }
+        }
+
+        // Returns the new right sibling if node was split (its first key is in split*), else null
+        private Node insert(Node node, int count, int hospital, int week) {
+            if (node instanceof Leaf) {
+                Leaf leaf = (Leaf) node;
+                int pos = upperBound(leaf, 0, count, hospital, week);
+                if (leaf.n < FANOUT) {
+                    insertAt(leaf, pos, count, hospital, week);
+                    return null;
+                }
+                Leaf right = new Leaf();
+                moveHalf(leaf, right);
+                right.next = leaf.next;
+                leaf.next = right;
+                if (pos <= leaf.n) insertAt(leaf, pos, count, hospital, week);
+                else insertAt(right, pos - leaf.n, count, hospital, week);
+                setSplitKey(right, 0);
+                return right;
+            }
+            Inner inner = (Inner) node;
+            int child = upperBound(inner, 1, count, hospital, week) - 1;
+            Node split = insert(inner.children[child], count, hospital, week);
+            if (split == null) return null;
+            int pos = child + 1;
+            if (inner.n < FANOUT) {
+                insertChild(inner, pos, split);
+                return null;
+            }
+            Inner right = new Inner();
+            moveHalf(inner, right);
+            System.arraycopy(inner.children, inner.n, right.children, 0, right.n);
+            Arrays.fill(inner.children, inner.n, FANOUT, null);
+            if (pos <= inner.n) insertChild(inner, pos, split);
+            else insertChild(right, pos - inner.n, split);
+            setSplitKey(right, 0); // the right node's first key bounds it from below
+            return right;
+        }
+
+        // Put child at position pos of an inner node, with the split key as its lower bound
+        private void insertChild(Inner inner, int pos, Node child) {
+            int moved = inner.n - pos;
+            System.arraycopy(inner.children, pos, inner.children, pos + 1, moved);
+            inner.children[pos] = child;
+            insertAt(inner, pos, splitCount, splitHospital, splitWeek);
+        }
+
+        private void setSplitKey(Node node, int i) {
+            splitCount = node.counts[i];
+            splitHospital = node.hospitals[i];
+            splitWeek = node.weeks[i];
+        }
+
+        // Remove one entry equal to the key, false if there is none
+        boolean remove(int count, int hospital, int week) {
+            Leaf leaf = findLeaf(count, hospital, week);
+            int pos = lowerBound(leaf, 0, count, hospital, week);
+            while (leaf != null) {
+                if (pos < leaf.n) {
+                    if (compare(leaf.counts[pos], leaf.hospitals[pos], leaf.weeks[pos], count, hospital, week) != 0) return false;
+                    int moved = leaf.n - pos - 1;
+                    System.arraycopy(leaf.counts, pos + 1, leaf.counts, pos, moved);
+                    System.arraycopy(leaf.hospitals, pos + 1, leaf.hospitals, pos, moved);
+                    System.arraycopy(leaf.weeks, pos + 1, leaf.weeks, pos, moved);
+                    leaf.n--;
+                    size--;
+                    return true;
+                }
+                leaf = leaf.next;
+                pos = 0;
+            }
+            return false;
+        }
+
+        // Cursor at the first entry not ordered before (count, hospital, week)
+        LeafCursor seek(int diseaseId, int count, int hospital, int week, int min) {
+            Leaf leaf = findLeaf(count, hospital, week);
+            return new LeafCursor(diseaseId, leaf, lowerBound(leaf, 0, count, hospital, week), min);
+        }
+
+        // Leaf where entries not ordered before the key may start (earlier children only hold smaller or equal keys)
+        private Leaf findLeaf(int count, int hospital, int week) {
+            Node node = root;
+            while (node instanceof Inner) {
+                Inner inner = (Inner) node;
+                node = inner.children[Math.max(0, lowerBound(inner, 1, count, hospital, week) - 1)];
+            }
+            return (Leaf) node;
+        }
+
+        // First position >= from whose key is not ordered before the given one
+        private static int lowerBound(Node node, int from, int count, int hospital, int week) {
+            int lo = from, hi = node.n;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (compare(node.counts[mid], node.hospitals[mid], node.weeks[mid], count, hospital, week) < 0) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+
+        // First position >= from whose key is ordered after the given one
+        private static int upperBound(Node node, int from, int count, int hospital, int week) {
+            int lo = from, hi = node.n;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (compare(node.counts[mid], node.hospitals[mid], node.weeks[mid], count, hospital, week) <= 0) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+
+        private static void insertAt(Node node, int pos, int count, int hospital, int week) {
+            int moved = node.n - pos;
+            System.arraycopy(node.counts, pos, node.counts, pos + 1, moved);
+            System.arraycopy(node.hospitals, pos, node.hospitals, pos + 1, moved);
+            System.arraycopy(node.weeks, pos, node.weeks, pos + 1, moved);
+            node.counts[pos] = count;
+            node.hospitals[pos] = hospital;
+            node.weeks[pos] = week;
+            node.n++;
+        }
+
+        // Move the upper half of a full node's keys into an empty one
+        private static void moveHalf(Node from, Node to) {
+            int keep = from.n / 2;
+            to.n = from.n - keep;
+            System.arraycopy(from.counts, keep, to.counts, 0, to.n);
+            System.arraycopy(from.hospitals, keep, to.hospitals, 0, to.n);
+            System.arraycopy(from.weeks, keep, to.weeks, 0, to.n);
+            from.n = keep;
+        }
+    }
+}
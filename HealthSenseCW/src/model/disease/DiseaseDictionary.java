@@ -0,0 +1,118 @@
+package model.disease;
+
+import util.SymbolTable;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/* Shared dictionary that gives every distinct disease name a small int id.
+ * Histories store the id instead of a String per record, the name is looked up only when needed.
+ * Each spelling keeps its own id (records print as they were entered); spellings that are equal ignoring case
+ * share a symbol of a case-insensitive SymbolTable, so a query resolves its name to ids once and scans compare ints;
+ * analytics that must not tell spellings apart key their state by it.
+ * Safe to use from several ingesting threads: lookups are lock-free, only new names take a lock.*/
+
+public class DiseaseDictionary {
+    private static final Map<String, Integer> ids = new ConcurrentHashMap<>(); // name -> id
+    private static volatile String[] names = new String[16];                   // id -> name
+    private static volatile int count = 0;                                     // how many names are stored
+    private static volatile int[] symbolOfId = new int[16];                    // id -> symbol
+    private static final SymbolTable symbols = new SymbolTable();              // case-insensitive name -> symbol
+    private static volatile int[][] spellings = new int[16][];                 // symbol -> ids of its spellings, ascending
+    private static final int[] NONE = new int[0];
+
+    private DiseaseDictionary() {
+    }
+
+    // Return the id for a disease name, adding it to the dictionary if it is new
+    public static int idOf(String name) {
+        Integer id = ids.get(name);
+        if (id != null) return id;
+        return add(name);
+    }
+
+    // Slow path for a new name. The name is stored before the id is published, so readers never see an id without its name.
+    private static synchronized int add(String name) {
+        Integer id = ids.get(name);
+        if (id != null) return id; // another thread added it first
+        String[] table = names;
+        if (count == table.length) {
+            table = Arrays.copyOf(table, count * 2); // grow the id -> name table
+        }
+        table[count] = name;
+        names = table;
+        int symbol = symbols.idOf(name);
+        int[] bySpelling = symbolOfId;
+        if (count == bySpelling.length) bySpelling = Arrays.copyOf(bySpelling, count * 2);
+        bySpelling[count] = symbol;
+        symbolOfId = bySpelling;
+        int[][] bySymbol = spellings;
+        if (symbol >= bySymbol.length) bySymbol = Arrays.copyOf(bySymbol, bySymbol.length * 2);
+        int[] same = bySymbol[symbol] == null ? NONE : bySymbol[symbol];
+        same = Arrays.copyOf(same, same.length + 1); // copy on write, readers may hold the old array
+        same[same.length - 1] = count;
+        bySymbol[symbol] = same;
+        spellings = bySymbol;
+        ids.put(name, count);
+        return count++;
+    }
+
+    // Return the id for a name only if it is already known, otherwise -1
+    public static int find(String name) {
+        Integer id = ids.get(name);
+        return id != null ? id : -1;
+    }
+
+    /* Symbol of a disease id: the same for every spelling of a name ignoring case, dense from 0. Analytics that must
+     * not tell spellings apart (trends, peaks, leaderboards) key their state by it.*/
+    public static int symbolOf(int id) {
+        return symbolOfId[id];
+    }
+
+    // Symbol of a name (ignoring case), -1 if no spelling of it is known
+    public static int symbol(String name) {
+        int symbol = symbols.find(name);
+        return symbol >= 0 && idsIgnoreCase(name).length > 0 ? symbol : -1; // not yet while its first spelling is added
+    }
+
+    // Look up the name stored for an id
+    public static String nameOf(int id) {
+        return names[id];
+    }
+
+    /* Ids of every spelling of a name (ignoring case), ascending; usually one, empty if the disease is unknown.
+     * One hash lookup, nothing is compared per id. The array is shared: read it, do not change it.*/
+    public static int[] idsIgnoreCase(String name) {
+        int symbol = symbols.find(name);
+        if (symbol < 0) return NONE;
+        int[][] bySymbol = spellings;
+        int[] same = symbol < bySymbol.length ? bySymbol[symbol] : null;
+        return same != null ? same : NONE; // null while the first spelling is being added
+    }
+
+    // Id of the first spelling seen of a symbol, the one its merged analytics print under (-1 while it is being added)
+    public static int firstIdOf(int symbol) {
+        int[][] bySymbol = spellings;
+        int[] same = symbol < bySymbol.length ? bySymbol[symbol] : null;
+        return same == null ? -1 : same[0];
+    }
+
+    // Number of symbols (distinct names ignoring case) seen so far
+    public static int symbolCount() {
+        return symbols.size();
+    }
+
+    // Whether id is one of ids (the result of idsIgnoreCase)
+    public static boolean contains(int[] ids, int id) {
+        for (int candidate : ids) {
+            if (candidate == id) return true;
+        }
+        return false;
+    }
+
+    // Number of distinct disease names seen so far
+    public static int size() {
+        return count;
+    }
+}
@@ -0,0 +1,205 @@
+package model.disease;
+
+import model.hospital.Hospital;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/* Inverted index from disease to the records reported for it, across all hospitals.
+ * For every disease id it keeps one posting list per hospital (week and count columns, in arrival order),
+ * so disease queries only touch hospitals and records that actually have that disease.
+ * Writers for different hospitals may run at the same time: a hospital's posting lists are only changed
+ * while that hospital's lock is held, and the shared per-disease maps are concurrent.*/
+
+public class DiseaseIndex {
+    // Records of one disease at one hospital. The first ones may be a row range of a mapped archive (not copied).
+    public static class Postings {
+        private final int diseaseId;
+        private int[] weeks = new int[4];
+        private int[] counts = new int[4];
+        private int size = 0;
+        private int archived = 0;                       // postings [0, archived) are rows archiveFrom.. of the archive columns
+        private int archiveFrom;
+        private IntBuffer archiveWeeks, archiveCounts;
+        int rangeIndexed = 0;                           // postings [0, rangeIndexed) are in the CaseCountIndex
+
+        Postings(int diseaseId) {
+            this.diseaseId = diseaseId;
+        }
+
+        // Disease name as it was reported
+        public String disease() {
+            return DiseaseDictionary.nameOf(diseaseId);
+        }
+
+        void add(int week, int count) {
+            int slot = size - archived;
+            if (slot == weeks.length) {
+                weeks = Arrays.copyOf(weeks, slot * 2);
+                counts = Arrays.copyOf(counts, slot * 2);
+            }
+            weeks[slot] = week;
+            counts[slot] = count;
+            size++;
+        }
+
+        // Remove the last posting with these values, false if there is none
+        boolean remove(int week, int count) {
+            int i = lastIndexOf(week, count);
+            if (i < 0) return false;
+            if (i < archived) copyArchiveToHeap();
+            int slot = i - archived, moved = size - i - 1;
+            System.arraycopy(weeks, slot + 1, weeks, slot, moved);
+            System.arraycopy(counts, slot + 1, counts, slot, moved);
+            size--;
+            return true;
+        }
+
+        // Remove the postings of weeks before the given one, keeping the order of the others (retention)
+        void removeWeeksBefore(int week) {
+            int first = 0;
+            while (first < size && weekAt(first) >= week) first++;
+            if (first == size) return;
+            if (archived > 0) copyArchiveToHeap();
+            int kept = first, indexedKept = Math.min(first, rangeIndexed);
+            for (int i = first + 1; i < size; i++) {
+                if (weeks[i] < week) continue;
+                if (i < rangeIndexed) indexedKept++;
+                weeks[kept] = weeks[i];
+                counts[kept] = counts[i];
+                kept++;
+            }
+            size = kept;
+            rangeIndexed = indexedKept;
+        }
+
+        // Position of the last posting with these values, -1 if none
+        int lastIndexOf(int week, int count) {
+            for (int i = size - 1; i >= 0; i--) {
+                if (weekAt(i) == week && countAt(i) == count) return i;
+            }
+            return -1;
+        }
+
+        // Copy the archived postings into the arrays (only needed before removing one of them)
+        private void copyArchiveToHeap() {
+            int heapRows = size - archived;
+            int[] w = new int[Math.max(4, size)], c = new int[w.length];
+            for (int i = 0; i < archived; i++) {
+                w[i] = archiveWeeks.get(archiveFrom + i);
+                c[i] = archiveCounts.get(archiveFrom + i);
+            }
+            System.arraycopy(weeks, 0, w, archived, heapRows);
+            System.arraycopy(counts, 0, c, archived, heapRows);
+            weeks = w;
+            counts = c;
+            archived = 0;
+            archiveWeeks = archiveCounts = null;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int weekAt(int i) {
+            return i < archived ? archiveWeeks.get(archiveFrom + i) : weeks[i - archived];
+        }
+
+        public int countAt(int i) {
+            return i < archived ? archiveCounts.get(archiveFrom + i) : counts[i - archived];
+        }
+    }
+
+    // disease id -> hospital -> postings. Replaced by a bigger copy (never changed in place) when a new disease appears.
+    private volatile List<Map<Hospital, Postings>> byDisease = new ArrayList<>();
+
+    // A record was added to a hospital's history (caller holds the hospital's lock)
+    public void recordAdded(Hospital hospital, int diseaseId, int week, int count) {
+        forDisease(diseaseId).computeIfAbsent(hospital, h -> new Postings(diseaseId)).add(week, count);
+    }
+
+    // A mapped archive became the hospital's (empty) history: each disease's rows are one range, nothing is copied
+    public void archiveAttached(Hospital hospital, HistoryArchive.Mapped archive) {
+        for (int r = 0; r < archive.rangeDisease.length; r++) {
+            int diseaseId = archive.rangeDisease[r];
+            Postings p = forDisease(diseaseId).computeIfAbsent(hospital, h -> new Postings(diseaseId));
+            p.archiveWeeks = archive.weeks;
+            p.archiveCounts = archive.counts;
+            p.archiveFrom = archive.rangeFrom[r];
+            p.archived = p.size = archive.rangeTo[r] - archive.rangeFrom[r];
+        }
+    }
+
+    /* Remove a hospital's postings of weeks before the given one (retention, writers paused). Must run after
+     * CaseCountIndex.removeWeeksBefore, which reads them. Emptied lists stay, so the hospital is still listed
+     * for the disease whose earlier weeks it keeps rolled up in the trend cube.*/
+    public void removeWeeksBefore(Hospital hospital, int week) {
+        for (Map<Hospital, Postings> hospitals : byDisease) {
+            Postings p = hospitals.get(hospital);
+            if (p != null) p.removeWeeksBefore(week);
+        }
+    }
+
+    // Posting lists of one disease id by hospital (empty if the id was never indexed)
+    Map<Hospital, Postings> postings(int diseaseId) {
+        List<Map<Hospital, Postings>> table = byDisease;
+        return diseaseId < table.size() ? table.get(diseaseId) : java.util.Collections.emptyMap();
+    }
+
+    // Map for one disease id, growing the table under a lock the first time the id is seen
+    private Map<Hospital, Postings> forDisease(int diseaseId) {
+        List<Map<Hospital, Postings>> table = byDisease;
+        if (diseaseId < table.size()) return table.get(diseaseId);
+        synchronized (this) {
+            table = new ArrayList<>(byDisease);
+            while (table.size() <= diseaseId) table.add(new ConcurrentHashMap<>());
+            byDisease = table;
+            return table.get(diseaseId);
+        }
+    }
+
+    // A record was removed from a hospital's history (caller holds the hospital's lock)
+    public void recordRemoved(Hospital hospital, int diseaseId, int week, int count) {
+        List<Map<Hospital, Postings>> table = byDisease;
+        if (diseaseId >= table.size()) return;
+        Map<Hospital, Postings> hospitals = table.get(diseaseId);
+        Postings postings = hospitals.get(hospital);
+        if (postings != null && postings.remove(week, count) && postings.size == 0) {
+            hospitals.remove(hospital); // hospital no longer has this disease
+        }
+    }
+
+    // Posting lists for one hospital and every disease id matching the name (ignoring case)
+    public List<Postings> postings(Hospital hospital, String disease) {
+        List<Map<Hospital, Postings>> table = byDisease;
+        List<Postings> out = new ArrayList<>(1);
+        for (int id : matchingIds(table, disease)) {
+            Postings p = table.get(id).get(hospital);
+            if (p != null) out.add(p);
+        }
+        return out;
+    }
+
+    // Which hospitals have reported the disease (name matched ignoring case), in registration order
+    public List<Hospital> hospitalsWith(String disease) {
+        List<Map<Hospital, Postings>> table = byDisease;
+        java.util.Set<Hospital> found = new java.util.HashSet<>();
+        for (int id : matchingIds(table, disease)) found.addAll(table.get(id).keySet());
+        List<Hospital> out = new ArrayList<>(found);
+        out.sort(Comparator.comparingInt(h -> h.id));
+        return out;
+    }
+
+    // Ids of indexed diseases whose name equals the given one ignoring case
+    private static int[] matchingIds(List<Map<Hospital, Postings>> table, String disease) {
+        int[] ids = DiseaseDictionary.idsIgnoreCase(disease);
+        int n = 0;
+        while (n < ids.length && ids[n] < table.size()) n++; // ascending, the rest are not indexed yet
+        return n == ids.length ? ids : Arrays.copyOf(ids, n);
+    }
+}
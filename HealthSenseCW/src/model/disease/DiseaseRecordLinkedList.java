@@ -1,112 +1,281 @@
 package model.disease;
 
-//Singly linked list of DiseaseRecord entries.It Used to store the history of disease case count.
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/* History of disease case counts for one hospital.
+ * Records are kept column by column (disease id, week, count) in growable int arrays,
+ * so a record costs 12 bytes instead of a Node + DiseaseRecord + String, and append is O(1) amortized.
+ * A history opened from a HistoryArchive reads its first rows straight from the memory-mapped file; rows appended
+ * later go to the arrays. Changes that would rewrite archived rows (sort, removing one) first copy them into the arrays.*/
 
 public class DiseaseRecordLinkedList {
-    // Node inside the linked list, holds one record and pointer to next
+    private static final int INITIAL_CAPACITY = 8;
+
+    // Result of a search: a copy of one record and the row it was read from
     public static class Node {
-        public DiseaseRecord data; // the actual disease record
-        public Node next;          // next node in list
+        public DiseaseRecord data; // the disease record at that row
+        public int index;          // row position inside the history
 
-        public Node(DiseaseRecord data) {
+        public Node(DiseaseRecord data, int index) {
             this.data = data;
+            this.index = index;
         }
     }
 
-    public Node head; // start of the list
+    private int[] diseaseIds = new int[INITIAL_CAPACITY]; // dictionary id of the disease, see DiseaseDictionary
+    private int[] weeks = new int[INITIAL_CAPACITY];      // week number column
+    private int[] counts = new int[INITIAL_CAPACITY];     // case count column
+    private int size = 0;                                 // number of records stored
+
+    // Rows [0, archived) come from a memory-mapped archive (read only), row i >= archived is at index i - archived above
+    private int archived = 0;
+    private IntBuffer archivedIds, archivedWeeks, archivedCounts;
+    private int[] archiveDiseaseMap; // disease id in the archive -> DiseaseDictionary id
+    private Path archiveFile;
+
+    public DiseaseRecordLinkedList() {
+    }
+
+    // History whose first rows are the columns of a mapped archive file (see HistoryArchive)
+    DiseaseRecordLinkedList(Path file, IntBuffer ids, IntBuffer weeks, IntBuffer counts, int[] diseaseMap, int rows) {
+        this.archiveFile = file;
+        this.archivedIds = ids;
+        this.archivedWeeks = weeks;
+        this.archivedCounts = counts;
+        this.archiveDiseaseMap = diseaseMap;
+        this.archived = rows;
+        this.size = rows;
+    }
 
     //Add a new record to the end of the list.
     public void append(DiseaseRecord record) {
-        Node node = new Node(record);
-        if (head == null) {
-            head = node; // list was empty, new node becomes head
-            return;
-        }
-        // walk to the last node
-        Node cur = head;
-        while (cur.next != null) cur = cur.next;
-        cur.next = node; // attach new node at end
+        append(DiseaseDictionary.idOf(record.diseaseName), record.weekNumber, record.caseCount);
+    }
+
+    //Add a new record to the end of the list using an already encoded disease id.
+    public void append(int diseaseId, int week, int count) {
+        int slot = size - archived;
+        if (slot == weeks.length) grow(slot + 1);
+        diseaseIds[slot] = diseaseId;
+        weeks[slot] = week;
+        counts[slot] = count;
+        size++;
+    }
+
+    // Make room for at least minCapacity records (doubles the columns)
+    private void grow(int minCapacity) {
+        int newCapacity = Math.max(minCapacity, weeks.length * 2);
+        diseaseIds = Arrays.copyOf(diseaseIds, newCapacity);
+        weeks = Arrays.copyOf(weeks, newCapacity);
+        counts = Arrays.copyOf(counts, newCapacity);
+    }
+
+    // Number of records in the history
+    public int size() {
+        return size;
+    }
+
+    public int diseaseIdAt(int i) {
+        return i < archived ? archiveDiseaseMap[archivedIds.get(i)] : diseaseIds[i - archived];
+    }
+
+    public String diseaseAt(int i) {
+        return DiseaseDictionary.nameOf(diseaseIdAt(i));
+    }
+
+    public int weekAt(int i) {
+        return i < archived ? archivedWeeks.get(i) : weeks[i - archived];
+    }
+
+    public int countAt(int i) {
+        return i < archived ? archivedCounts.get(i) : counts[i - archived];
+    }
+
+    // Rows read from a mapped archive (0 if none, or once they were copied into the heap)
+    public int archivedSize() {
+        return archived;
+    }
+
+    // Archive file backing the first archivedSize() rows, null if none
+    public Path archiveFile() {
+        return archived > 0 ? archiveFile : null;
     }
 
-    //Find the first node that matches the given disease name
+    // Build a DiseaseRecord for one row
+    public DiseaseRecord get(int i) {
+        return new DiseaseRecord(diseaseAt(i), weekAt(i), countAt(i));
+    }
+
+    //Find the first record that matches the given disease name
     public Node searchByDisease(String disease) {
-        Node cur = head;
-        while (cur != null) {
-            if (cur.data.diseaseName.equalsIgnoreCase(disease)) return cur;
-            cur = cur.next;
+        int[] ids = DiseaseDictionary.idsIgnoreCase(disease);
+        if (ids.length == 0) return null; // never reported anywhere
+        int id = ids[0];
+        boolean spellings = ids.length > 1;
+        for (int i = 0; i < size; i++) {
+            int rowId = diseaseIdAt(i);
+            if (rowId == id || (spellings && DiseaseDictionary.contains(ids, rowId))) return new Node(get(i), i);
         }
         return null; // not found
     }
 
-    //Used for undo: Delete the last node in the list
+    //Used for undo: Delete the last record matching the predicate
     public void deleteLastMatching(java.util.function.Predicate<DiseaseRecord> pred) {
-        if (head == null) return;
-
-        Node prev = null;
-        Node cur = head;
-        Node lastMatch = null;
-        Node lastMatchPrev = null;
-
-        // Traverse and remember the last matching node and its previous
-        while (cur != null) {
-            if (pred.test(cur.data)) {
-                lastMatch = cur;
-                lastMatchPrev = prev;
+        for (int i = size - 1; i >= 0; i--) {
+            if (pred.test(get(i))) {
+                removeAt(i);
+                return;
             }
-            prev = cur;
-            cur = cur.next;
         }
+    }
+
+    //Used for undo: Delete the last record with exactly these values (no record objects created). Returns false if none matched.
+    public boolean deleteLastMatching(int diseaseId, int week, int count) {
+        int i = lastMatching(diseaseId, week, count);
+        if (i < 0) return false;
+        removeAt(i);
+        return true;
+    }
+
+    // Row of the last record with exactly these values, -1 if none
+    public int lastMatching(int diseaseId, int week, int count) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (matches(i, diseaseId, week, count)) return i;
+        }
+        return -1;
+    }
+
+    // Whether row i exists and holds exactly these values
+    public boolean matches(int i, int diseaseId, int week, int count) {
+        return i >= 0 && i < size && diseaseIdAt(i) == diseaseId && weekAt(i) == week && countAt(i) == count;
+    }
 
-        if (lastMatch == null) return; // nothing to delete
+    // Remove one row, shifting later rows down (O(1) when it is the last row)
+    public void removeAt(int i) {
+        if (i < archived) copyArchiveToHeap();
+        i -= archived;
+        int moved = size - archived - i - 1;
+        if (moved > 0) {
+            System.arraycopy(diseaseIds, i + 1, diseaseIds, i, moved);
+            System.arraycopy(weeks, i + 1, weeks, i, moved);
+            System.arraycopy(counts, i + 1, counts, i, moved);
+        }
+        size--;
+    }
 
-        // Remove lastMatch from list
-        if (lastMatchPrev == null) {
-            // matched at head
-            head = head.next;
-        } else {
-            lastMatchPrev.next = lastMatch.next;
+    /* Retention: remove every row whose week is before the given one, keeping the order of the others.
+     * Rows are compacted in place, so the columns keep their size and are reused by the rows that follow.
+     * Returns the number of rows removed.*/
+    public int removeWeeksBefore(int week) {
+        int first = 0;
+        while (first < size && weekAt(first) >= week) first++;
+        if (first == size) return 0; // nothing to remove, archived rows stay in their file
+        if (archived > 0) copyArchiveToHeap();
+        int kept = first;
+        for (int i = first + 1; i < size; i++) {
+            if (weeks[i] < week) continue;
+            diseaseIds[kept] = diseaseIds[i];
+            weeks[kept] = weeks[i];
+            counts[kept] = counts[i];
+            kept++;
         }
+        int removed = size - kept;
+        size = kept;
+        return removed;
     }
 
     //Return the node with the highest caseCount in the list.
     public Node getMaxCaseNode() {
-        Node cur = head;
-        if (cur == null) return null;
+        if (size == 0) return null;
+        int max = 0; // assume first is max initially
+        for (int i = 1; i < size; i++) {
+            if (countAt(i) > countAt(max)) max = i;
+        }
+        return new Node(get(max), max);
+    }
+
+    /* Rearrange the rows in place so that row i becomes the old row order[i]. Used by the sorts.
+     * Follows each permutation cycle once, so no new columns are allocated.
+     * order is used as scratch (entries are flipped while visited) and restored before returning.*/
+    public void permute(int[] order) {
+        permute(order, size);
+    }
 
-        Node max = cur; // assume first is max initially
-        while (cur != null) {
-            if (cur.data.caseCount > max.data.caseCount) max = cur;
-            cur = cur.next;
+    // Same as permute(order) for the first n rows only, rows from n on stay where they are (used by undo/redo of a sort)
+    public void permute(int[] order, int n) {
+        if (n > size) throw new IllegalArgumentException("permutation of " + n + " rows, history has " + size);
+        if (archived > 0) copyArchiveToHeap();
+        for (int start = 0; start < n; start++) {
+            if (order[start] < 0) continue; // already placed as part of an earlier cycle
+            int savedId = diseaseIds[start], savedWeek = weeks[start], savedCount = counts[start];
+            int dest = start;
+            while (true) {
+                int src = order[dest];
+                order[dest] = ~src; // mark visited
+                if (src == start) {
+                    diseaseIds[dest] = savedId;
+                    weeks[dest] = savedWeek;
+                    counts[dest] = savedCount;
+                    break;
+                }
+                diseaseIds[dest] = diseaseIds[src];
+                weeks[dest] = weeks[src];
+                counts[dest] = counts[src];
+                dest = src;
+            }
         }
-        return max;
+        for (int i = 0; i < n; i++) order[i] = ~order[i];
     }
 
-    //Make a copy of this linked list.
+    //Make a copy of this linked list (archived rows are shared, they are never written).
     public DiseaseRecordLinkedList cloneList() {
         DiseaseRecordLinkedList copy = new DiseaseRecordLinkedList();
-        Node cur = head;
-        while (cur != null) {
-            // create a new record with same values and append
-            copy.append(new DiseaseRecord(
-                    cur.data.diseaseName,
-                    cur.data.weekNumber,
-                    cur.data.caseCount));
-            cur = cur.next;
-        }
+        int heapRows = size - archived;
+        copy.diseaseIds = Arrays.copyOf(diseaseIds, Math.max(heapRows, INITIAL_CAPACITY));
+        copy.weeks = Arrays.copyOf(weeks, Math.max(heapRows, INITIAL_CAPACITY));
+        copy.counts = Arrays.copyOf(counts, Math.max(heapRows, INITIAL_CAPACITY));
+        copy.size = size;
+        copy.archived = archived;
+        copy.archivedIds = archivedIds;
+        copy.archivedWeeks = archivedWeeks;
+        copy.archivedCounts = archivedCounts;
+        copy.archiveDiseaseMap = archiveDiseaseMap;
+        copy.archiveFile = archiveFile;
         return copy;
     }
 
+    // Copy the archived rows into the arrays so every row can be changed in place
+    private void copyArchiveToHeap() {
+        int heapRows = size - archived;
+        int[] ids = new int[Math.max(size, INITIAL_CAPACITY)];
+        int[] w = new int[ids.length];
+        int[] c = new int[ids.length];
+        for (int i = 0; i < archived; i++) {
+            ids[i] = archiveDiseaseMap[archivedIds.get(i)];
+            w[i] = archivedWeeks.get(i);
+            c[i] = archivedCounts.get(i);
+        }
+        System.arraycopy(diseaseIds, 0, ids, archived, heapRows);
+        System.arraycopy(weeks, 0, w, archived, heapRows);
+        System.arraycopy(counts, 0, c, archived, heapRows);
+        diseaseIds = ids;
+        weeks = w;
+        counts = c;
+        archived = 0;
+        archivedIds = archivedWeeks = archivedCounts = null;
+        archiveDiseaseMap = null;
+    }
+
     // Print every record in this list
     public void printAll() {
-        Node cur = head;
-        if (cur == null) {
+        if (size == 0) {
             System.out.println("(empty)");
             return;
         }
-        while (cur != null) {
-            System.out.printf("  %s week %d count %d%n",
-                    cur.data.diseaseName, cur.data.weekNumber, cur.data.caseCount);
-            cur = cur.next;
+        for (int i = 0; i < size; i++) {
+            System.out.printf("  %s week %d count %d%n", diseaseAt(i), weekAt(i), countAt(i));
         }
     }
 }
@@ -0,0 +1,195 @@
+package model.disease;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/* Compact read-only history file for one hospital, opened through a memory map so its records are never parsed
+ * or copied into the heap: the history reads the int columns straight from the mapped file.
+ * Layout (little endian, strings are [int length][UTF-8 bytes]):
+ *   int magic "HSAR", int version, string hospital, string region,
+ *   int dictionary size, disease names (a row's disease id is a position in this list),
+ *   int rows, int ranges, ranges x (int disease id, int first row, int end row),
+ *   zero padding to a multiple of 4, then three int columns of `rows` entries: disease id, week, count.
+ * Rows are grouped by disease and ordered by week inside a group, so all records of one disease are one
+ * contiguous range and DiseaseIndex can point at it instead of copying it.*/
+
+public class HistoryArchive {
+    private static final int MAGIC = 0x52415348; // "HSAR" read as a little endian int
+    private static final int VERSION = 1;
+
+    // An opened archive: the history backed by the mapping plus the row range of every disease
+    public static class Mapped {
+        public final String hospital;
+        public final String region;
+        public final DiseaseRecordLinkedList history;
+        final int[] rangeDisease; // DiseaseDictionary id of each range
+        final int[] rangeFrom;    // first row of each range
+        final int[] rangeTo;      // end row (exclusive)
+        final IntBuffer weeks, counts;
+
+        Mapped(String hospital, String region, DiseaseRecordLinkedList history, int[] rangeDisease, int[] rangeFrom,
+               int[] rangeTo, IntBuffer weeks, IntBuffer counts) {
+            this.hospital = hospital;
+            this.region = region;
+            this.history = history;
+            this.rangeDisease = rangeDisease;
+            this.rangeFrom = rangeFrom;
+            this.rangeTo = rangeTo;
+            this.weeks = weeks;
+            this.counts = counts;
+        }
+
+        public int rows() {
+            return history.archivedSize();
+        }
+    }
+
+    // Write a hospital's history as an archive (rows regrouped by disease, then week)
+    public static void write(Path file, String hospital, String region, DiseaseRecordLinkedList history) throws IOException {
+        int n = history.size();
+        // file-local disease ids in order of dictionary id, so the groups come out in a stable order
+        int[] localId = new int[DiseaseDictionary.size()];
+        Arrays.fill(localId, -1);
+        int[] groupSize = new int[localId.length];
+        for (int i = 0; i < n; i++) groupSize[history.diseaseIdAt(i)]++;
+        int diseases = 0;
+        int[] dictionaryIds = new int[localId.length];
+        for (int id = 0; id < localId.length; id++) {
+            if (groupSize[id] > 0) {
+                dictionaryIds[diseases] = id;
+                localId[id] = diseases++;
+            }
+        }
+        // counting sort by disease, then each group sorted by week (row index breaks ties, keeping arrival order)
+        int[] groupStart = new int[diseases + 1];
+        for (int d = 0; d < diseases; d++) groupStart[d + 1] = groupStart[d] + groupSize[dictionaryIds[d]];
+        long[] keys = new long[n];
+        int[] fill = Arrays.copyOf(groupStart, diseases);
+        for (int i = 0; i < n; i++) {
+            int d = localId[history.diseaseIdAt(i)];
+            keys[fill[d]++] = ((long) history.weekAt(i) << 32) | i;
+        }
+        for (int d = 0; d < diseases; d++) Arrays.sort(keys, groupStart[d], groupStart[d + 1]);
+
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Writer w = new Writer(out);
+            w.putInt(MAGIC);
+            w.putInt(VERSION);
+            w.putString(hospital);
+            w.putString(region);
+            w.putInt(diseases);
+            for (int d = 0; d < diseases; d++) w.putString(DiseaseDictionary.nameOf(dictionaryIds[d]));
+            w.putInt(n);
+            w.putInt(diseases);
+            for (int d = 0; d < diseases; d++) {
+                w.putInt(d);
+                w.putInt(groupStart[d]);
+                w.putInt(groupStart[d + 1]);
+            }
+            while (w.written % 4 != 0) w.put((byte) 0);
+            for (int d = 0; d < diseases; d++) {
+                for (int r = groupStart[d]; r < groupStart[d + 1]; r++) w.putInt(d);
+            }
+            for (int r = 0; r < n; r++) w.putInt(history.weekAt((int) keys[r]));
+            for (int r = 0; r < n; r++) w.putInt(history.countAt((int) keys[r]));
+            w.flush();
+            out.force(true);
+        }
+    }
+
+    // Map an archive. Only the header is read; the columns stay in the file and are paged in on use.
+    public static Mapped open(Path file) throws IOException {
+        MappedByteBuffer map;
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (in.size() > Integer.MAX_VALUE) throw new IOException("archive is larger than 2 GB: " + file);
+            map = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size()); // stays valid after the channel is closed
+        }
+        ByteBuffer b = map.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (b.getInt() != MAGIC || b.getInt() != VERSION) throw new IOException("not a history archive: " + file);
+            String hospital = getString(b);
+            String region = getString(b);
+            int[] diseaseMap = new int[b.getInt()];
+            for (int d = 0; d < diseaseMap.length; d++) diseaseMap[d] = DiseaseDictionary.idOf(getString(b));
+            int rows = b.getInt();
+            int ranges = b.getInt();
+            int[] rangeDisease = new int[ranges], rangeFrom = new int[ranges], rangeTo = new int[ranges];
+            for (int r = 0; r < ranges; r++) {
+                rangeDisease[r] = diseaseMap[b.getInt()];
+                rangeFrom[r] = b.getInt();
+                rangeTo[r] = b.getInt();
+            }
+            int columns = (b.position() + 3) & ~3;
+            if ((long) columns + 12L * rows != b.limit()) throw new IOException("archive is truncated: " + file);
+            IntBuffer ids = column(b, columns, rows);
+            IntBuffer weeks = column(b, columns + 4 * rows, rows);
+            IntBuffer counts = column(b, columns + 8 * rows, rows);
+            DiseaseRecordLinkedList history = new DiseaseRecordLinkedList(file, ids, weeks, counts, diseaseMap, rows);
+            return new Mapped(hospital, region, history, rangeDisease, rangeFrom, rangeTo, weeks, counts);
+        } catch (RuntimeException e) { // BufferUnderflowException, bad ids: the header is damaged
+            throw new IOException("archive is corrupt: " + file, e);
+        }
+    }
+
+    private static IntBuffer column(ByteBuffer b, int offset, int rows) {
+        ByteBuffer slice = b.duplicate();
+        slice.position(offset).limit(offset + 4 * rows);
+        return slice.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+
+    private static String getString(ByteBuffer b) {
+        byte[] bytes = new byte[b.getInt()];
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Buffered little endian output
+    private static class Writer {
+        private final FileChannel out;
+        private final ByteBuffer buf = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        long written;
+
+        Writer(FileChannel out) {
+            this.out = out;
+        }
+
+        private void room(int n) throws IOException {
+            if (buf.remaining() < n) flush();
+        }
+
+        void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) out.write(buf);
+            buf.clear();
+        }
+
+        void put(byte v) throws IOException {
+            room(1);
+            buf.put(v);
+            written++;
+        }
+
+        void putInt(int v) throws IOException {
+            room(4);
+            buf.putInt(v);
+            written += 4;
+        }
+
+        void putString(String s) throws IOException {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            room(4 + bytes.length);
+            buf.putInt(bytes.length);
+            buf.put(bytes);
+            written += 4 + bytes.length;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package model.disease;
+
+import model.hospital.Hospital;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/* Live top-k of (hospital, disease, week) weekly case totals, fed by TrendCube on every change of a cell.
+ * Four kinds of board are kept: national, per disease, per region and per (region, disease).
+ * Each board is a bounded min-heap holding the 2k highest cells it has seen, plus a floor: the best cell it had to
+ * drop, so nothing outside the heap ranks above the floor. A cell that grows is only looked at when it reaches the
+ * floor (one volatile read otherwise), then it moves or enters the heap in O(log k). When an undo lowers a cell in
+ * the heap, cells outside may overtake it; a query that cannot prove its k answers are above the floor rebuilds that
+ * board from the trend cube once. Ties rank the lower hospital id, then disease, then week first.
+ * A disease is its DiseaseDictionary symbol, like the trend cube's cells: spellings of a name share one cell and board.
+ * Of the weeks rolled up by a retention policy only each bucket's peak week stays ranked (TrendCube.rollUp).
+ * Writers hold the hospital's lock (boards are shared and synchronized), queries run while writers are paused.*/
+
+public class Leaderboard {
+    public static final int DEFAULT_SIZE = 10;
+
+    // One cell of a board
+    public static class Entry {
+        public final Hospital hospital;
+        public final int symbol; // DiseaseDictionary symbol of the disease
+        public final int week;
+        public final int cases;
+
+        Entry(Hospital hospital, int symbol, int week, int cases) {
+            this.hospital = hospital;
+            this.symbol = symbol;
+            this.week = week;
+            this.cases = cases;
+        }
+
+        // First spelling seen of the disease
+        public String disease() {
+            return DiseaseDictionary.nameOf(DiseaseDictionary.firstIdOf(symbol));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s (%s) %s week %d: %d cases", hospital.name, hospital.region, disease(), week, cases);
+        }
+    }
+
+    private final int size;        // k, the most a query can ask for
+    private final TrendCube cube;  // source of the cells when a board is rebuilt
+    private final Board national;
+    // disease symbol / region id / region id -> disease symbol -> board. Replaced by bigger copies under this object's lock.
+    private volatile Board[] byDisease = new Board[0];
+    private volatile Board[] byRegion = new Board[0];
+    private volatile Board[][] byRegionDisease = new Board[0][];
+
+    Leaderboard(TrendCube cube, int size) {
+        if (size < 1) throw new IllegalArgumentException("leaderboard size must be at least 1");
+        this.cube = cube;
+        this.size = size;
+        this.national = new Board(2 * size);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // A cell of the trend cube now holds total cases (decreased: it went down, an undo)
+    void cellChanged(Hospital hospital, int symbol, int week, int total, boolean decreased) {
+        national.update(hospital, symbol, week, total, decreased);
+        board(symbol, -1).update(hospital, symbol, week, total, decreased);
+        if (hospital.regionId >= 0) {
+            board(-1, hospital.regionId).update(hospital, symbol, week, total, decreased);
+            board(symbol, hospital.regionId).update(hospital, symbol, week, total, decreased);
+        }
+    }
+
+    /* The k highest cells, highest first, of one region (id, -1 for national) and one disease (matched ignoring case,
+     * blank for all diseases). Fewer if fewer cells have cases. k is at most size(). Caller pauses writers.*/
+    public List<Entry> top(int regionId, String disease, int k) {
+        if (k < 0 || k > size) throw new IllegalArgumentException("k must be between 0 and " + size);
+        if (regionId >= byRegion.length) return new ArrayList<>(); // no cells in that region yet
+        if (disease.isEmpty()) return top(regionId, -1, k);
+        int symbol = DiseaseDictionary.symbol(disease);
+        return symbol < 0 ? new ArrayList<>() : top(regionId, symbol, k);
+    }
+
+    private List<Entry> top(int regionId, int symbol, int k) {
+        Board board = symbol < 0 && regionId < 0 ? national : board(symbol, regionId);
+        List<Entry> top = board.top(k);
+        if (top == null) {
+            rebuild(board, regionId, symbol);
+            top = board.top(k);
+        }
+        return top;
+    }
+
+    // Refill a board from every cell in its scope (after undos left it unsure of its top k)
+    private void rebuild(Board board, int regionId, int symbol) {
+        board.clear();
+        for (Map.Entry<Hospital, TrendCube.Series[]> e : cube.cells().entrySet()) {
+            Hospital h = e.getKey();
+            if (regionId >= 0 && h.regionId != regionId) continue;
+            TrendCube.Series[] diseases = e.getValue();
+            for (int d = 0; d < diseases.length; d++) {
+                if (diseases[d] == null || (symbol >= 0 && d != symbol)) continue;
+                TrendCube.Series s = diseases[d];
+                for (int i = 0; i < s.rolledUpBuckets(); i++) { // a rolled-up week only counts as its bucket's peak
+                    if (s.bucketPeakTotal(i) > 0) board.update(h, d, s.bucketPeakWeek(i), s.bucketPeakTotal(i), false);
+                }
+                for (int w = s.firstWeek(); w <= s.lastWeek(); w++) {
+                    int total = s.total(w);
+                    if (total > 0) board.update(h, d, w, total, false);
+                }
+            }
+        }
+    }
+
+    // Board of a disease symbol and/or region id (-1 = any), growing the tables the first time either one is seen
+    private Board board(int symbol, int regionId) {
+        if (regionId < 0) {
+            Board[] table = byDisease;
+            if (symbol < table.length) return table[symbol];
+        } else if (symbol < 0) {
+            Board[] table = byRegion;
+            if (regionId < table.length) return table[regionId];
+        } else {
+            Board[][] table = byRegionDisease;
+            Board[] row = regionId < table.length ? table[regionId] : null;
+            if (row != null && symbol < row.length) return row[symbol];
+        }
+        synchronized (this) {
+            if (regionId < 0) {
+                byDisease = grown(byDisease, symbol);
+                return byDisease[symbol];
+            }
+            if (symbol < 0) {
+                byRegion = grown(byRegion, regionId);
+                return byRegion[regionId];
+            }
+            Board[][] table = byRegionDisease;
+            if (regionId >= table.length) table = Arrays.copyOf(table, Math.max(regionId + 1, table.length * 2));
+            table[regionId] = grown(table[regionId] == null ? new Board[0] : table[regionId], symbol);
+            byRegionDisease = table;
+            return table[regionId][symbol];
+        }
+    }
+
+    // The same boards (kept, so no update is lost) plus new ones up to at least index
+    private Board[] grown(Board[] table, int index) {
+        if (index < table.length) return table;
+        int oldLength = table.length;
+        table = Arrays.copyOf(table, Math.max(index + 1, Math.max(8, oldLength * 2)));
+        for (int i = oldLength; i < table.length; i++) table[i] = new Board(2 * size);
+        return table;
+    }
+
+    // Highest first: more cases, then lower hospital id, disease symbol, week
+    static int compare(Entry a, Entry b) {
+        return rank(b.cases, b.hospital, b.symbol, b.week, a.cases, a.hospital, a.symbol, a.week);
+    }
+
+    // > 0 if cell a ranks above cell b
+    static int rank(int casesA, Hospital hA, int dA, int wA, int casesB, Hospital hB, int dB, int wB) {
+        if (casesA != casesB) return Integer.compare(casesA, casesB);
+        if (hA.id != hB.id) return Integer.compare(hB.id, hA.id);
+        if (dA != dB) return Integer.compare(dB, dA);
+        return Integer.compare(wB, wA);
+    }
+
+    // Bounded min-heap of cells (slot 0 ranks lowest) and the floor below which everything outside it lies
+    private static final class Board {
+        final int capacity;
+        int size = 0;
+        final Hospital[] hospitals;
+        final int[] diseases, weeks, cases;
+        // Best cell dropped since the last clear; floorHospital == null means every cell outside has at most floorCases.
+        // floorCases only grows between clears, so a writer may skip a cell below it without the lock.
+        volatile int floorCases = 0;
+        Hospital floorHospital;
+        int floorDisease, floorWeek;
+
+        Board(int capacity) {
+            this.capacity = capacity;
+            hospitals = new Hospital[capacity + 1];
+            diseases = new int[capacity + 1];
+            weeks = new int[capacity + 1];
+            cases = new int[capacity + 1];
+        }
+
+        void update(Hospital h, int d, int w, int total, boolean decreased) {
+            if (!decreased && total < floorCases) return; // cannot reach the heap, and a stale copy in it stays below the floor
+            synchronized (this) {
+                int i = indexOf(h, d, w);
+                if (i >= 0) {
+                    int old = cases[i];
+                    cases[i] = total;
+                    if (total > old) siftDown(i); // ranks higher: away from the root
+                    else siftUp(i);
+                } else if (total > 0 && aboveFloor(total, h, d, w)) {
+                    set(size, h, d, w, total);
+                    siftUp(size++);
+                    if (size > capacity) dropLowest();
+                }
+            }
+        }
+
+        // The k highest cells, or null if the heap cannot prove that (a cell outside could rank above its k-th)
+        synchronized List<Entry> top(int k) {
+            List<Entry> out = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                if (cases[i] > 0 && aboveFloor(cases[i], hospitals[i], diseases[i], weeks[i])) {
+                    out.add(new Entry(hospitals[i], diseases[i], weeks[i], cases[i]));
+                }
+            }
+            out.sort(Leaderboard::compare);
+            boolean everythingKnown = floorHospital == null && floorCases == 0; // nothing was ever dropped
+            if (out.size() < k && !everythingKnown) return null;
+            return out.size() > k ? new ArrayList<>(out.subList(0, k)) : out;
+        }
+
+        synchronized void clear() {
+            Arrays.fill(hospitals, null);
+            size = 0;
+            floorHospital = null;
+            floorCases = 0;
+        }
+
+        private boolean aboveFloor(int total, Hospital h, int d, int w) {
+            if (floorHospital == null) return total > floorCases;
+            return rank(total, h, d, w, floorCases, floorHospital, floorDisease, floorWeek) > 0;
+        }
+
+        // Remove the lowest cell, it becomes the floor if it ranks above the current one
+        private void dropLowest() {
+            if (!aboveFloor(cases[0], hospitals[0], diseases[0], weeks[0])) {
+                // an undone cell that fell below the floor: the floor stays
+            } else {
+                floorHospital = hospitals[0];
+                floorDisease = diseases[0];
+                floorWeek = weeks[0];
+                floorCases = cases[0];
+            }
+            size--;
+            set(0, hospitals[size], diseases[size], weeks[size], cases[size]);
+            hospitals[size] = null;
+            siftDown(0);
+        }
+
+        private int indexOf(Hospital h, int d, int w) {
+            for (int i = 0; i < size; i++) {
+                if (hospitals[i] == h && diseases[i] == d && weeks[i] == w) return i;
+            }
+            return -1;
+        }
+
+        private void set(int i, Hospital h, int d, int w, int total) {
+            hospitals[i] = h;
+            diseases[i] = d;
+            weeks[i] = w;
+            cases[i] = total;
+        }
+
+        private boolean lower(int i, int j) {
+            return rank(cases[i], hospitals[i], diseases[i], weeks[i], cases[j], hospitals[j], diseases[j], weeks[j]) < 0;
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (!lower(i, parent)) return;
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) return;
+                if (child + 1 < size && lower(child + 1, child)) child++;
+                if (!lower(child, i)) return;
+                swap(i, child);
+                i = child;
+            }
+        }
+
+        private void swap(int i, int j) {
+            Hospital h = hospitals[i];
+            hospitals[i] = hospitals[j];
+            hospitals[j] = h;
+            int t = diseases[i];
+            diseases[i] = diseases[j];
+            diseases[j] = t;
+            t = weeks[i];
+            weeks[i] = weeks[j];
+            weeks[j] = t;
+            t = cases[i];
+            cases[i] = cases[j];
+            cases[j] = t;
+        }
+    }
+}
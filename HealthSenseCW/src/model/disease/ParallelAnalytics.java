@@ -0,0 +1,285 @@
+package model.disease;
+
+import model.hospital.Hospital;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/* Analytics computed straight from the hospital histories, split across a fork/join pool.
+ * The rows of the given hospitals are laid end to end and cut in half until a piece holds at most LEAF_ROWS records,
+ * so one task may scan many small hospitals or part of a big one. Every piece gives a partial result and partials are
+ * combined pairwise in row order. Each combine is associative (week totals and counts are added, the higher case count
+ * wins with the earlier row on ties), so the answer is exactly the one the sequential mode gets from a single piece.
+ * Callers keep writers paused while a scan runs (SystemEngine.query).*/
+
+public class ParallelAnalytics {
+    public static final int LEAF_ROWS = 1 << 14; // pieces this small are scanned by one task
+
+    // A scan that can be cut at any row (or only between hospitals) and whose partial results combine associatively
+    private interface Scan<R> {
+        R empty();
+
+        // Add rows [from, to) of the hospital at position index to a partial result
+        void add(R acc, int index, Hospital hospital, int from, int to);
+
+        // Partial result of left followed by right (both may be reused)
+        R combine(R left, R right);
+    }
+
+    private final ForkJoinPool pool; // null: scan on the calling thread
+
+    public ParallelAnalytics(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    // Everything in one piece on the calling thread (the reference results)
+    public static ParallelAnalytics sequential() {
+        return new ParallelAnalytics(null);
+    }
+
+    // Fork/join on the common pool when more than one core is available, sequential otherwise
+    public static ParallelAnalytics common() {
+        return ForkJoinPool.getCommonPoolParallelism() > 1 ? new ParallelAnalytics(ForkJoinPool.commonPool()) : sequential();
+    }
+
+    public boolean isParallel() {
+        return pool != null;
+    }
+
+    // Threads a scan can use
+    public int parallelism() {
+        return pool == null ? 1 : pool.getParallelism();
+    }
+
+    // Weekly case totals of a disease (name matched ignoring case) summed over the hospitals
+    public TrendCube.Series weeklyTotals(List<Hospital> hospitals, String disease) {
+        int[] ids = DiseaseDictionary.idsIgnoreCase(disease);
+        if (ids.length == 0) return new TrendCube.Series();
+        return run(hospitals, false, new Scan<TrendCube.Series>() {
+            public TrendCube.Series empty() {
+                return new TrendCube.Series();
+            }
+
+            public void add(TrendCube.Series acc, int index, Hospital hospital, int from, int to) {
+                DiseaseRecordLinkedList history = hospital.diseaseHistory;
+                for (int i = from; i < to; i++) {
+                    int id = history.diseaseIdAt(i);
+                    if (id == ids[0] || DiseaseDictionary.contains(ids, id)) acc.add(history.weekAt(i), history.countAt(i));
+                }
+            }
+
+            public TrendCube.Series combine(TrendCube.Series left, TrendCube.Series right) {
+                left.addAll(right);
+                return left;
+            }
+        });
+    }
+
+    /* For every week, how many hospitals have their overall peak of the disease there (earliest week with the most
+     * cases, every spelling added up, like PeakDetector). A hospital is never cut in two, its weekly totals are needed whole.*/
+    public TrendCube.Series peakWeekCounts(List<Hospital> hospitals, String disease) {
+        int[] ids = DiseaseDictionary.idsIgnoreCase(disease);
+        if (ids.length == 0) return new TrendCube.Series();
+        return run(hospitals, true, new Scan<TrendCube.Series>() {
+            public TrendCube.Series empty() {
+                return new TrendCube.Series();
+            }
+
+            public void add(TrendCube.Series acc, int index, Hospital hospital, int from, int to) {
+                DiseaseRecordLinkedList history = hospital.diseaseHistory;
+                TrendCube.Series weekly = new TrendCube.Series();
+                for (int i = from; i < to; i++) {
+                    int id = history.diseaseIdAt(i);
+                    if (id == ids[0] || DiseaseDictionary.contains(ids, id)) weekly.add(history.weekAt(i), history.countAt(i));
+                }
+                if (weekly.peakWeek() != -1) acc.add(weekly.peakWeek(), 1);
+            }
+
+            public TrendCube.Series combine(TrendCube.Series left, TrendCube.Series right) {
+                left.addAll(right);
+                return left;
+            }
+        });
+    }
+
+    // Weeks where at least minHospitals hospitals had their overall peak within +-within weeks (see PeakDetector)
+    public Map<Integer, Integer> synchronizedPeaks(List<Hospital> hospitals, String disease, int within, int minHospitals) {
+        if (within < 0) throw new IllegalArgumentException("within must not be negative");
+        return PeakDetector.weeksWithPeaks(peakWeekCounts(hospitals, disease), within, minHospitals);
+    }
+
+    // Number of records with min <= cases <= max, of one disease or of any (blank disease)
+    public long countInRange(List<Hospital> hospitals, String disease, int min, int max) {
+        int[] ids = disease.isEmpty() ? null : DiseaseDictionary.idsIgnoreCase(disease);
+        if (ids != null && ids.length == 0) return 0;
+        return run(hospitals, false, new Scan<long[]>() {
+            public long[] empty() {
+                return new long[1];
+            }
+
+            public void add(long[] acc, int index, Hospital hospital, int from, int to) {
+                DiseaseRecordLinkedList history = hospital.diseaseHistory;
+                long n = 0;
+                for (int i = from; i < to; i++) {
+                    int count = history.countAt(i);
+                    if (count < min || count > max) continue;
+                    if (ids == null || DiseaseDictionary.contains(ids, history.diseaseIdAt(i))) n++;
+                }
+                acc[0] += n;
+            }
+
+            public long[] combine(long[] left, long[] right) {
+                left[0] += right[0];
+                return left;
+            }
+        })[0];
+    }
+
+    /* The record with the most cases of every hospital (first one on ties, like getMaxCaseNode), at the same position
+     * as its hospital in the list; null for an empty history. This is what the severity tree holds per hospital.*/
+    public DiseaseRecordLinkedList.Node[] maxNodes(List<Hospital> hospitals) {
+        Hospital[] hs = hospitals.toArray(new Hospital[0]);
+        MaxRows best = run(Arrays.asList(hs), false, new Scan<MaxRows>() {
+            public MaxRows empty() {
+                return new MaxRows();
+            }
+
+            public void add(MaxRows acc, int index, Hospital hospital, int from, int to) {
+                DiseaseRecordLinkedList history = hospital.diseaseHistory;
+                int row = from;
+                for (int i = from + 1; i < to; i++) {
+                    if (history.countAt(i) > history.countAt(row)) row = i;
+                }
+                acc.offer(index, row, history.countAt(row));
+            }
+
+            public MaxRows combine(MaxRows left, MaxRows right) {
+                return MaxRows.combine(left, right);
+            }
+        });
+        DiseaseRecordLinkedList.Node[] nodes = new DiseaseRecordLinkedList.Node[hs.length];
+        for (int k = 0; k < best.size; k++) {
+            int index = best.first + k;
+            if (best.rows[k] >= 0) nodes[index] = new DiseaseRecordLinkedList.Node(hs[index].diseaseHistory.get(best.rows[k]), best.rows[k]);
+        }
+        return nodes;
+    }
+
+    // Best row so far of the hospitals first .. first + size - 1 (-1 = no row), a partial result of maxNodes
+    private static final class MaxRows {
+        int first = -1;
+        int size = 0;
+        int[] rows = new int[4];
+        int[] counts = new int[4];
+
+        // A candidate for a hospital; rows of one hospital arrive in order, so only a higher count replaces the best
+        void offer(int index, int row, int count) {
+            if (size == 0) first = index;
+            int k = index - first;
+            if (k < size) {
+                if (rows[k] < 0 || count > counts[k]) {
+                    rows[k] = row;
+                    counts[k] = count;
+                }
+                return;
+            }
+            if (k >= rows.length) {
+                rows = Arrays.copyOf(rows, Math.max(k + 1, rows.length * 2));
+                counts = Arrays.copyOf(counts, rows.length);
+            }
+            Arrays.fill(rows, size, k, -1); // hospitals skipped over have no rows here
+            rows[k] = row;
+            counts[k] = count;
+            size = k + 1;
+        }
+
+        // left covers rows before right, so at most one hospital (left's last, right's first) is in both
+        static MaxRows combine(MaxRows left, MaxRows right) {
+            if (right.size == 0) return left;
+            if (left.size == 0) return right;
+            for (int k = 0; k < right.size; k++) {
+                if (right.rows[k] >= 0) left.offer(right.first + k, right.rows[k], right.counts[k]);
+            }
+            return left;
+        }
+    }
+
+    // Run a scan over the hospitals' rows, in one piece or split across the pool
+    private <R> R run(List<Hospital> hospitals, boolean wholeHospitals, Scan<R> scan) {
+        Rows rows = new Rows(hospitals);
+        long total = rows.start[rows.hospitals.length];
+        if (pool == null || total <= LEAF_ROWS) return rows.scan(scan, 0, total);
+        return pool.invoke(new ScanTask<>(rows, scan, wholeHospitals, 0, total));
+    }
+
+    // Hospitals with the position of their first row in the concatenation of all their histories
+    private static final class Rows {
+        final Hospital[] hospitals;
+        final long[] start; // start[i] = rows of hospitals before i, start[n] = all rows
+
+        Rows(List<Hospital> list) {
+            hospitals = list.toArray(new Hospital[0]);
+            start = new long[hospitals.length + 1];
+            for (int i = 0; i < hospitals.length; i++) start[i + 1] = start[i] + hospitals[i].diseaseHistory.size();
+        }
+
+        // Hospital that holds row r (r < all rows): the last one starting at or before r
+        int hospitalAt(long r) {
+            int lo = 0, hi = hospitals.length - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (start[mid] <= r) lo = mid;
+                else hi = mid - 1;
+            }
+            return lo;
+        }
+
+        // Scan rows [from, to) as one piece
+        <R> R scan(Scan<R> scan, long from, long to) {
+            R acc = scan.empty();
+            if (from >= to) return acc;
+            for (int i = hospitalAt(from); i < hospitals.length && start[i] < to; i++) {
+                int a = (int) (Math.max(from, start[i]) - start[i]);
+                int b = (int) (Math.min(to, start[i + 1]) - start[i]);
+                if (a < b) scan.add(acc, i, hospitals[i], a, b);
+            }
+            return acc;
+        }
+    }
+
+    // Fork/join task: split the rows in half (at a hospital boundary if wholeHospitals), scan both, combine in order
+    private static final class ScanTask<R> extends RecursiveTask<R> {
+        private static final long serialVersionUID = 1L;
+
+        final Rows rows;
+        final Scan<R> scan;
+        final boolean wholeHospitals;
+        final long from, to;
+
+        ScanTask(Rows rows, Scan<R> scan, boolean wholeHospitals, long from, long to) {
+            this.rows = rows;
+            this.scan = scan;
+            this.wholeHospitals = wholeHospitals;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected R compute() {
+            if (to - from <= LEAF_ROWS) return rows.scan(scan, from, to);
+            long mid = (from + to) >>> 1;
+            if (wholeHospitals) {
+                int h = rows.hospitalAt(mid);
+                mid = rows.start[h] > from ? rows.start[h] : rows.start[h + 1];
+                if (mid >= to) return rows.scan(scan, from, to); // one hospital fills the whole range
+            }
+            ScanTask<R> left = new ScanTask<>(rows, scan, wholeHospitals, from, mid);
+            left.fork();
+            R right = new ScanTask<>(rows, scan, wholeHospitals, mid, to).compute();
+            return scan.combine(left.join(), right);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package model.disease;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/* Streaming peak detection for synchronized outbreaks, fed by TrendCube on every change of a (hospital, disease) series.
+ * Two kinds of peak are tracked per series:
+ *   - the overall peak: the earliest week with the highest total (maintained by the series itself),
+ *   - local peaks: weeks with more cases than every other week within +-2k weeks (earlier week wins ties),
+ *     where k is the window. Local peaks of one series are more than 2k weeks apart, so any +-k window
+ *     holds at most one of them per hospital.
+ * A disease is its DiseaseDictionary symbol: the series holds every spelling of the name, so spellings share a peak.
+ * For every disease two weekly counters hold how many hospitals have an overall / a local peak in each week.
+ * A change at week w can only affect local peaks within +-2k of w, so an update costs O(k), and
+ * "weeks where at least N hospitals peaked within +-k weeks" is a sliding sum over the counters: O(weeks),
+ * however many hospitals there are.
+ * Once weeks are rolled up (TrendCube.rollUp) only their buckets' peak weeks remain, so overall peaks still cover the
+ * whole history while local peaks are only found among the weeks kept at full resolution.
+ * Callers hold the hospital's lock; the per-disease counters are shared and synchronized.*/
+
+public class PeakDetector {
+    public static final int DEFAULT_WINDOW = 2;
+
+    // Weekly peak counts of one disease
+    private static class Counters {
+        final TrendCube.Series overall = new TrendCube.Series();
+        final TrendCube.Series local = new TrendCube.Series();
+    }
+
+    private volatile int window;
+    // disease symbol -> counters. Replaced by a bigger copy when a new disease appears.
+    private volatile Counters[] diseases = new Counters[0];
+
+    public PeakDetector(int window) {
+        if (window < 0) throw new IllegalArgumentException("peak window must not be negative");
+        this.window = window;
+    }
+
+    public int window() {
+        return window;
+    }
+
+    // Use a new window; TrendCube.setPeakWindow then rebuilds every series' local peaks
+    void setWindow(int window) {
+        if (window < 0) throw new IllegalArgumentException("peak window must not be negative");
+        this.window = window;
+    }
+
+    // delta cases were added to (or removed from, if negative) week of a hospital's series, whose overall peak was oldPeak
+    void cellChanged(int symbol, TrendCube.Series cell, int week, int delta, int oldPeak) {
+        Counters c = counters(symbol);
+        movePeak(c, oldPeak, cell.peakWeek());
+        int radius = 2 * window;
+        if (delta > 0) {
+            // only week itself can become a peak, and a peak around it stays one unless week now beats it
+            int t = cell.total(week);
+            boolean beaten = false; // week is a peak already, or lost to a peak that stays
+            for (int p = Math.max(week - radius, cell.firstWeek()), end = Math.min(week + radius, cell.lastWeek()); p <= end; p++) {
+                if (!cell.localPeak(p)) continue;
+                int pt = cell.total(p);
+                if (p != week && (t > pt || (t == pt && week < p))) setLocalPeak(c, cell, p, false);
+                else beaten = true;
+            }
+            if (!beaten && cell.beatsWithin(week, radius)) setLocalPeak(c, cell, week, true);
+        } else {
+            // a week went down (undo): it can lose its peak, any week around it can become one
+            for (int p = week - radius; p <= week + radius; p++) setLocalPeak(c, cell, p, cell.beatsWithin(p, radius));
+        }
+    }
+
+    // A series was filled or the window changed: recompute its local peaks from scratch
+    void cellRebuilt(int symbol, TrendCube.Series cell, int oldPeak) {
+        Counters c = counters(symbol);
+        movePeak(c, oldPeak, cell.peakWeek());
+        int radius = 2 * window;
+        for (int p = cell.firstWeek(); p <= cell.lastWeek(); p++) setLocalPeak(c, cell, p, cell.beatsWithin(p, radius));
+    }
+
+    // Weeks before cutoff of a series are about to be rolled up: local peaks are only kept at full resolution
+    void rollingUp(int symbol, TrendCube.Series cell, int cutoff) {
+        Counters c = counters(symbol);
+        for (int p = cell.firstWeek(), end = Math.min(cutoff - 1, cell.lastWeek()); p <= end; p++) setLocalPeak(c, cell, p, false);
+    }
+
+    // After a rollup: drop the counters' weeks before the first one that still has a peak (caller pauses writers)
+    void dropEmptyWeeks() {
+        for (Counters c : diseases) {
+            c.overall.dropLeadingEmptyWeeks();
+            c.local.dropLeadingEmptyWeeks();
+        }
+    }
+
+    /* Weeks where at least minHospitals hospitals had a peak within +-within weeks, with that number, in week order.
+     * disease is matched ignoring case. local selects local peaks instead of overall ones;
+     * for local peaks within may be at most the window, so that each hospital is counted once.*/
+    public Map<Integer, Integer> synchronizedWeeks(String disease, boolean local, int within, int minHospitals) {
+        if (within < 0) throw new IllegalArgumentException("within must not be negative");
+        if (local && within > window) throw new IllegalArgumentException("local peaks can be matched within at most +-" + window + " weeks");
+        TrendCube.Series counts = new TrendCube.Series();
+        int symbol = DiseaseDictionary.symbol(disease);
+        Counters[] table = diseases;
+        if (symbol >= 0 && symbol < table.length) {
+            synchronized (table[symbol]) { // copied, writers may still be counting
+                counts.addAll(local ? table[symbol].local : table[symbol].overall);
+            }
+        }
+        return weeksWithPeaks(counts, within, minHospitals);
+    }
+
+    // Weeks where the peak counts within +-within weeks add up to at least minHospitals, with that sum, in week order
+    static Map<Integer, Integer> weeksWithPeaks(TrendCube.Series counts, int within, int minHospitals) {
+        Map<Integer, Integer> weeks = new LinkedHashMap<>();
+        if (counts.isEmpty()) return weeks;
+        // sliding sum over [w - within, w + within]
+        int first = counts.firstWeek() - within, last = counts.lastWeek() + within;
+        int sum = 0; // weeks before first - within have no peaks
+        for (int w = first; w <= last; w++) {
+            sum += counts.total(w + within);
+            if (sum >= minHospitals && sum > 0) weeks.put(w, sum);
+            sum -= counts.total(w - within);
+        }
+        return weeks;
+    }
+
+    // Overall peak moved from oldPeak to newPeak (-1 = none)
+    private static void movePeak(Counters c, int oldPeak, int newPeak) {
+        if (oldPeak == newPeak) return;
+        synchronized (c) {
+            if (oldPeak != -1) c.overall.add(oldPeak, -1);
+            if (newPeak != -1) c.overall.add(newPeak, 1);
+        }
+    }
+
+    // Mark or unmark week p as a local peak of the series and update the disease's counter
+    private static void setLocalPeak(Counters c, TrendCube.Series cell, int p, boolean peak) {
+        if (peak == cell.localPeak(p)) return; // unchanged
+        cell.setLocalPeak(p, peak);
+        synchronized (c) {
+            c.local.add(p, peak ? 1 : -1);
+        }
+    }
+
+    // Counters for a disease symbol, growing the table under a lock the first time the symbol is seen
+    private Counters counters(int symbol) {
+        Counters[] table = diseases;
+        if (symbol < table.length) return table[symbol];
+        synchronized (this) {
+            table = diseases;
+            if (symbol >= table.length) {
+                int oldLength = table.length;
+                table = Arrays.copyOf(table, Math.max(symbol + 1, oldLength * 2));
+                for (int i = oldLength; i < table.length; i++) table[i] = new Counters();
+                diseases = table;
+            }
+            return table[symbol];
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package model.disease;
+
+/* How much history is kept at full resolution (see SystemEngine.setRetention).
+ * The newest week reported anywhere is the clock. Records of weeks before cutoff(newest week) leave the histories and
+ * the indexes; their weekly totals are rolled up into buckets of bucketWeeks weeks (13 = quarters, 4 = months) that keep
+ * each bucket's total and peak week, and at most maxBuckets buckets are kept per series, older ones are dropped.
+ * The cutoff moves in whole buckets, so between weeks and weeks + bucketWeeks - 1 weeks stay at full resolution
+ * and a rollup happens once every bucketWeeks weeks.*/
+
+public class RetentionPolicy {
+    public static final int DEFAULT_BUCKET_WEEKS = 13;
+    public static final int DEFAULT_BUCKETS = 40;
+
+    public final int weeks;       // newest weeks always kept at full resolution
+    public final int bucketWeeks; // weeks per rolled-up bucket
+    public final int maxBuckets;  // rolled-up buckets kept per series
+
+    public RetentionPolicy(int weeks, int bucketWeeks, int maxBuckets) {
+        if (weeks < 1) throw new IllegalArgumentException("retention must keep at least 1 week");
+        if (bucketWeeks < 1) throw new IllegalArgumentException("buckets must span at least 1 week");
+        if (maxBuckets < 0) throw new IllegalArgumentException("bucket count must not be negative");
+        this.weeks = weeks;
+        this.bucketWeeks = bucketWeeks;
+        this.maxBuckets = maxBuckets;
+    }
+
+    // "weeks[:bucketWeeks[:buckets]]", e.g. "104" (two years, then quarters) or "52:4:120" (a year, then 120 months)
+    public static RetentionPolicy parse(String spec) {
+        String[] parts = spec.split(":");
+        if (parts.length > 3) throw new IllegalArgumentException("expected weeks[:bucketWeeks[:buckets]]: " + spec);
+        int weeks = Integer.parseInt(parts[0].trim());
+        int bucketWeeks = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : DEFAULT_BUCKET_WEEKS;
+        int buckets = parts.length > 2 ? Integer.parseInt(parts[2].trim()) : DEFAULT_BUCKETS;
+        return new RetentionPolicy(weeks, bucketWeeks, buckets);
+    }
+
+    // First week kept at full resolution once newestWeek has been reported (a bucket boundary)
+    public int cutoff(int newestWeek) {
+        return Math.floorDiv(newestWeek - weeks + 1, bucketWeeks) * bucketWeeks;
+    }
+
+    @Override
+    public String toString() {
+        return weeks + " weeks, then " + maxBuckets + " buckets of " + bucketWeeks + " weeks";
+    }
+}
@@ -0,0 +1,588 @@
+package model.disease;
+
+import model.hospital.Hospital;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/* Pre-aggregated weekly case totals keyed by (disease, hospital, week), plus regional and national totals per disease.
+ * A disease is its DiseaseDictionary symbol, so every spelling of a name (any case) adds to the same series.
+ * Totals live in dense int arrays indexed by week and are updated on every record add and undo,
+ * so a trend read is O(weeks) and never boxes a week or a count.
+ * Writers for different hospitals may run at the same time (see the field comments for what guards what).*/
+
+public class TrendCube {
+    // Weekly totals for one disease at one hospital (or a rollup over several hospitals)
+    public static class Series {
+        private int base;            // week number stored at totals[0]
+        private int[] totals;        // totals[w - base] = cases in week w
+        private int weeksWithCases;  // number of non-zero cells
+        private int peakWeek = -1;   // earliest week with the highest total, kept up to date by add()
+        private int peakTotal = 0;
+        private byte[] localPeaks;   // PeakDetector: localPeaks[w - base] is 1 if week w is a local peak, null until used
+        // Weeks before fullFrom are rolled up (see rollUp): a ring of buckets of bucketWeeks weeks, each with its total
+        // and its peak week, oldest at slot head. Bucket number b covers weeks b * bucketWeeks .. (b + 1) * bucketWeeks - 1.
+        private int fullFrom = Integer.MIN_VALUE;
+        private int bucketWeeks;     // 0 until the first rollup
+        private int firstBucket;     // bucket number of the oldest bucket kept
+        private int buckets;         // buckets kept
+        private int head;
+        private int[] bucketTotals, bucketPeakWeeks, bucketPeakTotals;
+
+        // Add delta cases to a week, growing the array to the left or right as needed
+        void add(int week, int delta) {
+            if (totals == null) {
+                base = week;
+                totals = new int[8];
+            } else if (week < base) {
+                int shift = Math.max(base - week, totals.length / 2);
+                int[] grown = new int[totals.length + shift];
+                System.arraycopy(totals, 0, grown, shift, totals.length);
+                if (localPeaks != null) {
+                    byte[] flags = new byte[grown.length];
+                    System.arraycopy(localPeaks, 0, flags, shift, localPeaks.length);
+                    localPeaks = flags;
+                }
+                totals = grown;
+                base -= shift;
+            } else if (week - base >= totals.length) {
+                totals = Arrays.copyOf(totals, Math.max(week - base + 1, totals.length * 2));
+                if (localPeaks != null) localPeaks = Arrays.copyOf(localPeaks, totals.length);
+            }
+            int before = totals[week - base];
+            int after = before + delta;
+            totals[week - base] = after;
+            if (before == 0 && delta != 0) weeksWithCases++;
+            else if (before != 0 && after == 0) weeksWithCases--;
+            if (delta > 0 && (after > peakTotal || (after == peakTotal && week < peakWeek))) {
+                peakWeek = week;
+                peakTotal = after;
+            } else if (delta < 0 && week == peakWeek) {
+                rescanPeak(); // the peak went down (undo), another week may be higher now
+            }
+        }
+
+        private void rescanPeak() {
+            peakWeek = -1;
+            peakTotal = 0;
+            for (int i = 0; i < buckets; i++) { // rolled-up weeks come first, a later week only wins with more cases
+                int slot = (head + i) % bucketTotals.length;
+                if (bucketPeakTotals[slot] > peakTotal) {
+                    peakTotal = bucketPeakTotals[slot];
+                    peakWeek = bucketPeakWeeks[slot];
+                }
+            }
+            for (int i = 0; totals != null && i < totals.length; i++) {
+                if (totals[i] > peakTotal) {
+                    peakTotal = totals[i];
+                    peakWeek = base + i;
+                }
+            }
+        }
+
+        // Whether a week has cases and beats every week within +-radius (earlier weeks win ties)
+        boolean beatsWithin(int week, int radius) {
+            int i = week - base;
+            if (totals == null || i < 0 || i >= totals.length || totals[i] <= 0) return false;
+            int t = totals[i];
+            for (int x = Math.max(0, i - radius); x < i; x++) {
+                if (totals[x] >= t) return false;
+            }
+            for (int x = i + 1, end = Math.min(totals.length - 1, i + radius); x <= end; x++) {
+                if (totals[x] > t) return false;
+            }
+            return true;
+        }
+
+        // Whether a week is marked as a local peak (PeakDetector)
+        boolean localPeak(int week) {
+            return localPeaks != null && week >= base && week - base < localPeaks.length && localPeaks[week - base] != 0;
+        }
+
+        // Mark or unmark a week as a local peak; only weeks with cases are ever marked
+        void setLocalPeak(int week, boolean peak) {
+            if (localPeaks == null) {
+                if (!peak) return;
+                localPeaks = new byte[totals.length];
+            }
+            localPeaks[week - base] = (byte) (peak ? 1 : 0);
+        }
+
+        /* Add every week of another series into this one. Rolled-up buckets are added bucket by bucket: totals are exact,
+         * the peak of a merged bucket is the higher of the two peaks (the weekly sums it would need are gone).*/
+        void addAll(Series other) {
+            for (int i = 0; i < other.buckets; i++) {
+                int slot = (other.head + i) % other.bucketTotals.length;
+                if (other.bucketTotals[slot] == 0) continue;
+                if (bucketWeeks == 0) bucketWeeks = other.bucketWeeks;
+                fullFrom = Math.max(fullFrom, other.fullFrom);
+                int week = (other.firstBucket + i) * other.bucketWeeks;
+                addToBucket(week, other.bucketTotals[slot], other.bucketPeakWeeks[slot], other.bucketPeakTotals[slot]);
+            }
+            if (other.totals == null) return;
+            for (int i = 0; i < other.totals.length; i++) {
+                if (other.totals[i] != 0) add(other.base + i, other.totals[i]);
+            }
+        }
+
+        /* Roll every week before cutoff up into buckets of bucketWeeks weeks (a series rolled up before keeps its own
+         * bucket size) and drop those weeks, then drop the oldest buckets beyond maxBuckets. Weeks from cutoff on stay
+         * at full resolution. Totals and the overall peak are unchanged unless a dropped bucket held the peak.
+         * Rolled-up weeks are never changed afterwards (SystemEngine refuses records for them).*/
+        void rollUp(int cutoff, int bucketWeeks, int maxBuckets) {
+            if (this.bucketWeeks == 0) this.bucketWeeks = bucketWeeks;
+            for (int w = firstWeek(), end = Math.min(cutoff - 1, lastWeek()); totals != null && w <= end; w++) {
+                int t = totals[w - base];
+                if (t != 0) addToBucket(w, t, w, t);
+            }
+            dropBefore(cutoff);
+            fullFrom = Math.max(fullFrom, cutoff);
+            boolean peakDropped = false;
+            while (buckets > maxBuckets || (buckets > 0 && bucketTotals[head] == 0)) { // oldest first, and no empty ones in front
+                int slot = head;
+                peakDropped |= bucketPeakTotals[slot] > 0 && bucketPeakWeeks[slot] == peakWeek;
+                bucketTotals[slot] = bucketPeakWeeks[slot] = bucketPeakTotals[slot] = 0;
+                head = (head + 1) % bucketTotals.length;
+                firstBucket++;
+                buckets--;
+            }
+            if (peakDropped) rescanPeak();
+        }
+
+        // Add total cases, whose highest week was peakWeek with peakTotal, to the bucket holding week
+        private void addToBucket(int week, int total, int peakWeek, int peakTotal) {
+            int slot = bucketSlot(Math.floorDiv(week, bucketWeeks));
+            bucketTotals[slot] += total;
+            if (peakTotal > bucketPeakTotals[slot] || (peakTotal == bucketPeakTotals[slot] && peakWeek < bucketPeakWeeks[slot])) {
+                bucketPeakWeeks[slot] = peakWeek;
+                bucketPeakTotals[slot] = peakTotal;
+            }
+            if (peakTotal > this.peakTotal || (peakTotal > 0 && peakTotal == this.peakTotal && peakWeek < this.peakWeek)) {
+                this.peakWeek = peakWeek;
+                this.peakTotal = peakTotal;
+            }
+        }
+
+        // Slot of a bucket number, adding empty buckets in front or behind the kept ones as needed
+        private int bucketSlot(int bucket) {
+            if (buckets == 0) {
+                if (bucketTotals == null) {
+                    bucketTotals = new int[4];
+                    bucketPeakWeeks = new int[4];
+                    bucketPeakTotals = new int[4];
+                }
+                firstBucket = bucket;
+                head = 0;
+                buckets = 1;
+                return 0;
+            }
+            int from = Math.min(firstBucket, bucket), to = Math.max(firstBucket + buckets, bucket + 1);
+            if (to - from > bucketTotals.length) {
+                // copy oldest first into bigger arrays, starting at from
+                int capacity = Math.max(to - from, bucketTotals.length * 2);
+                int[] t = new int[capacity], pw = new int[capacity], pt = new int[capacity];
+                for (int i = 0; i < buckets; i++) {
+                    int slot = (head + i) % bucketTotals.length;
+                    t[firstBucket - from + i] = bucketTotals[slot];
+                    pw[firstBucket - from + i] = bucketPeakWeeks[slot];
+                    pt[firstBucket - from + i] = bucketPeakTotals[slot];
+                }
+                bucketTotals = t;
+                bucketPeakWeeks = pw;
+                bucketPeakTotals = pt;
+                head = 0;
+            } else if (bucket < firstBucket) {
+                head = Math.floorMod(head - (firstBucket - bucket), bucketTotals.length); // free slots behind the head
+            }
+            firstBucket = from;
+            buckets = to - from;
+            return (head + bucket - firstBucket) % bucketTotals.length;
+        }
+
+        // Drop the weekly totals (and local peak marks) of every week before the given one, keeping the arrays' size
+        void dropBefore(int week) {
+            if (totals == null || week <= base) return;
+            int drop = Math.min(week - base, totals.length);
+            for (int i = 0; i < drop; i++) {
+                if (totals[i] != 0) weeksWithCases--;
+            }
+            System.arraycopy(totals, drop, totals, 0, totals.length - drop);
+            Arrays.fill(totals, totals.length - drop, totals.length, 0);
+            if (localPeaks != null) {
+                System.arraycopy(localPeaks, drop, localPeaks, 0, localPeaks.length - drop);
+                Arrays.fill(localPeaks, localPeaks.length - drop, localPeaks.length, (byte) 0);
+            }
+            base = week;
+        }
+
+        // Drop the weeks before the first one with cases (e.g. counters whose early weeks went back to 0)
+        void dropLeadingEmptyWeeks() {
+            if (totals == null) return;
+            int i = 0;
+            while (i < totals.length && totals[i] == 0) i++;
+            if (i == totals.length) { // nothing left, the next add starts over
+                totals = null;
+                localPeaks = null;
+            }
+            else dropBefore(base + i);
+        }
+
+        public boolean isEmpty() {
+            return weeksWithCases == 0 && buckets == 0;
+        }
+
+        // First week still at full resolution: weeks before it are only in the rolled-up buckets (MIN_VALUE if none are)
+        public int rolledUpBefore() {
+            return fullFrom;
+        }
+
+        // Number of rolled-up buckets, oldest first; bucket i covers bucketFirstWeek(i) .. bucketFirstWeek(i) + bucketWeeks() - 1
+        public int rolledUpBuckets() {
+            return buckets;
+        }
+
+        public int bucketWeeks() {
+            return bucketWeeks;
+        }
+
+        public int bucketFirstWeek(int i) {
+            return (firstBucket + i) * bucketWeeks;
+        }
+
+        // Cases in the weeks of bucket i
+        public int bucketTotal(int i) {
+            return bucketTotals[(head + i) % bucketTotals.length];
+        }
+
+        // Week of bucket i with the most cases (earliest one on ties) and its total; 0 cases if the bucket is empty
+        public int bucketPeakWeek(int i) {
+            return bucketPeakWeeks[(head + i) % bucketTotals.length];
+        }
+
+        public int bucketPeakTotal(int i) {
+            return bucketPeakTotals[(head + i) % bucketTotals.length];
+        }
+
+        // Cases a week still counts with where single weeks are ranked: its total at full resolution, its bucket's peak
+        // total if it is that bucket's peak week, otherwise 0
+        int rankedTotal(int week) {
+            if (week >= fullFrom) return total(week);
+            int i = Math.floorDiv(week, bucketWeeks) - firstBucket;
+            if (i < 0 || i >= buckets || bucketPeakWeek(i) != week) return 0;
+            return bucketPeakTotal(i);
+        }
+
+        // First and last week that may hold cases (weeks in between can be 0)
+        public int firstWeek() {
+            return totals == null ? 0 : base;
+        }
+
+        public int lastWeek() {
+            return totals == null ? -1 : base + totals.length - 1;
+        }
+
+        // Cases in one week (0 if nothing was reported)
+        public int total(int week) {
+            if (totals == null || week < base || week - base >= totals.length) return 0;
+            return totals[week - base];
+        }
+
+        // Week with the most cases (earliest one on ties), -1 if empty. O(1), maintained on every change.
+        public int peakWeek() {
+            return peakWeek;
+        }
+    }
+
+    private static final Series EMPTY = new Series();
+
+    private final PeakDetector peaks; // told about every per-hospital change, null if peaks are not tracked
+    private final Leaderboard top;    // highest cells, told about every per-hospital change, null if not kept
+
+    public TrendCube() {
+        this(null);
+    }
+
+    public TrendCube(PeakDetector peaks) {
+        this(peaks, 0);
+    }
+
+    // topSize > 0 also keeps leaderboards of the topSize highest (hospital, disease, week) cells
+    public TrendCube(PeakDetector peaks, int topSize) {
+        this.peaks = peaks;
+        this.top = topSize > 0 ? new Leaderboard(this, topSize) : null;
+    }
+
+    // Maintained top cells, null if this cube was created without them
+    public Leaderboard leaderboard() {
+        return top;
+    }
+
+    // hospital -> disease symbol -> series. A hospital's array is only changed while that hospital's lock is held.
+    private final Map<Hospital, Series[]> byHospital = new ConcurrentHashMap<>();
+    // disease symbol -> totals over all hospitals. Replaced by a bigger copy when a new disease appears,
+    // each series is updated under its own monitor because every hospital writes to it.
+    private volatile Series[] national = new Series[0];
+    // region id (Hospital.regionId) -> disease symbol -> totals over the region's hospitals. Grown under this object's lock,
+    // each series is updated under its own monitor like the national ones.
+    private volatile Series[][] regional = new Series[0][];
+
+    // A record was added (caller holds the hospital's lock)
+    public void recordAdded(Hospital hospital, int diseaseId, int week, int count) {
+        int symbol = DiseaseDictionary.symbolOf(diseaseId);
+        Series cell = cell(hospital, symbol);
+        int oldPeak = cell.peakWeek;
+        cell.add(week, count);
+        if (peaks != null) peaks.cellChanged(symbol, cell, week, count, oldPeak);
+        if (top != null) top.cellChanged(hospital, symbol, week, cell.total(week), false);
+        if (hospital.regionId >= 0) {
+            Series region = regional(hospital.regionId, symbol);
+            synchronized (region) {
+                region.add(week, count);
+            }
+        }
+        Series total = national(symbol);
+        synchronized (total) {
+            total.add(week, count);
+        }
+    }
+
+    // A record was removed (caller holds the hospital's lock)
+    public void recordRemoved(Hospital hospital, int diseaseId, int week, int count) {
+        int symbol = DiseaseDictionary.symbolOf(diseaseId);
+        Series cell = cell(hospital, symbol);
+        int oldPeak = cell.peakWeek;
+        cell.add(week, -count);
+        if (peaks != null) peaks.cellChanged(symbol, cell, week, -count, oldPeak);
+        if (top != null) top.cellChanged(hospital, symbol, week, cell.total(week), true);
+        if (hospital.regionId >= 0) {
+            Series region = regional(hospital.regionId, symbol);
+            synchronized (region) {
+                region.add(week, -count);
+            }
+        }
+        Series total = national(symbol);
+        synchronized (total) {
+            total.add(week, -count);
+        }
+    }
+
+    /* A mapped archive became the hospital's (empty) history: one sequential pass over its week and count columns.
+     * Spellings of the same disease fill one series, which is passed on once all of them are in.*/
+    public void archiveAttached(Hospital hospital, HistoryArchive.Mapped archive) {
+        int[] filled = new int[archive.rangeDisease.length]; // symbols, in the order first seen
+        int n = 0;
+        for (int r = 0; r < archive.rangeDisease.length; r++) {
+            int symbol = DiseaseDictionary.symbolOf(archive.rangeDisease[r]);
+            Series cell = cell(hospital, symbol);
+            if (cell.isEmpty() && !contains(filled, n, symbol)) filled[n++] = symbol;
+            for (int i = archive.rangeFrom[r]; i < archive.rangeTo[r]; i++) cell.add(archive.weeks.get(i), archive.counts.get(i));
+        }
+        for (int k = 0; k < n; k++) {
+            int symbol = filled[k];
+            Series cell = cell(hospital, symbol);
+            if (peaks != null) peaks.cellRebuilt(symbol, cell, -1); // the history was empty, so there was no peak
+            if (top != null) {
+                for (int w = cell.firstWeek(); w <= cell.lastWeek(); w++) {
+                    if (cell.total(w) > 0) top.cellChanged(hospital, symbol, w, cell.total(w), false);
+                }
+            }
+            if (hospital.regionId >= 0) {
+                Series region = regional(hospital.regionId, symbol);
+                synchronized (region) {
+                    region.addAll(cell);
+                }
+            }
+            Series total = national(symbol);
+            synchronized (total) {
+                total.addAll(cell);
+            }
+        }
+    }
+
+    private static boolean contains(int[] values, int n, int value) {
+        for (int i = 0; i < n; i++) {
+            if (values[i] == value) return true;
+        }
+        return false;
+    }
+
+    // Change the peak detector's window and recompute every hospital's local peaks (caller pauses all writers)
+    public void setPeakWindow(int window) {
+        if (peaks == null) return;
+        peaks.setWindow(window);
+        for (Series[] diseases : byHospital.values()) {
+            for (int symbol = 0; symbol < diseases.length; symbol++) {
+                if (diseases[symbol] != null) peaks.cellRebuilt(symbol, diseases[symbol], diseases[symbol].peakWeek);
+            }
+        }
+    }
+
+    /* Roll every week before cutoff up into buckets, in every series: each hospital's (telling the peak detector and
+     * the leaderboards which weeks stopped counting on their own), each region's and the national ones.
+     * Caller pauses all writers.*/
+    public void rollUp(int cutoff, int bucketWeeks, int maxBuckets) {
+        for (Map.Entry<Hospital, Series[]> e : byHospital.entrySet()) {
+            Series[] diseases = e.getValue();
+            for (int symbol = 0; symbol < diseases.length; symbol++) {
+                if (diseases[symbol] != null) rollUp(e.getKey(), symbol, diseases[symbol], cutoff, bucketWeeks, maxBuckets);
+            }
+        }
+        for (Series[] diseases : regional) {
+            for (int symbol = 0; diseases != null && symbol < diseases.length; symbol++) diseases[symbol].rollUp(cutoff, bucketWeeks, maxBuckets);
+        }
+        for (Series s : national) s.rollUp(cutoff, bucketWeeks, maxBuckets);
+        if (peaks != null) peaks.dropEmptyWeeks();
+    }
+
+    private void rollUp(Hospital hospital, int symbol, Series cell, int cutoff, int bucketWeeks, int maxBuckets) {
+        int oldPeak = cell.peakWeek;
+        int[] ranked = null; // weeks a leaderboard may hold: full-resolution weeks that get rolled up and the bucket peaks
+        int n = 0;
+        if (top != null) {
+            ranked = new int[Math.max(0, Math.min(cutoff - 1, cell.lastWeek()) - cell.firstWeek() + 1) + cell.buckets];
+            for (int w = cell.firstWeek(); w < cutoff && w <= cell.lastWeek(); w++) {
+                if (cell.total(w) != 0) ranked[n++] = w;
+            }
+            for (int i = 0; i < cell.buckets; i++) ranked[n++] = cell.bucketPeakWeek(i);
+        }
+        int[] before = new int[n];
+        for (int i = 0; i < n; i++) before[i] = cell.rankedTotal(ranked[i]);
+        if (peaks != null) peaks.rollingUp(symbol, cell, cutoff);
+        cell.rollUp(cutoff, bucketWeeks, maxBuckets);
+        for (int i = 0; i < n; i++) {
+            int after = cell.rankedTotal(ranked[i]);
+            if (after != before[i]) top.cellChanged(hospital, symbol, ranked[i], after, true);
+        }
+        if (peaks != null) peaks.cellRebuilt(symbol, cell, oldPeak);
+    }
+
+    // Put back a hospital's rolled-up buckets (loading a snapshot, after its full-resolution records were added)
+    public void restoreRollup(Hospital hospital, int diseaseId, int fullFrom, int bucketWeeks, int firstBucket,
+                              int[] totals, int[] peakWeeks, int[] peakTotals) {
+        int symbol = DiseaseDictionary.symbolOf(diseaseId);
+        Series cell = cell(hospital, symbol);
+        int oldPeak = cell.peakWeek;
+        restore(cell, fullFrom, bucketWeeks, firstBucket, totals, peakWeeks, peakTotals);
+        if (peaks != null) peaks.cellRebuilt(symbol, cell, oldPeak);
+        if (top != null) {
+            for (int i = 0; i < cell.buckets; i++) {
+                if (cell.bucketPeakTotal(i) > 0) top.cellChanged(hospital, symbol, cell.bucketPeakWeek(i), cell.bucketPeakTotal(i), false);
+            }
+        }
+    }
+
+    // Same for a region's (regionId >= 0) or the national (-1) series of a disease
+    public void restoreRollup(int regionId, int diseaseId, int fullFrom, int bucketWeeks, int firstBucket,
+                              int[] totals, int[] peakWeeks, int[] peakTotals) {
+        int symbol = DiseaseDictionary.symbolOf(diseaseId);
+        Series s = regionId >= 0 ? regional(regionId, symbol) : national(symbol);
+        restore(s, fullFrom, bucketWeeks, firstBucket, totals, peakWeeks, peakTotals);
+    }
+
+    private static void restore(Series s, int fullFrom, int bucketWeeks, int firstBucket, int[] totals, int[] peakWeeks, int[] peakTotals) {
+        s.bucketWeeks = bucketWeeks;
+        for (int i = 0; i < totals.length; i++) s.addToBucket((firstBucket + i) * bucketWeeks, totals[i], peakWeeks[i], peakTotals[i]);
+        s.fullFrom = Math.max(s.fullFrom, fullFrom);
+    }
+
+    // Every hospital's series by disease symbol, for rebuilding derived structures (caller pauses writers)
+    Map<Hospital, Series[]> cells() {
+        return byHospital;
+    }
+
+    // Series for a disease symbol and hospital, created on first use
+    private Series cell(Hospital hospital, int symbol) {
+        Series[] diseases = byHospital.get(hospital);
+        if (diseases == null || symbol >= diseases.length) {
+            int size = Math.max(symbol + 1, diseases == null ? 8 : diseases.length * 2);
+            diseases = diseases == null ? new Series[size] : Arrays.copyOf(diseases, size);
+            byHospital.put(hospital, diseases);
+        }
+        if (diseases[symbol] == null) diseases[symbol] = new Series();
+        return diseases[symbol];
+    }
+
+    // National series for a disease symbol, growing the table under a lock the first time the symbol is seen
+    private Series national(int symbol) {
+        Series[] table = national;
+        if (symbol < table.length) return table[symbol];
+        synchronized (this) {
+            table = national;
+            if (symbol >= table.length) {
+                int oldLength = table.length;
+                table = Arrays.copyOf(table, Math.max(symbol + 1, oldLength * 2));
+                for (int i = oldLength; i < table.length; i++) table[i] = new Series();
+                national = table;
+            }
+            return table[symbol];
+        }
+    }
+
+    // Series for a region and disease symbol, growing the tables under a lock the first time either one is seen
+    private Series regional(int regionId, int symbol) {
+        Series[][] table = regional;
+        if (regionId < table.length) {
+            Series[] diseases = table[regionId];
+            if (diseases != null && symbol < diseases.length) return diseases[symbol];
+        }
+        synchronized (this) {
+            table = regional;
+            if (regionId >= table.length) table = Arrays.copyOf(table, Math.max(regionId + 1, table.length * 2));
+            Series[] diseases = table[regionId];
+            if (diseases == null || symbol >= diseases.length) {
+                int oldLength = diseases == null ? 0 : diseases.length;
+                diseases = diseases == null ? new Series[Math.max(symbol + 1, 8)] : Arrays.copyOf(diseases, Math.max(symbol + 1, oldLength * 2));
+                for (int i = oldLength; i < diseases.length; i++) diseases[i] = new Series();
+                table[regionId] = diseases; // the old row's series are kept, so no update is lost
+            }
+            regional = table;
+            return diseases[symbol];
+        }
+    }
+
+    // Weekly totals of one disease (name matched ignoring case) at one hospital. Read only.
+    public Series trend(Hospital hospital, String disease) {
+        Series s = series(hospital, DiseaseDictionary.symbol(disease));
+        return s == null ? EMPTY : s;
+    }
+
+    // Maintained series of one disease symbol at one hospital, null if it has none (snapshots). Read only.
+    public Series series(Hospital hospital, int symbol) {
+        Series[] diseases = byHospital.get(hospital);
+        return diseases == null || symbol < 0 || symbol >= diseases.length ? null : diseases[symbol];
+    }
+
+    // Maintained series of one disease symbol over a region (regionId >= 0) or nationally (-1), null if none. Read only.
+    public Series series(int regionId, int symbol) {
+        if (symbol < 0) return null;
+        if (regionId < 0) {
+            Series[] table = national;
+            return symbol < table.length ? table[symbol] : null;
+        }
+        Series[][] table = regional;
+        Series[] diseases = regionId < table.length ? table[regionId] : null;
+        return diseases == null || symbol >= diseases.length ? null : diseases[symbol];
+    }
+
+    // Weekly totals of one disease over every hospital. Read only.
+    public Series nationalTrend(String disease) {
+        Series s = series(-1, DiseaseDictionary.symbol(disease));
+        return s == null ? EMPTY : s;
+    }
+
+    // Weekly totals of one disease over the hospitals of a region (Hospital.regionId), maintained like the national ones. Read only.
+    public Series regionTrend(int regionId, String disease) {
+        if (regionId < 0) return EMPTY;
+        Series s = series(regionId, DiseaseDictionary.symbol(disease));
+        return s == null ? EMPTY : s;
+    }
+
+    // Weekly totals of one disease summed over the given hospitals (any group, computed on each call)
+    public Series rollup(List<Hospital> hospitals, String disease) {
+        Series merged = new Series();
+        for (Hospital h : hospitals) merged.addAll(trend(h, disease));
+        return merged;
+    }
+}
@@ -2,10 +2,15 @@ package model.hospital;
 
 import model.disease.DiseaseRecordLinkedList;
 
+import java.util.concurrent.locks.ReentrantLock;
+
 //Represents a hospital with its name, region, and disease records history.
 public class Hospital {
+    public int id = -1;  // position in the HospitalManager registry (set when registered)
     public String name;  // hospital identifier/name
     public String region; // region or area the hospital belongs to
+    public int regionId = -1; // id in the RegionRegistry (set when registered)
+    public final ReentrantLock lock = new ReentrantLock(); // stripe lock: held while this hospital's history and index entries change
     public DiseaseRecordLinkedList diseaseHistory = new DiseaseRecordLinkedList(); // list of disease records for this hospital
 
     // Constructor
@@ -1,32 +1,73 @@
 package model.hospital;
 
+import util.AppendOnlyList;
+import util.SymbolTable;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
 // Manages a collection of Hospital objects.
+// Hospitals are kept in a growable list; names go through a case-insensitive symbol table, so a hospital's id is its
+// name's symbol. Regions come from a RegionRegistry (which may be shared), each region lists its own hospitals.
+// Lookups are safe while other threads ingest records or add hospitals, iteration works on a snapshot.
 public class HospitalManager {
-    private Hospital[] hospitals = new Hospital[100]; // array to hold hospitals
-    private int count = 0; // how many hospitals are currently stored
+    private final AppendOnlyList<Hospital> hospitals = new AppendOnlyList<>(); // hospitals in insertion order, index = id
+    private final SymbolTable names = new SymbolTable();   // hospital name -> id
+    private final RegionRegistry regions; // region name -> region and its hospitals
+
+    public HospitalManager() {
+        this(new RegionRegistry());
+    }
+
+    public HospitalManager(RegionRegistry regions) {
+        this.regions = regions;
+    }
+
+    //Add a new hospital, returns false if one with that name already exists
+    public boolean addHospital(String name, String region) {
+        return addHospital(name, region, null);
+    }
 
-    //Add a new hospital
-    public void addHospital(String name, String region) {
-        if (getHospitalByName(name) != null) return; // avoid duplicates by name
-        if (count >= hospitals.length) {
-            System.out.println("Max hospitals reached."); // no space left
-            return;
-        }
-        hospitals[count++] = new Hospital(name, region); // add hospital and increment count
+    // Same, and run onAdded with the new hospital before the lock is released, so hospitals are handed to it in id order
+    public synchronized boolean addHospital(String name, String region, Consumer<Hospital> onAdded) {
+        int id = names.idOf(name);
+        if (id < hospitals.size()) return false; // avoid duplicates by name
+        Hospital hospital = new Hospital(name, region);
+        hospital.id = id; // names are only added here, so the new symbol is the next position
+        Region r = regions.region(region);
+        hospital.regionId = r.id;
+        r.hospitals.add(hospital);
+        hospitals.add(hospital);
+        if (onAdded != null) onAdded.accept(hospital);
+        return true;
     }
 
     //Find a hospital by its name
     public Hospital getHospitalByName(String name) {
-        for (int i = 0; i < count; i++) {
-            if (hospitals[i].name.equalsIgnoreCase(name)) return hospitals[i];
-        }
-        return null; // no match found
+        int id = names.find(name);
+        List<Hospital> list = hospitals.snapshot();
+        return id >= 0 && id < list.size() ? list.get(id) : null; // null when no match found
+    }
+
+    // Return all hospitals of one region (empty list if the region is unknown)
+    public List<Hospital> getHospitalsInRegion(String region) {
+        Region r = regions.find(region);
+        return r != null ? r.hospitals() : Collections.emptyList();
+    }
+
+    // Registry the hospitals' regions come from
+    public RegionRegistry regions() {
+        return regions;
+    }
+
+    // Return a read-only snapshot of all hospitals currently stored (no copy is made).
+    public List<Hospital> getAllHospitals() {
+        return hospitals.snapshot();
     }
 
-    // Return an array containing all hospitals currently stored.
-    public Hospital[] getAllHospitals() {
-        Hospital[] active = new Hospital[count];
-        System.arraycopy(hospitals, 0, active, 0, count);
-        return active;
+    // Number of hospitals stored
+    public int size() {
+        return hospitals.size();
     }
 }
@@ -0,0 +1,23 @@
+package model.hospital;
+
+import util.AppendOnlyList;
+
+import java.util.List;
+
+// A region (e.g. "Western"): its id in the RegionRegistry, its name and the hospitals registered in it.
+// The id is dense (0, 1, 2, ...), so structures keyed by region (outbreak queues, regional trend totals) are arrays.
+public class Region {
+    public final int id;
+    public final String name; // first spelling seen
+    final AppendOnlyList<Hospital> hospitals = new AppendOnlyList<>(); // in registration order, iterated on a snapshot
+
+    Region(int id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    // Hospitals of this region (read-only snapshot, no copy is made)
+    public List<Hospital> hospitals() {
+        return hospitals.snapshot();
+    }
+}
@@ -0,0 +1,49 @@
+package model.hospital;
+
+import util.SymbolTable;
+
+import java.util.Arrays;
+
+// Registry of regions, shared by the HospitalManager and the OutbreakQueueManager so that a region has the same id
+// everywhere. Names are matched ignoring case through a SymbolTable, so a lookup hashes once and never copies the name.
+// Lookups are lock-free, adding a region takes a lock.
+public class RegionRegistry {
+    private final SymbolTable names = new SymbolTable(); // region name -> id
+    private volatile Region[] regions = new Region[8];   // id -> region
+    private volatile int count = 0;
+
+    // Region with this name, created the first time it is seen
+    public Region region(String name) {
+        Region region = find(name);
+        return region != null ? region : add(name);
+    }
+
+    // Region with this name (any case), null if it is unknown
+    public Region find(String name) {
+        int id = names.find(name);
+        return id >= 0 ? get(id) : null;
+    }
+
+    // Region with this id, null if there is none (yet)
+    public Region get(int id) {
+        Region[] table = regions;
+        return id >= 0 && id < table.length ? table[id] : null;
+    }
+
+    // Number of regions; ids run from 0 to size() - 1
+    public int size() {
+        return count;
+    }
+
+    // The region is stored under its id before the count is raised
+    private synchronized Region add(String name) {
+        int id = names.idOf(name); // only added here, so a new id is the next one
+        Region[] table = regions;
+        if (id < count) return table[id]; // added by another thread first
+        if (id == table.length) table = Arrays.copyOf(table, id * 2);
+        table[id] = new Region(id, names.nameOf(id));
+        regions = table;
+        count = id + 1;
+        return table[id];
+    }
+}
@@ -0,0 +1,156 @@
+package model.outbreak;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/* Consumer side of the outbreak queues: worker threads drain the region queues in batches and pass each batch to a handler.
+ * At most one worker drains a region at a time, so a region's reports are handled in the order they were enqueued.
+ * Idle workers park and are woken by the next enqueue, so producers never take a lock and idle workers cost no CPU.
+ * Workers are platform threads since the code targets Java 17 (no virtual threads); with parking a few are enough.*/
+
+public class OutbreakPipeline {
+    // Receives one batch of reports of a region, called from a worker thread
+    public interface ReportHandler {
+        void handle(String region, List<OutbreakReport> batch);
+    }
+
+    private static final long IDLE_PARK_NANOS = 50_000_000L; // safety net, workers are normally woken by an enqueue
+
+    private final OutbreakQueueManager manager;
+    private final ReportHandler handler;
+    private final int batchSize;
+    private final Thread[] workers;
+    private final ConcurrentLinkedQueue<Thread> idle = new ConcurrentLinkedQueue<>(); // parked workers
+    private volatile boolean running;
+    private volatile long startNanos;
+
+    // Metrics
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder handled = new LongAdder();
+    private final LongAdder handlerErrors = new LongAdder();
+
+    public OutbreakPipeline(OutbreakQueueManager manager, int workerCount, int batchSize, ReportHandler handler) {
+        this.manager = manager;
+        this.handler = handler;
+        this.batchSize = batchSize;
+        this.workers = new Thread[workerCount];
+    }
+
+    // Start the workers (no-op if already running)
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        startNanos = System.nanoTime();
+        manager.setOnEnqueue(this::wakeOne);
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(this::workerLoop, "outbreak-worker-" + i);
+            workers[i].setDaemon(true); // never keeps the CLI alive on exit
+            workers[i].start();
+        }
+    }
+
+    // Stop the workers after they have handled everything already queued
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+        manager.setOnEnqueue(() -> { });
+        for (Thread w : workers) LockSupport.unpark(w);
+        for (Thread w : workers) {
+            try {
+                w.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    // Called after every enqueue: hand the new report to a parked worker, if any
+    private void wakeOne() {
+        Thread t = idle.poll();
+        if (t != null) LockSupport.unpark(t);
+    }
+
+    private void workerLoop() {
+        List<OutbreakReport> batch = new ArrayList<>(batchSize);
+        Thread self = Thread.currentThread();
+        while (running) {
+            if (drainOnce(batch)) continue;
+            // Register as idle first, then re-check: an enqueue either sees us in idle or we see its report
+            idle.add(self);
+            if (!hasWork() && running) LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            idle.remove(self);
+        }
+        while (drainOnce(batch)) {
+            // finish what was queued before stop()
+        }
+    }
+
+    // One pass over all regions, draining one batch from each region no other worker holds. True if anything was handled.
+    boolean drainOnce(List<OutbreakReport> batch) {
+        boolean didWork = false;
+        for (OutbreakQueueManager.RegionQueue rq : manager.regionQueues()) {
+            if (rq.queue.isEmpty() || !rq.draining.compareAndSet(false, true)) continue;
+            try {
+                synchronized (rq) { // one step for unhandled(): a report is either still queued or in flight
+                    if (rq.queue.drainTo(batch, batchSize) == 0) continue;
+                    rq.inFlight = new ArrayList<>(batch);
+                }
+                try {
+                    handler.handle(rq.region, batch);
+                } catch (RuntimeException e) {
+                    handlerErrors.increment(); // a failing handler must not kill the worker
+                }
+                batches.increment();
+                handled.add(batch.size());
+                didWork = true;
+            } finally {
+                rq.inFlight = java.util.Collections.emptyList(); // a failed batch is not retried
+                batch.clear();
+                rq.draining.set(false);
+            }
+        }
+        return didWork;
+    }
+
+    private boolean hasWork() {
+        for (OutbreakQueueManager.RegionQueue rq : manager.regionQueues()) {
+            if (!rq.queue.isEmpty()) return true;
+        }
+        return false;
+    }
+
+    public long handledCount() {
+        return handled.sum();
+    }
+
+    // Print throughput and queue depth per region and in total
+    public void printMetrics() {
+        double seconds = startNanos == 0 ? 0 : Math.max(1e-9, (System.nanoTime() - startNanos) / 1e9);
+        long enqueued = 0, dequeued = 0, dropped = 0, depth = 0;
+        System.out.println("Queues: " + manager.describe());
+        System.out.printf("%-16s %10s %10s %10s %8s%n", "Region", "Enqueued", "Dequeued", "Dropped", "Depth");
+        for (OutbreakQueueManager.RegionQueue rq : manager.regionQueues()) {
+            OutbreakQueue q = rq.queue;
+            long e = q.enqueuedCount(), d = q.dequeuedCount(), x = q.droppedCount(), w = q.depth();
+            System.out.printf("%-16s %10d %10d %10d %8d%n", rq.region, e, d, x, w);
+            enqueued += e;
+            dequeued += d;
+            dropped += x;
+            depth += w;
+        }
+        System.out.printf("%-16s %10d %10d %10d %8d%n", "Total", enqueued, dequeued, dropped, depth);
+        System.out.println("Workers: " + workers.length + (running ? " (running)" : " (stopped)")
+                + ", batches: " + batches.sum() + ", handled: " + handled.sum() + ", handler errors: " + handlerErrors.sum());
+        if (seconds > 0) {
+            System.out.printf("Throughput since start: %.1f enqueued/s, %.1f dequeued/s%n", enqueued / seconds, dequeued / seconds);
+        }
+    }
+}
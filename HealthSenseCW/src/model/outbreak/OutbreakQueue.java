@@ -0,0 +1,34 @@
+package model.outbreak;
+
+import java.util.List;
+
+// A region's queue of outbreak reports, safe for many producers and consumers at once.
+// ReportQueue serves reports in arrival order, PriorityReportQueue serves the most severe first.
+public interface OutbreakQueue {
+    // Add a report, false if it was refused (or dropped straight away) because the queue is full
+    boolean enqueue(OutbreakReport report);
+
+    // Remove and return the next report, null if the queue is empty
+    OutbreakReport dequeue();
+
+    // Move up to max reports into out, in serving order, returns how many were moved
+    int drainTo(List<OutbreakReport> out, int max);
+
+    boolean isEmpty();
+
+    // Reports waiting
+    long depth();
+
+    long enqueuedCount();
+
+    long dequeuedCount();
+
+    // Reports refused or evicted because the queue was full
+    long droppedCount();
+
+    // Waiting reports in serving order (a copy)
+    List<OutbreakReport> pending();
+
+    // Print waiting reports in serving order
+    void printAll();
+}
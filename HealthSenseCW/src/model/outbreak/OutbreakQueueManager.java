@@ -1,53 +1,171 @@
 package model.outbreak;
 
+import model.hospital.Region;
+import model.hospital.RegionRegistry;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// One report queue per region, plus a short log of the reports that were handled.
+// Queues are FIFO (lock-free) or prioritised by severity, and may be bounded with an overflow policy.
+// Hospitals enqueue from any thread; the OutbreakPipeline workers drain the queues.
+// Queues are found by region id (from a RegionRegistry, shared with the HospitalManager), one array read per lookup.
 public class OutbreakQueueManager {
-    // Simple pair class to hold region and its queue
-    private static class RegionQueue {
-        String region;
-        ReportQueue queue;
+    static final int HANDLED_LOG_SIZE = 50; // handled reports remembered per region for the CLI view
+
+    // Region, its queue and the reports already handled
+    public static class RegionQueue {
+        public final String region;
+        final OutbreakQueue queue;
+        final AtomicBoolean draining = new AtomicBoolean(); // set while one worker drains this region, keeps reports in order
+        private final Deque<OutbreakReport> handled = new ArrayDeque<>(); // most recent last, guarded by itself
+        // Batch a worker has taken out of the queue and not yet handled (empty if none), set with the drain under this lock
+        volatile List<OutbreakReport> inFlight = Collections.emptyList();
 
-        RegionQueue(String region) {
+        RegionQueue(String region, OutbreakQueue queue) {
             this.region = region;
-            this.queue = new ReportQueue();
+            this.queue = queue;
         }
-    }
 
-    // Fixed size array to hold RegionQueue pairs
-    private RegionQueue[] regionQueues = new RegionQueue[100];
-    private int count = 0;
+        public OutbreakQueue queue() {
+            return queue;
+        }
 
-    // Find RegionQueue by region name
-    private RegionQueue findRegionQueue(String region) {
-        for (int i = 0; i < count; i++) {
-            if (regionQueues[i].region.equalsIgnoreCase(region)) {
-                return regionQueues[i];
+        // Reports taken by a worker but not handled yet, then the ones still queued: what a crash now would leave undone
+        public synchronized List<OutbreakReport> unhandled() {
+            List<OutbreakReport> reports = new ArrayList<>(inFlight);
+            reports.addAll(queue.pending());
+            return reports;
+        }
+
+        // Remember reports a handler has processed, keeping only the most recent ones
+        void recordHandled(List<OutbreakReport> batch) {
+            inFlight = Collections.emptyList();
+            synchronized (handled) {
+                for (OutbreakReport r : batch) {
+                    if (handled.size() == HANDLED_LOG_SIZE) handled.removeFirst();
+                    handled.addLast(r);
+                }
             }
         }
-        return null;
-    }
 
-    // Add report to region queue, create new queue if region doesn't exist
-    public void enqueueReport(String region, OutbreakReport report) {
-        RegionQueue rq = findRegionQueue(region);
-        if (rq == null) {
-            if (count >= regionQueues.length) {
-                System.out.println("Max regions reached.");
-                return;
+        List<OutbreakReport> recentlyHandled() {
+            synchronized (handled) {
+                return new ArrayList<>(handled);
             }
-            rq = new RegionQueue(region);
-            regionQueues[count++] = rq;
         }
-        rq.queue.enqueue(report);
+    }
+
+    private final RegionRegistry registry;                                  // region name (any case) -> region id
+    private volatile RegionQueue[] byRegion = new RegionQueue[8];           // region id -> queue, null until first used
+    private final List<RegionQueue> regions = new CopyOnWriteArrayList<>(); // queues in creation order
+    private volatile Runnable onEnqueue = () -> { };                               // wakes a worker, set by the pipeline
+    private final boolean prioritized;    // serve the most severe report first instead of FIFO
+    private final int capacity;           // reports each region may hold
+    private final OverflowPolicy policy;  // what a full region queue does
+
+    // Unbounded FIFO queues
+    public OutbreakQueueManager() {
+        this(false, Integer.MAX_VALUE, OverflowPolicy.REJECT);
+    }
+
+    public OutbreakQueueManager(boolean prioritized, int capacity, OverflowPolicy policy) {
+        this(new RegionRegistry(), prioritized, capacity, policy);
+    }
+
+    public OutbreakQueueManager(RegionRegistry registry, boolean prioritized, int capacity, OverflowPolicy policy) {
+        if (capacity < 1) throw new IllegalArgumentException("queue capacity must be at least 1"); // queues are made later, fail now
+        this.registry = registry;
+        this.prioritized = prioritized;
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    // Queue for a region, created the first time the region is seen
+    RegionQueue regionQueue(String region) {
+        RegionQueue rq = find(region);
+        if (rq != null) return rq;
+        Region r = registry.region(region);
+        synchronized (this) {
+            RegionQueue[] table = byRegion;
+            if (r.id < table.length && table[r.id] != null) return table[r.id]; // created by another thread first
+            OutbreakQueue queue = prioritized ? new PriorityReportQueue(capacity, policy) : new ReportQueue(capacity, policy);
+            RegionQueue created = new RegionQueue(r.name, queue);
+            if (r.id >= table.length) table = Arrays.copyOf(table, Math.max(r.id + 1, table.length * 2));
+            table[r.id] = created;
+            byRegion = table;
+            regions.add(created);
+            return created;
+        }
+    }
+
+    // Queue of a known region (name matched ignoring case), null if none was created yet
+    private RegionQueue find(String region) {
+        Region r = registry.find(region);
+        RegionQueue[] table = byRegion;
+        return r != null && r.id < table.length ? table[r.id] : null;
+    }
+
+    // Add report to region queue, create new queue if region doesn't exist.
+    // False if the region's queue is full and the report was refused.
+    public boolean enqueueReport(String region, OutbreakReport report) {
+        boolean accepted = regionQueue(region).queue.enqueue(report);
+        if (accepted) onEnqueue.run();
+        return accepted;
+    }
+
+    // Remove the next report of a region, null if none is waiting
+    public OutbreakReport dequeueReport(String region) {
+        RegionQueue rq = find(region);
+        return rq != null ? rq.queue.dequeue() : null;
+    }
+
+    // Default handling of a drained batch: keep it in the region's recently handled log
+    public void recordHandled(String region, List<OutbreakReport> batch) {
+        regionQueue(region).recordHandled(batch);
+    }
+
+    // All region queues in creation order (snapshot, safe to iterate while regions are added)
+    public List<RegionQueue> regionQueues() {
+        return Collections.unmodifiableList(regions);
+    }
+
+    void setOnEnqueue(Runnable onEnqueue) {
+        this.onEnqueue = onEnqueue;
+    }
+
+    // Describe the queue configuration, e.g. "priority, capacity 1000, DROP_OLDEST"
+    public String describe() {
+        String bound = capacity == Integer.MAX_VALUE ? "unbounded" : "capacity " + capacity + ", " + policy;
+        return (prioritized ? "priority" : "FIFO") + ", " + bound;
+    }
+
+    // Reports waiting over all regions
+    public long totalDepth() {
+        long depth = 0;
+        for (RegionQueue rq : regions) depth += rq.queue.depth();
+        return depth;
     }
 
     // Print all reports for a region
     public void printQueue(String region) {
-        RegionQueue rq = findRegionQueue(region);
+        RegionQueue rq = find(region);
         if (rq == null) {
             System.out.println("No queue for region.");
             return;
         }
         System.out.println("Outbreak reports for " + region + ":");
         rq.queue.printAll();
+        List<OutbreakReport> handled = rq.recentlyHandled();
+        if (!handled.isEmpty()) {
+            System.out.println("Recently handled:");
+            for (OutbreakReport r : handled) System.out.println("  " + r);
+        }
     }
 }
@@ -1,22 +1,68 @@
 package model.outbreak;
 
+import model.severity.SeverityRecord;
+
 //outbreak report
 
 public class OutbreakReport {
     String region;    // region of the report
     String hospital;  // hospital of the report
     String summary;   // brief description
+    int severity;     // severity score (case count behind the alert), 0 if not given
+    final long logId; // number the state store logged the report under (acknowledged by it once handled), -1 if not logged
 
     // Constructor
     public OutbreakReport(String region, String hospital, String summary) {
+        this(region, hospital, summary, 0);
+    }
+
+    // Report with a severity score, banded like SeverityRecord (Mild / Moderate / Severe)
+    public OutbreakReport(String region, String hospital, String summary, int severity) {
+        this(region, hospital, summary, severity, -1);
+    }
+
+    public OutbreakReport(String region, String hospital, String summary, int severity, long logId) {
         this.region = region;
         this.hospital = hospital;
         this.summary = summary;
+        this.severity = severity;
+        this.logId = logId;
+    }
+
+    // The same report under a log number
+    public OutbreakReport withLogId(long logId) {
+        return new OutbreakReport(region, hospital, summary, severity, logId);
+    }
+
+    public String region() {
+        return region;
+    }
+
+    public String hospital() {
+        return hospital;
+    }
+
+    public String summary() {
+        return summary;
+    }
+
+    public int severity() {
+        return severity;
+    }
+
+    public long logId() {
+        return logId;
+    }
+
+    // 0 = Mild, 1 = Moderate, 2 = Severe; priority queues serve higher bands first
+    public int severityBand() {
+        return SeverityRecord.severityBand(severity);
     }
 
-    //Shows hospital, region, and the summary message.
+    //Shows hospital, region, and the summary message (plus the severity when one was given).
     @Override
     public String toString() {
-        return String.format("[Hospital: %s | Region: %s] %s", hospital, region, summary);
+        String text = String.format("[Hospital: %s | Region: %s] %s", hospital, region, summary);
+        return severity > 0 ? text + " - " + SeverityRecord.severityLabel(severity) + " (" + severity + ")" : text;
     }
 }
@@ -0,0 +1,8 @@
+package model.outbreak;
+
+// What a bounded region queue does with a new report when it is full
+public enum OverflowPolicy {
+    BLOCK,       // the producer waits until a worker makes room
+    DROP_OLDEST, // the oldest report is dropped to make room (a priority queue only drops from its lowest band, and never a report more severe than the new one)
+    REJECT       // the new report is refused
+}
@@ -0,0 +1,247 @@
+package model.outbreak;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/* Bounded triage queue: serves the most severe report first (Severe, then Moderate, then Mild),
+ * and reports of the same band in arrival order.
+ * Reports are kept in a binary max-heap in an array, so enqueue and dequeue are O(log n).
+ * A single lock guards the heap; drainTo takes a whole batch under one acquisition.*/
+
+public class PriorityReportQueue implements OutbreakQueue {
+    private OutbreakReport[] heap = new OutbreakReport[16]; // heap[0] is the next report to serve, grows up to capacity
+    private long[] arrival = new long[16];                   // arrival number of heap[i], breaks ties inside a band (older first)
+    private int size = 0;
+    private final int capacity;
+    private long nextArrival = 0;
+    private final OverflowPolicy policy;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition(); // BLOCK producers wait here
+
+    // Counters for metrics (changed under the lock)
+    private long enqueued, dequeued, rejected, evicted;
+
+    public PriorityReportQueue(int capacity, OverflowPolicy policy) {
+        if (capacity < 1) throw new IllegalArgumentException("queue capacity must be at least 1");
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    // Add a report (false if the queue is full and the report was refused).
+    public boolean enqueue(OutbreakReport report) {
+        lock.lock();
+        try {
+            if (size == capacity) {
+                switch (policy) {
+                    case REJECT:
+                        rejected++;
+                        return false;
+                    case BLOCK:
+                        while (size == capacity) notFull.awaitUninterruptibly();
+                        break;
+                    case DROP_OLDEST:
+                        int victim = oldestOfLowestBand();
+                        if (heap[victim].severityBand() > report.severityBand()) {
+                            rejected++; // everything queued is more severe than the new report, keep it all
+                            return false;
+                        }
+                        removeAt(victim);
+                        evicted++;
+                        break;
+                }
+            }
+            if (size == heap.length) {
+                int grown = (int) Math.min(capacity, heap.length * 2L);
+                heap = Arrays.copyOf(heap, grown);
+                arrival = Arrays.copyOf(arrival, grown);
+            }
+            heap[size] = report;
+            arrival[size] = nextArrival++;
+            siftUp(size++);
+            enqueued++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Remove and return the most severe report (null if the queue is empty).
+    public OutbreakReport dequeue() {
+        lock.lock();
+        try {
+            if (size == 0) return null;
+            OutbreakReport top = heap[0];
+            removeAt(0);
+            dequeued++;
+            notFull.signal();
+            return top;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Move up to max reports into out, most severe first, returns how many were moved
+    public int drainTo(List<OutbreakReport> out, int max) {
+        lock.lock();
+        try {
+            int n = 0;
+            while (n < max && size > 0) {
+                out.add(heap[0]);
+                removeAt(0);
+                n++;
+            }
+            dequeued += n;
+            if (n > 0) notFull.signalAll();
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        lock.lock();
+        try {
+            return size == 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long depth() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long enqueuedCount() {
+        lock.lock();
+        try {
+            return enqueued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long dequeuedCount() {
+        lock.lock();
+        try {
+            return dequeued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long droppedCount() {
+        lock.lock();
+        try {
+            return rejected + evicted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Waiting reports in serving order (sorts a copy, the heap is left alone)
+    public List<OutbreakReport> pending() {
+        OutbreakReport[] items;
+        long[] order;
+        int n;
+        lock.lock();
+        try {
+            n = size;
+            items = Arrays.copyOf(heap, n);
+            order = Arrays.copyOf(arrival, n);
+        } finally {
+            lock.unlock();
+        }
+        Integer[] idx = new Integer[n];
+        for (int i = 0; i < n; i++) idx[i] = i;
+        Arrays.sort(idx, (a, b) -> {
+            int c = Integer.compare(items[b].severityBand(), items[a].severityBand()); // higher band first
+            return c != 0 ? c : Long.compare(order[a], order[b]);                     // then older first
+        });
+        List<OutbreakReport> out = new ArrayList<>(n);
+        for (int i : idx) out.add(items[i]);
+        return out;
+    }
+
+    // Print waiting reports in serving order
+    public void printAll() {
+        List<OutbreakReport> reports = pending();
+        if (reports.isEmpty()) System.out.println("(queue empty)");
+        for (OutbreakReport r : reports) System.out.println("  " + r);
+    }
+
+    // True if report a (arrived as number ta) is served before report b
+    private static boolean before(OutbreakReport a, long ta, OutbreakReport b, long tb) {
+        int ba = a.severityBand(), bb = b.severityBand();
+        return ba != bb ? ba > bb : ta < tb;
+    }
+
+    private boolean before(int i, int j) {
+        return before(heap[i], arrival[i], heap[j], arrival[j]);
+    }
+
+    // Oldest report of the lowest band, found by a scan (only runs when the queue is full)
+    private int oldestOfLowestBand() {
+        int best = 0;
+        for (int i = 1; i < size; i++) {
+            int b = heap[i].severityBand(), bestBand = heap[best].severityBand();
+            if (b < bestBand || (b == bestBand && arrival[i] < arrival[best])) best = i;
+        }
+        return best;
+    }
+
+    // Remove the entry at index i and restore the heap
+    private void removeAt(int i) {
+        size--;
+        if (i != size) {
+            move(size, i);
+            heap[size] = null;
+            siftDown(i);
+            siftUp(i);
+        } else {
+            heap[size] = null;
+        }
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!before(i, parent)) return;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int left = 2 * i + 1, right = left + 1, first = i;
+            if (left < size && before(left, first)) first = left;
+            if (right < size && before(right, first)) first = right;
+            if (first == i) return;
+            swap(i, first);
+            i = first;
+        }
+    }
+
+    private void move(int from, int to) {
+        heap[to] = heap[from];
+        arrival[to] = arrival[from];
+    }
+
+    private void swap(int i, int j) {
+        OutbreakReport r = heap[i];
+        heap[i] = heap[j];
+        heap[j] = r;
+        long t = arrival[i];
+        arrival[i] = arrival[j];
+        arrival[j] = t;
+    }
+}
@@ -1,55 +1,182 @@
 package model.outbreak;
 
-public class ReportQueue {
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Lock-free linked queue of outbreak reports (Michael-Scott queue).
+ * Any number of threads can enqueue and dequeue at the same time; each operation is a few CAS steps, no lock is taken.
+ * The first node is always an empty sentinel, so enqueue only touches the rear and dequeue only the front.
+ * A bounded queue hands out one permit per waiting report; taking or returning one is also just a CAS.*/
+
+public class ReportQueue implements OutbreakQueue {
     // Internal node for the queue (singly linked)
     static class Node {
-        OutbreakReport data; // the report stored here
-        Node next;           // next node in the queue
+        volatile OutbreakReport data; // the report stored here (cleared once dequeued)
+        volatile Node next;           // next node in the queue
 
         Node(OutbreakReport data) {
             this.data = data;
         }
     }
 
-    Node front, rear; // front = next to dequeue, rear = last enqueued
+    private static final AtomicReferenceFieldUpdater<Node, Node> NEXT =
+            AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "next");
+    private static final AtomicReferenceFieldUpdater<ReportQueue, Node> FRONT =
+            AtomicReferenceFieldUpdater.newUpdater(ReportQueue.class, Node.class, "front");
+    private static final AtomicReferenceFieldUpdater<ReportQueue, Node> REAR =
+            AtomicReferenceFieldUpdater.newUpdater(ReportQueue.class, Node.class, "rear");
+
+    volatile Node front, rear; // front = sentinel before the next report to dequeue, rear = last enqueued (or lagging by one)
+
+    private final Semaphore slots;       // free places in a bounded queue, null if unbounded
+    private final OverflowPolicy policy; // what to do when no place is free
+
+    // Counters for metrics, striped so producers do not contend on them
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder dequeued = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    // Unbounded queue
+    public ReportQueue() {
+        this(Integer.MAX_VALUE, OverflowPolicy.REJECT);
+    }
+
+    // Queue holding at most capacity reports
+    public ReportQueue(int capacity, OverflowPolicy policy) {
+        if (capacity < 1) throw new IllegalArgumentException("queue capacity must be at least 1");
+        front = rear = new Node(null);
+        this.slots = capacity == Integer.MAX_VALUE ? null : new Semaphore(capacity);
+        this.policy = policy;
+    }
 
-    // Add a report to the end of the queue.
-    public void enqueue(OutbreakReport report) {
-        Node node = new Node(report);
-        if (rear == null) {
-            // queue is empty, new node is both front and rear
-            front = rear = node;
-            return;
+    // Add a report to the end of the queue (false if the queue is full and the policy is REJECT).
+    public boolean enqueue(OutbreakReport report) {
+        if (slots != null && !slots.tryAcquire()) {
+            switch (policy) {
+                case REJECT:
+                    rejected.increment();
+                    return false;
+                case BLOCK:
+                    slots.acquireUninterruptibly(); // wait for a worker to dequeue
+                    break;
+                case DROP_OLDEST:
+                    do {
+                        if (poll() != null) { // the front is the oldest report
+                            evicted.increment();
+                            slots.release();
+                        }
+                    } while (!slots.tryAcquire());
+                    break;
+            }
         }
-        // attach to end and move rear pointer
-        rear.next = node;
-        rear = node;
+        link(new Node(report));
+        enqueued.increment();
+        return true;
     }
 
-    // Remove and return the report at the front.
+    // Link a node after the rear
+    private void link(Node node) {
+        while (true) {
+            Node last = rear;
+            Node next = last.next;
+            if (next == null) {
+                // rear is really the last node: link the new node after it, then try to move rear
+                if (NEXT.compareAndSet(last, null, node)) {
+                    REAR.compareAndSet(this, last, node);
+                    return;
+                }
+            } else {
+                // another enqueue linked a node but has not moved rear yet, help it along
+                REAR.compareAndSet(this, last, next);
+            }
+        }
+    }
+
+    // Remove and return the report at the front (null if the queue is empty).
     public OutbreakReport dequeue() {
-        if (front == null) return null; // nothing to remove
-        OutbreakReport data = front.data;
-        front = front.next; // move front forward
-        if (front == null) rear = null; // queue became empty, reset rear too
+        OutbreakReport data = poll();
+        if (data != null) {
+            dequeued.increment();
+            if (slots != null) slots.release();
+        }
         return data;
     }
 
+    // Unlink the front report without touching counters or permits
+    private OutbreakReport poll() {
+        while (true) {
+            Node first = front;
+            Node next = first.next;
+            if (next == null) return null; // nothing to remove
+            Node last = rear;
+            if (first == last) {
+                REAR.compareAndSet(this, last, next); // rear is lagging behind, move it before passing it
+                continue;
+            }
+            OutbreakReport data = next.data;
+            if (FRONT.compareAndSet(this, first, next)) {
+                next.data = null; // next is the new sentinel, let the report be collected
+                return data;
+            }
+        }
+    }
+
+    // Move up to max reports into out, returns how many were moved
+    public int drainTo(List<OutbreakReport> out, int max) {
+        int n = 0;
+        OutbreakReport r;
+        while (n < max && (r = dequeue()) != null) {
+            out.add(r);
+            n++;
+        }
+        return n;
+    }
+
     // Look at the front report without removing it.
     public OutbreakReport peek() {
-        return front != null ? front.data : null;
+        Node next = front.next;
+        return next != null ? next.data : null;
+    }
+
+    public boolean isEmpty() {
+        return front.next == null;
+    }
+
+    // Reports waiting (exact when no other thread is changing the queue)
+    public long depth() {
+        return Math.max(0, enqueued.sum() - dequeued.sum() - evicted.sum());
+    }
+
+    public long enqueuedCount() {
+        return enqueued.sum();
+    }
+
+    public long dequeuedCount() {
+        return dequeued.sum();
+    }
+
+    public long droppedCount() {
+        return rejected.sum() + evicted.sum();
+    }
+
+    // Waiting reports in order (a copy)
+    public List<OutbreakReport> pending() {
+        List<OutbreakReport> out = new ArrayList<>();
+        for (Node cur = front.next; cur != null; cur = cur.next) {
+            OutbreakReport data = cur.data;
+            if (data != null) out.add(data); // null if it was just dequeued by a worker
+        }
+        return out;
     }
 
     //Print every report in the queue in order.
     public void printAll() {
-        Node cur = front;
-        if (cur == null) {
-            System.out.println("(queue empty)");
-            return;
-        }
-        while (cur != null) {
-            System.out.println("  " + cur.data); // uses OutbreakReport.toString()
-            cur = cur.next;
-        }
+        List<OutbreakReport> reports = pending();
+        if (reports.isEmpty()) System.out.println("(queue empty)");
+        for (OutbreakReport r : reports) System.out.println("  " + r); // uses OutbreakReport.toString()
     }
 }
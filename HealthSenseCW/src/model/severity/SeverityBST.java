@@ -1,11 +1,22 @@
 package model.severity;
 
-//Binary search tree ordered by case count (severity)
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/* Self-balancing (AVL) binary search tree ordered by case count (severity).
+ * Equal counts are ordered by insertion, so a later record goes to the right of an earlier one with the same count.
+ * Every node also stores the size of its subtree, which gives rank and top-k queries in O(log n).
+ * Traversals use an explicit stack instead of recursion, so very large trees can be walked safely.*/
 public class SeverityBST {
     // Node inside the BST, holds one severity record and left/right children
     static class Node {
         SeverityRecord data; // the severity record (hospital name, disease, count)
         Node left, right;    // left = lower severity, right = equal or higher severity
+        int height = 1;      // height of this subtree, used for balancing
+        int size = 1;        // number of records in this subtree
 
         Node(SeverityRecord data) {
             this.data = data;
@@ -13,69 +24,244 @@ public class SeverityBST {
     }
 
     Node root; // root of the tree
+    private long nextSeq = 0; // insertion counter used to order equal case counts
 
     // Insert a new record into the BST by its caseCount.If caseCount is equal or greater, it goes to the right
     public void insert(SeverityRecord rec) {
+        rec.seq = nextSeq++;
         root = insertRec(root, rec);
     }
 
+    // Remove a record that was inserted earlier. Returns false if it is not in the tree.
+    public boolean remove(SeverityRecord rec) {
+        int before = size();
+        root = removeRec(root, rec);
+        return size() < before;
+    }
+
     //Clear the tree
     public void clear() {
         root = null;
     }
 
-    // Recursive helper for insertion
+    // Number of records in the tree
+    public int size() {
+        return size(root);
+    }
+
+    // Recursive helper for insertion (depth is O(log n) because the tree stays balanced)
     private Node insertRec(Node node, SeverityRecord rec) {
         if (node == null) return new Node(rec); // place new node here
-        if (rec.caseCount < node.data.caseCount) {
+        if (compare(rec, node.data) < 0) {
             // smaller severity goes left
             node.left = insertRec(node.left, rec);
         } else {
             // equal or larger goes right (keeps duplicates on right)
             node.right = insertRec(node.right, rec);
         }
-        return node;
+        return rebalance(node);
+    }
+
+    // Recursive helper for removal
+    private Node removeRec(Node node, SeverityRecord rec) {
+        if (node == null) return null; // not found
+        int c = compare(rec, node.data);
+        if (c < 0) {
+            node.left = removeRec(node.left, rec);
+        } else if (c > 0) {
+            node.right = removeRec(node.right, rec);
+        } else {
+            if (node.left == null) return node.right;
+            if (node.right == null) return node.left;
+            // two children: replace with the smallest record of the right subtree
+            Node min = node.right;
+            while (min.left != null) min = min.left;
+            node.data = min.data;
+            node.right = removeRec(node.right, min.data);
+        }
+        return rebalance(node);
+    }
+
+    // Order by case count, then by insertion so every record has a unique position
+    private static int compare(SeverityRecord a, SeverityRecord b) {
+        if (a.caseCount != b.caseCount) return Integer.compare(a.caseCount, b.caseCount);
+        return Long.compare(a.seq, b.seq);
+    }
+
+    private static int height(Node n) {
+        return n == null ? 0 : n.height;
+    }
+
+    private static int size(Node n) {
+        return n == null ? 0 : n.size;
+    }
+
+    private static void update(Node n) {
+        n.height = 1 + Math.max(height(n.left), height(n.right));
+        n.size = 1 + size(n.left) + size(n.right);
+    }
+
+    // Restore the AVL property at this node after an insert or removal below it
+    private static Node rebalance(Node n) {
+        update(n);
+        int balance = height(n.left) - height(n.right);
+        if (balance > 1) {
+            if (height(n.left.left) < height(n.left.right)) n.left = rotateLeft(n.left);
+            return rotateRight(n);
+        }
+        if (balance < -1) {
+            if (height(n.right.right) < height(n.right.left)) n.right = rotateRight(n.right);
+            return rotateLeft(n);
+        }
+        return n;
+    }
+
+    private static Node rotateRight(Node n) {
+        Node l = n.left;
+        n.left = l.right;
+        l.right = n;
+        update(n);
+        update(l);
+        return l;
+    }
+
+    private static Node rotateLeft(Node n) {
+        Node r = n.right;
+        n.right = r.left;
+        r.left = n;
+        update(n);
+        update(r);
+        return r;
+    }
+
+    // How many records have fewer than caseCount cases, in O(log n)
+    public int countBelow(int caseCount) {
+        int count = 0;
+        Node cur = root;
+        while (cur != null) {
+            if (cur.data.caseCount < caseCount) {
+                count += size(cur.left) + 1; // this node and everything left of it
+                cur = cur.right;
+            } else {
+                cur = cur.left;
+            }
+        }
+        return count;
+    }
+
+    // How many records have caseCount or more cases
+    public int countAtLeast(int caseCount) {
+        return size() - countBelow(caseCount);
+    }
+
+    // The k-th lowest record (0 = lowest), or null if k is out of range
+    public SeverityRecord select(int k) {
+        Node cur = root;
+        while (cur != null) {
+            int leftSize = size(cur.left);
+            if (k < leftSize) {
+                cur = cur.left;
+            } else if (k == leftSize) {
+                return cur.data;
+            } else {
+                k -= leftSize + 1;
+                cur = cur.right;
+            }
+        }
+        return null;
+    }
+
+    // The k most severe records, highest first, in O(log n + k)
+    public List<SeverityRecord> topK(int k) {
+        List<SeverityRecord> out = new ArrayList<>(Math.min(k, size()));
+        Iterator<SeverityRecord> it = descendingIterator();
+        while (out.size() < k && it.hasNext()) out.add(it.next());
+        return out;
+    }
+
+    // Cursor over the records from lowest to highest case count
+    public Iterator<SeverityRecord> iterator() {
+        return new Cursor(false);
+    }
+
+    // Cursor over the records from highest to lowest case count
+    public Iterator<SeverityRecord> descendingIterator() {
+        return new Cursor(true);
+    }
+
+    // In-order cursor backed by a stack of the nodes still to visit
+    private class Cursor implements Iterator<SeverityRecord> {
+        private final ArrayDeque<Node> stack = new ArrayDeque<>();
+        private final boolean descending;
+
+        Cursor(boolean descending) {
+            this.descending = descending;
+            pushEdge(root);
+        }
+
+        // Push the node and its chain of left children (right children when descending)
+        private void pushEdge(Node n) {
+            while (n != null) {
+                stack.push(n);
+                n = descending ? n.right : n.left;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !stack.isEmpty();
+        }
+
+        @Override
+        public SeverityRecord next() {
+            if (stack.isEmpty()) throw new NoSuchElementException();
+            Node n = stack.pop();
+            pushEdge(descending ? n.left : n.right);
+            return n.data;
+        }
     }
 
     //In-order traversal prints records from lowest to highest case count.
     public void traverseInOrder() {
         System.out.println("In-order traversal (low to high severity):");
-        inOrder(root);
+        Iterator<SeverityRecord> it = iterator();
+        while (it.hasNext()) System.out.println("  " + it.next());
         System.out.println();
     }
 
-    private void inOrder(Node n) {
-        if (n == null) return;
-        inOrder(n.left);
-        System.out.println("  " + n.data);
-        inOrder(n.right);
-    }
-
     // Pre-order traversal: root first, then left subtree, then right.
     public void traversePreOrder() {
         System.out.println("Pre-order traversal:");
-        preOrder(root);
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        if (root != null) stack.push(root);
+        while (!stack.isEmpty()) {
+            Node n = stack.pop();
+            System.out.println("  " + n.data);
+            if (n.right != null) stack.push(n.right); // pushed first so left is printed first
+            if (n.left != null) stack.push(n.left);
+        }
         System.out.println();
     }
 
-    private void preOrder(Node n) {
-        if (n == null) return;
-        System.out.println("  " + n.data);
-        preOrder(n.left);
-        preOrder(n.right);
-    }
-
     //Post-order traversal: left, right, then root.
     public void traversePostOrder() {
         System.out.println("Post-order traversal:");
-        postOrder(root);
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        Node cur = root, lastPrinted = null;
+        while (cur != null || !stack.isEmpty()) {
+            if (cur != null) {
+                stack.push(cur);
+                cur = cur.left;
+                continue;
+            }
+            Node top = stack.peek();
+            if (top.right != null && top.right != lastPrinted) {
+                cur = top.right; // visit the right subtree before the node itself
+            } else {
+                System.out.println("  " + top.data);
+                lastPrinted = stack.pop();
+            }
+        }
         System.out.println();
     }
-
-    private void postOrder(Node n) {
-        if (n == null) return;
-        postOrder(n.left);
-        postOrder(n.right);
-        System.out.println("  " + n.data);
-    }
 }
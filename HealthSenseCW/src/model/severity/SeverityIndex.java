@@ -0,0 +1,77 @@
+package model.severity;
+
+import model.disease.DiseaseDictionary;
+import model.disease.DiseaseRecordLinkedList;
+import model.hospital.Hospital;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/* Keeps the severity tree up to date as records are added and removed.
+ * Each hospital has exactly one entry in the tree: its current peak record.
+ * A change only moves that hospital's entry, so reading the severity view never rescans the histories.
+ * Callers hold the hospital's lock, so each hospital's entry has one writer at a time, the shared tree is synchronized.*/
+
+public class SeverityIndex {
+    private final SeverityBST tree = new SeverityBST();
+    private final Map<Hospital, SeverityRecord> peaks = new ConcurrentHashMap<>(); // hospital -> its entry in the tree
+    private volatile long version = 0; // changes of the tree, written under its lock
+
+    // The maintained tree (read only for callers)
+    public SeverityBST tree() {
+        return tree;
+    }
+
+    // Grows on every change of the tree, so a view read from it (e.g. a cached top k) is current while this is unchanged
+    public long version() {
+        return version;
+    }
+
+    // Case count of one hospital's entry, -1 if its history is empty
+    public int peakCount(Hospital hospital) {
+        SeverityRecord peak = peaks.get(hospital);
+        return peak == null ? -1 : peak.caseCount;
+    }
+
+    // A record was added: it becomes the hospital's peak if it has more cases than the current one
+    public void recordAdded(Hospital hospital, int diseaseId, int caseCount) {
+        SeverityRecord peak = peaks.get(hospital);
+        if (peak != null && caseCount <= peak.caseCount) return; // peak unchanged
+        setPeak(hospital, new SeverityRecord(hospital.name, DiseaseDictionary.nameOf(diseaseId), caseCount));
+    }
+
+    // A record was removed: only if it may have been the peak does the hospital's history get rescanned
+    public void recordRemoved(Hospital hospital, int caseCount) {
+        SeverityRecord peak = peaks.get(hospital);
+        if (peak == null || caseCount < peak.caseCount) return; // peak unchanged
+        refresh(hospital);
+    }
+
+    // Recompute one hospital's peak from its history (e.g. after the history was replaced)
+    public void refresh(Hospital hospital) {
+        DiseaseRecordLinkedList.Node max = hospital.diseaseHistory.getMaxCaseNode();
+        if (max == null) {
+            SeverityRecord old = peaks.remove(hospital);
+            if (old != null) {
+                synchronized (tree) {
+                    tree.remove(old);
+                    version++;
+                }
+            }
+            return;
+        }
+        SeverityRecord peak = peaks.get(hospital);
+        if (peak != null && peak.caseCount == max.data.caseCount && peak.disease.equals(max.data.diseaseName)) return;
+        setPeak(hospital, new SeverityRecord(hospital.name, max.data.diseaseName, max.data.caseCount));
+    }
+
+    // Replace the hospital's entry in the tree, O(log n)
+    private void setPeak(Hospital hospital, SeverityRecord peak) {
+        SeverityRecord old = peaks.put(hospital, peak);
+        synchronized (tree) {
+            if (old != null) tree.remove(old);
+            tree.insert(peak);
+            version++;
+        }
+    }
+}
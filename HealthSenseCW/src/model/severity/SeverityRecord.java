@@ -5,6 +5,7 @@ public class SeverityRecord {
     String hospital;  // which hospital this record is for
     String disease;   // disease name
     int caseCount;    // number of cases (used as severity metric)
+    long seq;         // set by SeverityBST on insert, orders records with equal caseCount
 
     // Constructor
     public SeverityRecord(String hospital, String disease, int caseCount) {
@@ -19,11 +20,23 @@ public class SeverityRecord {
      *   51+   : Severe
      */
     public String severityLabel() {
+        return severityLabel(caseCount);
+    }
+
+    // Same bands for any case count (also used to prioritise outbreak reports)
+    public static String severityLabel(int caseCount) {
         if (caseCount <= 20) return "Mild";
         if (caseCount <= 50) return "Moderate";
         return "Severe";
     }
 
+    // Band as a number: 0 = Mild, 1 = Moderate, 2 = Severe
+    public static int severityBand(int caseCount) {
+        if (caseCount <= 20) return 0;
+        if (caseCount <= 50) return 1;
+        return 2;
+    }
+
     //Shows disease, hospital, number of cases, and the severity label.
     @Override
     public String toString() {
@@ -3,16 +3,25 @@ package model.undo;
 /* Represents one action that can be undone and redone.
  *   - a type/name (for debugging or display),
  *   - what to do to undo it,
- *   - what to do to redo it.
+ *   - what to do to redo it,
+ *   - roughly how much memory the entry keeps alive (the delta it captured, e.g. a row handle or a permutation).
  */
 public class Operation {
+    public static final int BASE_BYTES = 64; // the Operation and its two closures, roughly
+
     String type;            // identifier for the operation
     Runnable undoAction;    // code to run to reverse the operation
     Runnable redoAction;    // code to run to apply it again
+    long deltaBytes;        // size of the data captured by the actions
 
     // Constructor
     public Operation(String type, Runnable undoAction, Runnable redoAction) {
+        this(type, 0, undoAction, redoAction);
+    }
+
+    public Operation(String type, long deltaBytes, Runnable undoAction, Runnable redoAction) {
         this.type = type;
+        this.deltaBytes = deltaBytes;
         this.undoAction = undoAction;
         this.redoAction = redoAction;
     }
@@ -26,4 +35,13 @@ public class Operation {
     public void redo() {
         redoAction.run();
     }
+
+    public String type() {
+        return type;
+    }
+
+    // Estimated memory held by this entry
+    public long bytes() {
+        return BASE_BYTES + deltaBytes;
+    }
 }
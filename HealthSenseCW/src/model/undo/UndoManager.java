@@ -1,22 +1,39 @@
 package model.undo;
 
-/* Simple undo manager with a fixed capacity stack (max 3 operations).
- * Keeps the most recent operations, if more than 3 are pushed, oldest is dropped.*/
+/* Undo/redo history with a configurable depth.
+ * Undoable operations are kept in a ring buffer, if more than depth are pushed the oldest is dropped.
+ * Undo moves the newest operation to the redo stack and redo moves it back.
+ * Pushing a new operation clears the redo stack, because the undone operations no longer follow the current state.
+ * Operations hold compact deltas (see Operation.bytes()), so a deep history stays cheap.*/
 
 public class UndoManager {
-    private Operation[] stack = new Operation[3]; // holds up to 3 operations
-    private int size = 0; // current count of stored operations
+    public static final int DEFAULT_DEPTH = 50;
+
+    private Operation[] stack;      // ring buffer of undoable operations
+    private int head = 0;           // slot of the oldest operation
+    private int size = 0;           // current count of stored operations
+    private Operation[] redoStack;  // undone operations, newest undo on top
+    private int redoSize = 0;
+
+    public UndoManager() {
+        this(DEFAULT_DEPTH);
+    }
+
+    public UndoManager(int depth) {
+        if (depth < 1) throw new IllegalArgumentException("undo depth must be at least 1");
+        stack = new Operation[depth];
+        redoStack = new Operation[depth];
+    }
 
     // Push a new operation onto the undo stack.
     public void push(Operation op) {
-        if (size == 3) {
-            // shift everything left: discard oldest, make space for new at top
-            stack[0] = stack[1];
-            stack[1] = stack[2];
-            stack[2] = op;
+        if (size == stack.length) {
+            stack[head] = op; // full: overwrite the oldest, which becomes the newest
+            head = (head + 1) % stack.length;
         } else {
-            stack[size++] = op; // place at next free slot
+            stack[(head + size++) % stack.length] = op; // place at next free slot
         }
+        while (redoSize > 0) redoStack[--redoSize] = null;
     }
 
     // if there's anything to undo.
@@ -24,11 +41,87 @@ public class UndoManager {
         return size > 0;
     }
 
-    //Undo the most recent operation.
-    public void undo() {
-        if (size == 0) return; // nothing to undo
-        Operation top = stack[size - 1]; // get last pushed
+    // if there's anything to redo.
+    public boolean canRedo() {
+        return redoSize > 0;
+    }
+
+    //Undo the most recent operation. Returns it, or null if there was nothing to undo.
+    public Operation undo() {
+        if (size == 0) return null; // nothing to undo
+        int slot = (head + size - 1) % stack.length;
+        Operation top = stack[slot]; // get last pushed
         top.undo(); // run its undo action
-        stack[--size] = null; // remove it from stack
+        stack[slot] = null; // remove it from stack
+        size--;
+        redoStack[redoSize++] = top;
+        return top;
+    }
+
+    //Redo the most recently undone operation. Returns it, or null if there was nothing to redo.
+    public Operation redo() {
+        if (redoSize == 0) return null;
+        Operation top = redoStack[--redoSize];
+        redoStack[redoSize] = null;
+        top.redo();
+        stack[(head + size++) % stack.length] = top; // undos + redos never exceed the depth, so there is room
+        return top;
+    }
+
+    // Change the depth, dropping the oldest operations if there are more than the new depth
+    public void setDepth(int depth) {
+        if (depth < 1) throw new IllegalArgumentException("undo depth must be at least 1");
+        Operation[] resized = new Operation[depth];
+        int keep = Math.min(size, depth);
+        for (int i = 0; i < keep; i++) resized[i] = stack[(head + size - keep + i) % stack.length];
+        stack = resized;
+        head = 0;
+        size = keep;
+        // keep the top of the redo stack (the next redos); stored undos + redos never exceed the depth
+        int redoKeep = Math.min(redoSize, depth - keep);
+        Operation[] redoResized = new Operation[depth];
+        System.arraycopy(redoStack, redoSize - redoKeep, redoResized, 0, redoKeep);
+        redoStack = redoResized;
+        redoSize = redoKeep;
+    }
+
+    // Drop every undo and redo entry (e.g. after the rows they point at were rolled up)
+    public void clear() {
+        java.util.Arrays.fill(stack, null);
+        java.util.Arrays.fill(redoStack, null);
+        head = size = redoSize = 0;
+    }
+
+    // Number of operations that can be undone right now
+    public int size() {
+        return size;
+    }
+
+    public int depth() {
+        return stack.length;
+    }
+
+    // Estimated memory of every stored undo and redo entry
+    public long bytes() {
+        long total = 0;
+        for (int i = 0; i < size; i++) total += stack[(head + i) % stack.length].bytes();
+        for (int i = 0; i < redoSize; i++) total += redoStack[i].bytes();
+        return total;
+    }
+
+    // Print both stacks, newest first, with the memory held by each entry
+    public void printHistory() {
+        System.out.println("Undo (depth " + stack.length + "):");
+        if (size == 0) System.out.println("  (empty)");
+        for (int i = size - 1; i >= 0; i--) {
+            Operation op = stack[(head + i) % stack.length];
+            System.out.println("  " + op.type() + "  " + op.bytes() + " bytes");
+        }
+        System.out.println("Redo:");
+        if (redoSize == 0) System.out.println("  (empty)");
+        for (int i = redoSize - 1; i >= 0; i--) {
+            System.out.println("  " + redoStack[i].type() + "  " + redoStack[i].bytes() + " bytes");
+        }
+        System.out.println("Total: " + bytes() + " bytes");
     }
 }
@@ -0,0 +1,57 @@
+package util;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/* List that only grows, for registries read by many threads while one at a time adds to them.
+ * Elements go into an array that doubles when full, so adding is amortised O(1) (a CopyOnWriteArrayList copies
+ * the whole list on every add). After each add a read-only snapshot of the elements so far is published:
+ * readers never lock, and a snapshot never changes because the slots it covers are never written again.*/
+
+public class AppendOnlyList<E> {
+    // Read-only view of the first size slots of an array
+    private static final class Snapshot<E> extends AbstractList<E> implements RandomAccess {
+        private final Object[] elements;
+        private final int size;
+
+        Snapshot(Object[] elements, int size) {
+            this.elements = elements;
+            this.size = size;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public E get(int index) {
+            if (index < 0 || index >= size) throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+            return (E) elements[index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    private Object[] elements = new Object[8]; // guarded by this
+    private volatile List<E> snapshot = Collections.emptyList();
+
+    // Append an element; the element is in its slot before the new snapshot is published
+    public synchronized void add(E element) {
+        int size = snapshot.size();
+        if (size == elements.length) elements = Arrays.copyOf(elements, size * 2);
+        elements[size] = element;
+        snapshot = new Snapshot<>(elements, size + 1);
+    }
+
+    // The elements added so far, in order (read-only, no copy is made)
+    public List<E> snapshot() {
+        return snapshot;
+    }
+
+    public int size() {
+        return snapshot.size();
+    }
+}
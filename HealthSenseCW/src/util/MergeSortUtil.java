@@ -1,130 +1,171 @@
 package util;
 
-import model.disease.DiseaseRecord;
 import model.disease.DiseaseRecordLinkedList;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 /* Utility class that provides merge sort for custom DiseaseRecordLinkedList.
- * it sorts, by case count (descending: highest first) and sorting by week number (ascending: earliest first)*/
+ * it sorts, by case count (descending: highest first) and sorting by week number (ascending: earliest first),
+ * or by any RecordComparator (e.g. disease then week).
+ * The sort is a stable bottom-up (iterative) merge sort over row positions held in per-thread scratch arrays,
+ * the history is then permuted in place, so sorting does not allocate per record.
+ * Large histories are split and sorted on the fork/join pool.*/
 
 public class MergeSortUtil {
+    private static final int INSERTION_RUN = 32;              // runs this short are insertion sorted first
+    public static final int PARALLEL_THRESHOLD = 1 << 17;     // histories at least this big sort in parallel
+    private static final int PARALLEL_CHUNK = 1 << 15;        // below this size a fork/join task sorts sequentially
 
+    // Scratch arrays reused between sorts on the same thread: [0] = row order, [1] = merge buffer
+    private static final ThreadLocal<int[][]> SCRATCH = ThreadLocal.withInitial(() -> new int[][]{new int[0], new int[0]});
 
     //Sort by case count (highest to lowest).
     public static void sortLinkedListByCount(DiseaseRecordLinkedList list) {
-        list.head = mergeSortByCount(list.head);
+        sort(list, RecordComparator.BY_COUNT_DESC);
     }
 
-    // Recursive merge sort by case count
-    private static DiseaseRecordLinkedList.Node mergeSortByCount(DiseaseRecordLinkedList.Node head) {
-        if (head == null || head.next == null) return head; // empty or 1 element
-        DiseaseRecordLinkedList.Node mid = getMiddle(head); // find middle
-        DiseaseRecordLinkedList.Node right = mid.next;
-        mid.next = null; // split list in two halves
+    // by week number (ascending order).
+    public static void sortLinkedListByWeek(DiseaseRecordLinkedList list) {
+        sort(list, RecordComparator.BY_WEEK);
+    }
 
-        DiseaseRecordLinkedList.Node leftSorted = mergeSortByCount(head);
-        DiseaseRecordLinkedList.Node rightSorted = mergeSortByCount(right);
+    // Sort with any comparator, in parallel when the history is large and more than one core is available
+    public static void sort(DiseaseRecordLinkedList list, RecordComparator cmp) {
+        boolean parallel = list.size() >= PARALLEL_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1;
+        sort(list, cmp, parallel);
+    }
 
-        return mergeByCount(leftSorted, rightSorted); // merge back together
+    // Sort with any comparator, choosing the sequential or fork/join mode explicitly
+    public static void sort(DiseaseRecordLinkedList list, RecordComparator cmp, boolean parallel) {
+        int n = list.size();
+        if (n < 2) return;
+        int[] order = sortedOrder(list, cmp, parallel);
+        list.permute(order);
     }
 
-    // Merge two sorted lists by case count (descending)
-    private static DiseaseRecordLinkedList.Node mergeByCount(DiseaseRecordLinkedList.Node a, DiseaseRecordLinkedList.Node b) {
-        DiseaseRecordLinkedList.Node dummy = new DiseaseRecordLinkedList.Node(new DiseaseRecord("", 0, 0));
-        DiseaseRecordLinkedList.Node tail = dummy;
-
-        while (a != null && b != null) {
-            if (a.data.caseCount >= b.data.caseCount) {
-                // copy node from a
-                tail.next = new DiseaseRecordLinkedList.Node(
-                        new DiseaseRecord(a.data.diseaseName, a.data.weekNumber, a.data.caseCount));
-                a = a.next;
-            } else {
-                // copy node from b
-                tail.next = new DiseaseRecordLinkedList.Node(
-                        new DiseaseRecord(b.data.diseaseName, b.data.weekNumber, b.data.caseCount));
-                b = b.next;
-            }
-            tail = tail.next;
-        }
+    /* Sort and return the order that was applied (row i is the old row order[i]), for undo.
+     * Returns null if the history was already sorted, so nothing has to be kept.*/
+    public static int[] sortForUndo(DiseaseRecordLinkedList list, RecordComparator cmp) {
+        int n = list.size();
+        if (n < 2) return null;
+        boolean parallel = n >= PARALLEL_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1;
+        int[] order = sortedOrder(list, cmp, parallel);
+        int i = 0;
+        while (i < n && order[i] == i) i++;
+        if (i == n) return null; // already in order
+        int[] applied = java.util.Arrays.copyOf(order, n);
+        list.permute(order);
+        return applied;
+    }
+
+    // The permutation that undoes order: inverse[order[i]] = i
+    public static int[] invert(int[] order) {
+        int[] inverse = new int[order.length];
+        for (int i = 0; i < order.length; i++) inverse[order[i]] = i;
+        return inverse;
+    }
 
-        // attach remaining nodes
-        while (a != null) {
-            tail.next = new DiseaseRecordLinkedList.Node(
-                    new DiseaseRecord(a.data.diseaseName, a.data.weekNumber, a.data.caseCount));
-            a = a.next;
-            tail = tail.next;
+    /* Compute the sorted row order without moving any rows: result[i] is the row that belongs at position i.
+     * The returned array is this thread's scratch buffer (only the first size() entries are meaningful),
+     * so it is only valid until the next sort on the same thread.*/
+    public static int[] sortedOrder(DiseaseRecordLinkedList list, RecordComparator cmp, boolean parallel) {
+        int n = list.size();
+        int[][] scratch = SCRATCH.get();
+        if (scratch[0].length < n) {
+            scratch[0] = new int[n];
+            scratch[1] = new int[n];
         }
-        while (b != null) {
-            tail.next = new DiseaseRecordLinkedList.Node(
-                    new DiseaseRecord(b.data.diseaseName, b.data.weekNumber, b.data.caseCount));
-            b = b.next;
-            tail = tail.next;
+        int[] order = scratch[0], tmp = scratch[1];
+        for (int i = 0; i < n; i++) order[i] = i;
+        if (parallel) {
+            ForkJoinPool.commonPool().invoke(new SortTask(list, cmp, order, tmp, 0, n));
+        } else {
+            sortRange(list, cmp, order, tmp, 0, n);
         }
-
-        return dummy.next;
+        return order;
     }
 
-    // by week number (ascending order).
-    public static void sortLinkedListByWeek(DiseaseRecordLinkedList list) {
-        list.head = mergeSortByWeek(list.head);
+    // Iterative merge sort of order[from, to), result ends up in order
+    private static void sortRange(DiseaseRecordLinkedList list, RecordComparator cmp, int[] order, int[] tmp, int from, int to) {
+        for (int runStart = from; runStart < to; runStart += INSERTION_RUN) {
+            insertionSort(list, cmp, order, runStart, Math.min(runStart + INSERTION_RUN, to));
+        }
+        int[] src = order, dst = tmp;
+        for (int width = INSERTION_RUN; width < to - from; width *= 2) {
+            for (int lo = from; lo < to; lo += 2 * width) {
+                int mid = Math.min(lo + width, to);
+                int hi = Math.min(lo + 2 * width, to);
+                merge(list, cmp, src, dst, lo, mid, hi);
+            }
+            int[] swap = src; // merged runs are now in dst, read from there next pass
+            src = dst;
+            dst = swap;
+        }
+        if (src != order) System.arraycopy(src, from, order, from, to - from);
     }
 
-    // Recursive merge sort by week number
-    private static DiseaseRecordLinkedList.Node mergeSortByWeek(DiseaseRecordLinkedList.Node head) {
-        if (head == null || head.next == null) return head; // base case
-        DiseaseRecordLinkedList.Node mid = getMiddle(head); // find middle
-        DiseaseRecordLinkedList.Node right = mid.next;
-        mid.next = null;
-
-        DiseaseRecordLinkedList.Node leftSorted = mergeSortByWeek(head);
-        DiseaseRecordLinkedList.Node rightSorted = mergeSortByWeek(right);
-
-        return mergeByWeek(leftSorted, rightSorted);
+    // Stable insertion sort for short runs
+    private static void insertionSort(DiseaseRecordLinkedList list, RecordComparator cmp, int[] order, int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            int row = order[i];
+            int j = i - 1;
+            while (j >= from && cmp.compare(list, order[j], row) > 0) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = row;
+        }
     }
 
-    // Merge two sorted lists by week number (ascending)
-    private static DiseaseRecordLinkedList.Node mergeByWeek(DiseaseRecordLinkedList.Node a, DiseaseRecordLinkedList.Node b) {
-        DiseaseRecordLinkedList.Node dummy = new DiseaseRecordLinkedList.Node(new DiseaseRecord("", 0, 0));
-        DiseaseRecordLinkedList.Node tail = dummy;
-
-        while (a != null && b != null) {
-            if (a.data.weekNumber <= b.data.weekNumber) {
-                tail.next = new DiseaseRecordLinkedList.Node(
-                        new DiseaseRecord(a.data.diseaseName, a.data.weekNumber, a.data.caseCount));
-                a = a.next;
+    // Merge the sorted runs src[lo, mid) and src[mid, hi) into dst[lo, hi), taking the left row on ties
+    private static void merge(DiseaseRecordLinkedList list, RecordComparator cmp, int[] src, int[] dst, int lo, int mid, int hi) {
+        int a = lo, b = mid, out = lo;
+        if (mid >= hi || cmp.compare(list, src[mid - 1], src[mid]) <= 0) {
+            System.arraycopy(src, lo, dst, lo, hi - lo); // runs already in order
+            return;
+        }
+        while (a < mid && b < hi) {
+            if (cmp.compare(list, src[a], src[b]) <= 0) {
+                dst[out++] = src[a++];
             } else {
-                tail.next = new DiseaseRecordLinkedList.Node(
-                        new DiseaseRecord(b.data.diseaseName, b.data.weekNumber, b.data.caseCount));
-                b = b.next;
+                dst[out++] = src[b++];
             }
-            tail = tail.next;
         }
+        // attach remaining rows
+        while (a < mid) dst[out++] = src[a++];
+        while (b < hi) dst[out++] = src[b++];
+    }
 
-        // attach remaining nodes
-        while (a != null) {
-            tail.next = new DiseaseRecordLinkedList.Node(
-                    new DiseaseRecord(a.data.diseaseName, a.data.weekNumber, a.data.caseCount));
-            a = a.next;
-            tail = tail.next;
-        }
-        while (b != null) {
-            tail.next = new DiseaseRecordLinkedList.Node(
-                    new DiseaseRecord(b.data.diseaseName, b.data.weekNumber, b.data.caseCount));
-            b = b.next;
-            tail = tail.next;
+    // Fork/join task: sort both halves in parallel, then merge them
+    private static class SortTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final DiseaseRecordLinkedList list;
+        final RecordComparator cmp;
+        final int[] order, tmp;
+        final int from, to;
+
+        SortTask(DiseaseRecordLinkedList list, RecordComparator cmp, int[] order, int[] tmp, int from, int to) {
+            this.list = list;
+            this.cmp = cmp;
+            this.order = order;
+            this.tmp = tmp;
+            this.from = from;
+            this.to = to;
         }
 
-        return dummy.next;
-    }
-
-    //Find the middle node of a linked list using the fast/slow pointer method.
-    private static DiseaseRecordLinkedList.Node getMiddle(DiseaseRecordLinkedList.Node head) {
-        if (head == null) return head;
-        DiseaseRecordLinkedList.Node slow = head, fast = head.next;
-        while (fast != null && fast.next != null) {
-            slow = slow.next;
-            fast = fast.next.next;
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_CHUNK) {
+                sortRange(list, cmp, order, tmp, from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new SortTask(list, cmp, order, tmp, from, mid),
+                    new SortTask(list, cmp, order, tmp, mid, to));
+            merge(list, cmp, order, tmp, from, mid, to);
+            System.arraycopy(tmp, from, order, from, to - from);
         }
-        return slow;
     }
 }
@@ -0,0 +1,177 @@
+package util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/* In-process metrics: latency histograms (timers), counters and gauges, registered by name.
+ * Recording is lock-free and allocation-free: a timer adds one to a log-linear bucket (16 buckets per power of two,
+ * so a reported percentile is within about 6% of the real value), a counter is a LongAdder, and a gauge is
+ * only evaluated when a snapshot is taken. Look instruments up once and keep them in a field on hot paths.*/
+
+public class Metrics {
+    private static final int SUB_BITS = 4;                 // 2^4 buckets per power of two
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_COUNT;
+
+    // Latency histogram in nanoseconds
+    public static class Timer {
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        public void record(long nanos) {
+            if (nanos < 0) nanos = 0;
+            buckets.incrementAndGet(bucket(nanos));
+            totalNanos.add(nanos);
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) max = maxNanos.get();
+        }
+
+        // Record the time since start (a System.nanoTime() value)
+        public void since(long start) {
+            record(System.nanoTime() - start);
+        }
+
+        // Number of recorded latencies (adds up the buckets, meant for reports rather than hot paths)
+        public long count() {
+            long n = 0;
+            for (int i = 0; i < BUCKETS; i++) n += buckets.get(i);
+            return n;
+        }
+
+        // Copy of the current state; percentiles are read from the copy
+        public TimerSnapshot snapshot() {
+            long[] copy = new long[BUCKETS];
+            long n = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                copy[i] = buckets.get(i);
+                n += copy[i];
+            }
+            return new TimerSnapshot(copy, n, totalNanos.sum(), maxNanos.get());
+        }
+    }
+
+    // Values 0..15 get a bucket each, above that every power of two is split into 16 equal buckets
+    static int bucket(long v) {
+        if (v < SUB_COUNT) return (int) v;
+        int exp = 63 - Long.numberOfLeadingZeros(v); // >= SUB_BITS
+        int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exp - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    // Highest value that falls into a bucket
+    static long bucketLimit(int b) {
+        if (b < SUB_COUNT) return b;
+        int exp = b / SUB_COUNT + SUB_BITS - 1;
+        long sub = b % SUB_COUNT;
+        long width = 1L << (exp - SUB_BITS);
+        return (1L << exp) + (sub + 1) * width - 1;
+    }
+
+    // Frozen copy of a timer
+    public static class TimerSnapshot {
+        private final long[] buckets;
+        public final long count;
+        public final long totalNanos;
+        public final long maxNanos;
+
+        TimerSnapshot(long[] buckets, long count, long totalNanos, long maxNanos) {
+            this.buckets = buckets;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        // Latency at quantile q (0.5 = median, 0.99 = p99), 0 if nothing was recorded
+        public long percentile(double q) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(q * count));
+            long seen = 0;
+            for (int b = 0; b < buckets.length; b++) {
+                seen += buckets[b];
+                if (seen >= rank) return Math.min(bucketLimit(b), maxNanos);
+            }
+            return maxNanos;
+        }
+
+        public long meanNanos() {
+            return count == 0 ? 0 : totalNanos / count;
+        }
+    }
+
+    // Everything registered, read at one moment (timers, counters and gauges are each read without a global pause)
+    public static class Snapshot {
+        public final long uptimeNanos;
+        public final Map<String, TimerSnapshot> timers = new TreeMap<>();
+        public final Map<String, Long> counters = new TreeMap<>();
+        public final Map<String, Long> gauges = new TreeMap<>();
+
+        Snapshot(long uptimeNanos) {
+            this.uptimeNanos = uptimeNanos;
+        }
+
+        // Print the snapshot as three tables
+        public void print() {
+            double seconds = Math.max(1e-9, uptimeNanos / 1e9);
+            System.out.printf("Metrics after %.1f s%n", seconds);
+            System.out.printf("%-24s %10s %10s %10s %10s %10s %10s %10s%n",
+                    "Operation", "Count", "Ops/s", "Mean", "p50", "p99", "p999", "Max");
+            for (Map.Entry<String, TimerSnapshot> e : timers.entrySet()) {
+                TimerSnapshot t = e.getValue();
+                if (t.count == 0) continue;
+                System.out.printf("%-24s %10d %10.1f %10s %10s %10s %10s %10s%n", e.getKey(), t.count, t.count / seconds,
+                        formatNanos(t.meanNanos()), formatNanos(t.percentile(0.5)), formatNanos(t.percentile(0.99)),
+                        formatNanos(t.percentile(0.999)), formatNanos(t.maxNanos));
+            }
+            System.out.printf("%-24s %14s %10s%n", "Counter", "Total", "Per s");
+            for (Map.Entry<String, Long> e : counters.entrySet()) {
+                System.out.printf("%-24s %14d %10.1f%n", e.getKey(), e.getValue(), e.getValue() / seconds);
+            }
+            System.out.printf("%-24s %14s%n", "Gauge", "Value");
+            for (Map.Entry<String, Long> e : gauges.entrySet()) {
+                System.out.printf("%-24s %14d%n", e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    // 850ns, 12.3us, 4.56ms, 1.20s
+    public static String formatNanos(long nanos) {
+        if (nanos < 1_000) return nanos + "ns";
+        if (nanos < 1_000_000) return String.format("%.1fus", nanos / 1e3);
+        if (nanos < 1_000_000_000) return String.format("%.2fms", nanos / 1e6);
+        return String.format("%.2fs", nanos / 1e9);
+    }
+
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    // Timer with this name, created on first use
+    public Timer timer(String name) {
+        return timers.computeIfAbsent(name, n -> new Timer());
+    }
+
+    // Counter with this name, created on first use
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    // Register (or replace) a gauge; value is called for every snapshot
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    public Snapshot snapshot() {
+        Snapshot s = new Snapshot(System.nanoTime() - startNanos);
+        for (Map.Entry<String, Timer> e : timers.entrySet()) s.timers.put(e.getKey(), e.getValue().snapshot());
+        for (Map.Entry<String, LongAdder> e : counters.entrySet()) s.counters.put(e.getKey(), e.getValue().sum());
+        for (Map.Entry<String, LongSupplier> e : gauges.entrySet()) s.gauges.put(e.getKey(), e.getValue().getAsLong());
+        return s;
+    }
+}
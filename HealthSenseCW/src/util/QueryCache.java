@@ -0,0 +1,177 @@
+package util;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/* Bounded cache of query results (trends, synchronized peaks, severity views), keyed by the query's parameters.
+ * Writers bump a version counter of the hospital and of the disease they changed once the change is made. A result is
+ * stored with the version of what it read (one hospital, the spellings of one disease, or any other counter the caller
+ * passes, e.g. SeverityIndex.version()), and a lookup only returns it while that version is unchanged: a change only
+ * makes the results that read its hospital or disease stale, and nothing is scanned or evicted on the write path.
+ * Changes that touch everything (rollups, archives, a new peak window) call invalidateAll().
+ * Entries beyond the size bound are evicted least recently used first. Hits, misses, stale entries and evictions
+ * are counted in Metrics (menu 21). Cached results are shared: callers must not change them.*/
+
+public class QueryCache {
+    public static final int DEFAULT_SIZE = 1024;
+
+    // Parameters of one query: its kind and up to four ids or numbers (unused ones 0)
+    public static final class Key {
+        final String kind;
+        final int a, b, c, d;
+
+        public Key(String kind, int a, int b, int c, int d) {
+            this.kind = kind;
+            this.a = a;
+            this.b = b;
+            this.c = c;
+            this.d = d;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return a == k.a && b == k.b && c == k.c && d == k.d && kind.equals(k.kind);
+        }
+
+        @Override
+        public int hashCode() {
+            return (((kind.hashCode() * 31 + a) * 31 + b) * 31 + c) * 31 + d;
+        }
+    }
+
+    /* One version counter per id (hospital id or disease id), grown as ids appear. LongAdder, so writers on several
+     * threads bump the same disease without contending; a lookup adds up its cells.*/
+    public static final class Versions {
+        // Replaced by bigger copies under this object's lock, holding the same counters so no bump is lost
+        private volatile LongAdder[] counters = new LongAdder[0];
+
+        // Something stored under id changed (call after the change is made)
+        public void bump(int id) {
+            counter(id).increment();
+        }
+
+        public long get(int id) {
+            return counter(id).sum();
+        }
+
+        // Sum of the versions of several ids (e.g. every spelling of a disease); grows whenever one of them is bumped
+        public long get(int[] ids) {
+            long sum = 0;
+            for (int id : ids) sum += counter(id).sum();
+            return sum;
+        }
+
+        private LongAdder counter(int id) {
+            LongAdder[] table = counters;
+            if (id < table.length) return table[id];
+            synchronized (this) {
+                table = counters;
+                if (id >= table.length) {
+                    int oldLength = table.length;
+                    table = Arrays.copyOf(table, Math.max(id + 1, Math.max(8, oldLength * 2)));
+                    for (int i = oldLength; i < table.length; i++) table[i] = new LongAdder();
+                    counters = table;
+                }
+                return table[id];
+            }
+        }
+    }
+
+    // A stored result and the version (and invalidateAll generation) it was computed at
+    private static final class Entry {
+        final Object value;
+        final long version;
+        final long generation;
+
+        Entry(Object value, long version, long generation) {
+            this.value = value;
+            this.version = version;
+            this.generation = generation;
+        }
+    }
+
+    public final Versions hospitals = new Versions(); // by Hospital.id
+    public final Versions diseases = new Versions();  // by disease id (one per spelling)
+
+    private int capacity;
+    private long generation = 0; // bumped by invalidateAll
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) { // access order
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            if (size() <= capacity) return false;
+            evictions.increment();
+            return true;
+        }
+    };
+    private final LongAdder hits, misses, stale, evictions;
+
+    public QueryCache(Metrics metrics, int capacity) {
+        hits = metrics.counter("cache.hits");
+        misses = metrics.counter("cache.misses");
+        stale = metrics.counter("cache.stale");         // found but outdated, counted as misses too
+        evictions = metrics.counter("cache.evictions");
+        setCapacity(capacity);
+        metrics.gauge("cache.entries", this::size);
+        metrics.gauge("cache.hitPercent", () -> {
+            long h = hits.sum(), total = h + misses.sum();
+            return total == 0 ? 0 : h * 100 / total;
+        });
+    }
+
+    // Most results kept (0 turns the cache off), the least recently used ones beyond it are dropped now
+    public synchronized void setCapacity(int capacity) {
+        if (capacity < 0) throw new IllegalArgumentException("cache size must not be negative");
+        this.capacity = capacity;
+        java.util.Iterator<Entry> oldest = entries.values().iterator();
+        while (entries.size() > capacity) {
+            oldest.next();
+            oldest.remove();
+            evictions.increment();
+        }
+    }
+
+    public synchronized int capacity() {
+        return capacity;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /* The result of a query with this key, computed by compute unless a result computed at the same version is stored.
+     * The version is read before compute runs (passing it as an argument does that), so a change made while computing
+     * leaves the stored result stale instead of storing a stale result as current. compute runs without the cache's lock.*/
+    @SuppressWarnings("unchecked")
+    public <T> T get(Key key, long version, Supplier<T> compute) {
+        long seenGeneration;
+        synchronized (this) {
+            Entry e = entries.get(key);
+            if (e != null && e.version == version && e.generation == generation) {
+                hits.increment();
+                return (T) e.value;
+            }
+            if (e != null) {
+                entries.remove(key);
+                stale.increment();
+            }
+            seenGeneration = generation;
+        }
+        misses.increment();
+        T value = compute.get();
+        synchronized (this) {
+            if (capacity > 0 && seenGeneration == generation) entries.put(key, new Entry(value, version, seenGeneration));
+        }
+        return value;
+    }
+
+    // Every stored result is stale (a change that may touch any hospital or disease)
+    public synchronized void invalidateAll() {
+        generation++;
+        entries.clear();
+    }
+}
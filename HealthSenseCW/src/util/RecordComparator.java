@@ -0,0 +1,27 @@
+package util;
+
+import model.disease.DiseaseRecordLinkedList;
+
+// Compares two rows of a disease history, used by MergeSortUtil.
+// Negative means row a sorts before row b. Rows are compared in the columns, no DiseaseRecord is built.
+public interface RecordComparator {
+    int compare(DiseaseRecordLinkedList list, int a, int b);
+
+    // Case count, highest first
+    RecordComparator BY_COUNT_DESC = (list, a, b) -> Integer.compare(list.countAt(b), list.countAt(a));
+
+    // Week number, earliest first
+    RecordComparator BY_WEEK = (list, a, b) -> Integer.compare(list.weekAt(a), list.weekAt(b));
+
+    // Disease name, alphabetical ignoring case
+    RecordComparator BY_DISEASE = (list, a, b) -> list.diseaseIdAt(a) == list.diseaseIdAt(b)
+            ? 0 : String.CASE_INSENSITIVE_ORDER.compare(list.diseaseAt(a), list.diseaseAt(b));
+
+    // Composite key: use next to break ties of this comparator
+    default RecordComparator then(RecordComparator next) {
+        return (list, a, b) -> {
+            int c = compare(list, a, b);
+            return c != 0 ? c : next.compare(list, a, b);
+        };
+    }
+}
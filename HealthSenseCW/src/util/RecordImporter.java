@@ -0,0 +1,341 @@
+package util;
+
+import model.disease.DiseaseDictionary;
+import model.hospital.Hospital;
+import model.hospital.HospitalManager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/* Bulk loader for hospital/disease/week/count files.
+ * Accepts CSV lines (hospital,disease,week,count with an optional header) or NDJSON lines
+ * ({"hospital":..,"disease":..,"week":..,"count":..}). The file is streamed through one reusable
+ * byte buffer and parsed in place, rows are handed to a sink in batches with no console output.*/
+
+public class RecordImporter {
+    public static final int BATCH_SIZE = 4096;       // rows handed to the sink at once
+    private static final int BUFFER_SIZE = 1 << 20; // 1 MB read buffer
+
+    // Receives parsed rows in batches (columns are only valid during the call), returns how many rows it kept
+    public interface BatchSink {
+        int accept(Hospital[] hospitals, int[] diseaseIds, int[] weeks, int[] counts, int n);
+    }
+
+    // Summary of one import run
+    public static class Result {
+        public static final int MAX_PROBLEMS = 10;
+        public long rows;     // rows loaded
+        public long rejected; // rows skipped (bad format, unknown hospital, non-positive values, weeks already rolled up)
+        public long nanos;    // wall time of the import
+        public final java.util.List<String> problems = new java.util.ArrayList<>(); // "line n: reason" of the first rejected rows
+
+        // Count a skipped row, keeping the reason of the first MAX_PROBLEMS
+        void reject(long line, String reason) {
+            rejected++;
+            if (problems.size() < MAX_PROBLEMS) problems.add("line " + line + ": " + reason);
+        }
+
+        // Count rows of lines first .. last that the sink did not keep
+        void reject(long first, long last, int rows, String reason) {
+            rejected += rows;
+            if (problems.size() < MAX_PROBLEMS) problems.add("lines " + first + "-" + last + ": " + rows + " " + reason);
+        }
+
+        public double rowsPerSecond() {
+            return nanos == 0 ? 0 : rows * 1_000_000_000.0 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d rows loaded, %d rejected in %.2f s (%.0f rows/sec)",
+                    rows, rejected, nanos / 1e9, rowsPerSecond());
+        }
+    }
+
+    private final HospitalManager hospitalManager;
+    private final BatchSink sink;
+
+    // Current batch, stored column by column
+    private final Hospital[] batchHospitals = new Hospital[BATCH_SIZE];
+    private final int[] batchDiseases = new int[BATCH_SIZE];
+    private final int[] batchWeeks = new int[BATCH_SIZE];
+    private final int[] batchCounts = new int[BATCH_SIZE];
+    private int batchSize = 0;
+    private long batchFirstLine;  // line of the batch's first row
+
+    // Feeds are usually grouped by hospital and disease, so remember the last names seen
+    // and skip building a String when the next row repeats them
+    private byte[] lastHospitalName = new byte[0];
+    private Hospital lastHospital;
+    private byte[] lastDiseaseName = new byte[0];
+    private int lastDiseaseId = -1;
+
+    // Fields of the line being parsed
+    private int hospitalOff, hospitalLen, diseaseOff, diseaseLen, week, count;
+    private String hospitalText, diseaseText; // set instead of offsets when a JSON string had escapes
+    private String problem;                   // why the line could not be parsed, null for the usual reasons
+    private long line;                        // number of the line being parsed, from 1
+
+    private Result result;
+
+    public RecordImporter(HospitalManager hospitalManager, BatchSink sink) {
+        this.hospitalManager = hospitalManager;
+        this.sink = sink;
+    }
+
+    // Load every line of the file and return the row counts and timing
+    public Result importFile(Path path) throws IOException {
+        result = new Result();
+        line = 0;
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+            boolean eof = false;
+            boolean firstLine = true;
+            while (!eof) {
+                if (channel.read(buf) == -1) eof = true;
+                byte[] a = buf.array();
+                int limit = buf.position();
+                int lineStart = 0;
+                for (int i = 0; i < limit; i++) {
+                    if (a[i] != '\n') continue;
+                    parseLine(a, lineStart, i, firstLine);
+                    firstLine = false;
+                    lineStart = i + 1;
+                }
+                if (eof && lineStart < limit) {
+                    parseLine(a, lineStart, limit, firstLine); // last line without a newline
+                    lineStart = limit;
+                }
+                // keep the unfinished line at the front of the buffer for the next read
+                int left = limit - lineStart;
+                if (left == a.length) {
+                    ByteBuffer bigger = ByteBuffer.allocate(a.length * 2); // line longer than the buffer
+                    bigger.put(a, 0, left);
+                    buf = bigger;
+                } else {
+                    System.arraycopy(a, lineStart, a, 0, left);
+                    buf.position(left);
+                }
+            }
+        }
+        flush();
+        result.nanos = System.nanoTime() - start;
+        return result;
+    }
+
+    // Parse one line [from, to) and add it to the batch
+    private void parseLine(byte[] a, int from, int to, boolean firstLine) {
+        line++;
+        if (to > from && a[to - 1] == '\r') to--;
+        while (from < to && a[from] <= ' ') from++;
+        if (from == to) return; // blank line
+        hospitalText = null;
+        diseaseText = null;
+        problem = null;
+        boolean json = a[from] == '{';
+        boolean ok = json ? parseJson(a, from, to) : parseCsv(a, from, to);
+        if (!ok) {
+            // a CSV header is not counted as a rejected row
+            if (!(firstLine && !json)) {
+                result.reject(line, problem != null ? problem : json ? "not a JSON record with hospital, disease, week and count"
+                        : "not a hospital,disease,week,count row");
+            }
+            return;
+        }
+        Hospital h = resolveHospital(a);
+        if (h == null) {
+            result.reject(line, "unknown hospital " + (hospitalText != null ? hospitalText : new String(a, hospitalOff, hospitalLen, StandardCharsets.UTF_8)));
+            return;
+        }
+        if (week <= 0 || count <= 0) {
+            result.reject(line, "week and count must be positive");
+            return;
+        }
+        if (batchSize == 0) batchFirstLine = line;
+        batchHospitals[batchSize] = h;
+        batchDiseases[batchSize] = resolveDisease(a);
+        batchWeeks[batchSize] = week;
+        batchCounts[batchSize] = count;
+        if (++batchSize == BATCH_SIZE) flush();
+    }
+
+    // hospital,disease,week,count
+    private boolean parseCsv(byte[] a, int from, int to) {
+        int c1 = indexOf(a, ',', from, to);
+        int c2 = indexOf(a, ',', c1 + 1, to);
+        int c3 = indexOf(a, ',', c2 + 1, to);
+        if (c1 < 0 || c2 < 0 || c3 < 0 || indexOf(a, ',', c3 + 1, to) >= 0) return false;
+        hospitalOff = trimStart(a, from, c1);
+        hospitalLen = trimEnd(a, hospitalOff, c1) - hospitalOff;
+        diseaseOff = trimStart(a, c1 + 1, c2);
+        diseaseLen = trimEnd(a, diseaseOff, c2) - diseaseOff;
+        week = parseInt(a, c2 + 1, c3);
+        count = parseInt(a, c3 + 1, to);
+        return hospitalLen > 0 && diseaseLen > 0 && week != Integer.MIN_VALUE && count != Integer.MIN_VALUE;
+    }
+
+    // {"hospital":"..","disease":"..","week":n,"count":n} in any key order, other keys are ignored
+    private boolean parseJson(byte[] a, int from, int to) {
+        hospitalLen = diseaseLen = -1;
+        week = count = Integer.MIN_VALUE;
+        int i = from + 1;
+        while (i < to) {
+            while (i < to && (a[i] <= ' ' || a[i] == ',')) i++;
+            if (i >= to || a[i] == '}') break;
+            if (a[i] != '"') return false;
+            int keyEnd = indexOf(a, '"', i + 1, to);
+            if (keyEnd < 0) return false;
+            int keyOff = i + 1, keyLen = keyEnd - keyOff;
+            i = indexOf(a, ':', keyEnd + 1, to);
+            if (i < 0) return false;
+            i++;
+            while (i < to && a[i] <= ' ') i++;
+            if (i < to && a[i] == '"') {
+                int valOff = i + 1, valEnd = valOff;
+                boolean escaped = false;
+                while (valEnd < to && a[valEnd] != '"') {
+                    if (a[valEnd] == '\\') {
+                        escaped = true;
+                        valEnd++;
+                    }
+                    valEnd++;
+                }
+                if (valEnd >= to) return false;
+                if (keyIs(a, keyOff, keyLen, "hospital")) {
+                    hospitalOff = valOff;
+                    hospitalLen = valEnd - valOff;
+                    if (escaped && (hospitalText = unescape(a, valOff, valEnd)) == null) return false;
+                } else if (keyIs(a, keyOff, keyLen, "disease")) {
+                    diseaseOff = valOff;
+                    diseaseLen = valEnd - valOff;
+                    if (escaped && (diseaseText = unescape(a, valOff, valEnd)) == null) return false;
+                }
+                i = valEnd + 1;
+            } else {
+                int valEnd = i;
+                while (valEnd < to && a[valEnd] != ',' && a[valEnd] != '}') valEnd++;
+                if (keyIs(a, keyOff, keyLen, "week")) week = parseInt(a, i, valEnd);
+                else if (keyIs(a, keyOff, keyLen, "count")) count = parseInt(a, i, valEnd);
+                i = valEnd;
+            }
+        }
+        return hospitalLen > 0 && diseaseLen > 0 && week != Integer.MIN_VALUE && count != Integer.MIN_VALUE;
+    }
+
+    // Look up the row's hospital, reusing the previous one when the name bytes repeat
+    private Hospital resolveHospital(byte[] a) {
+        if (hospitalText != null) return hospitalManager.getHospitalByName(hospitalText);
+        if (lastHospital != null && sameBytes(lastHospitalName, a, hospitalOff, hospitalLen)) return lastHospital;
+        Hospital h = hospitalManager.getHospitalByName(new String(a, hospitalOff, hospitalLen, StandardCharsets.UTF_8));
+        if (h != null) {
+            lastHospitalName = java.util.Arrays.copyOfRange(a, hospitalOff, hospitalOff + hospitalLen);
+            lastHospital = h;
+        }
+        return h;
+    }
+
+    // Encode the row's disease, reusing the previous id when the name bytes repeat
+    private int resolveDisease(byte[] a) {
+        if (diseaseText != null) return DiseaseDictionary.idOf(diseaseText);
+        if (lastDiseaseId >= 0 && sameBytes(lastDiseaseName, a, diseaseOff, diseaseLen)) return lastDiseaseId;
+        lastDiseaseName = java.util.Arrays.copyOfRange(a, diseaseOff, diseaseOff + diseaseLen);
+        lastDiseaseId = DiseaseDictionary.idOf(new String(lastDiseaseName, StandardCharsets.UTF_8));
+        return lastDiseaseId;
+    }
+
+    // Hand the current batch to the sink
+    private void flush() {
+        if (batchSize == 0) return;
+        int kept = sink.accept(batchHospitals, batchDiseases, batchWeeks, batchCounts, batchSize);
+        result.rows += kept;
+        if (kept < batchSize) result.reject(batchFirstLine, line, batchSize - kept, "rows of weeks already rolled up");
+        java.util.Arrays.fill(batchHospitals, 0, batchSize, null);
+        batchSize = 0;
+    }
+
+    private static int indexOf(byte[] a, char c, int from, int to) {
+        if (from < 0) return -1;
+        for (int i = from; i < to; i++) {
+            if (a[i] == c) return i;
+        }
+        return -1;
+    }
+
+    private static int trimStart(byte[] a, int from, int to) {
+        while (from < to && a[from] <= ' ') from++;
+        return from;
+    }
+
+    private static int trimEnd(byte[] a, int from, int to) {
+        while (to > from && a[to - 1] <= ' ') to--;
+        return to;
+    }
+
+    // Parse a positive or negative int from ASCII digits, Integer.MIN_VALUE if it is not a number
+    private static int parseInt(byte[] a, int from, int to) {
+        from = trimStart(a, from, to);
+        to = trimEnd(a, from, to);
+        if (from == to) return Integer.MIN_VALUE;
+        boolean negative = a[from] == '-';
+        if (negative && ++from == to) return Integer.MIN_VALUE;
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int d = a[i] - '0';
+            if (d < 0 || d > 9) return Integer.MIN_VALUE;
+            value = value * 10 + d;
+            if (value > Integer.MAX_VALUE) return Integer.MIN_VALUE;
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    private static boolean keyIs(byte[] a, int off, int len, String key) {
+        if (len != key.length()) return false;
+        for (int i = 0; i < len; i++) {
+            if (a[off + i] != key.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static boolean sameBytes(byte[] saved, byte[] a, int off, int len) {
+        return java.util.Arrays.equals(saved, 0, saved.length, a, off, off + len);
+    }
+
+    // Decode a JSON string body that contains backslash escapes, null (and problem set) if a unicode escape is not 4 hex digits
+    private String unescape(byte[] a, int from, int to) {
+        String raw = new String(a, from, to - from, StandardCharsets.UTF_8);
+        StringBuilder sb = new StringBuilder(raw.length());
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (c != '\\' || i + 1 == raw.length()) {
+                sb.append(c);
+                continue;
+            }
+            char e = raw.charAt(++i);
+            switch (e) {
+                case 'n': sb.append('\n'); break;
+                case 't': sb.append('\t'); break;
+                case 'r': sb.append('\r'); break;
+                case 'u':
+                    int code = 0;
+                    for (int k = i + 1; k <= i + 4; k++) {
+                        int digit = k < raw.length() ? Character.digit(raw.charAt(k), 16) : -1;
+                        if (digit < 0) {
+                            problem = "bad \\u escape in \"" + raw + "\"";
+                            return null;
+                        }
+                        code = code * 16 + digit;
+                    }
+                    sb.append((char) code);
+                    i += 4;
+                    break;
+                default: sb.append(e); // \" \\ \/
+            }
+        }
+        return sb.toString();
+    }
+}
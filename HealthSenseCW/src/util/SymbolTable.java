@@ -0,0 +1,100 @@
+package util;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/* Case-insensitive symbol table: gives every distinct name (ignoring case, as equalsIgnoreCase does) a dense int id,
+ * 0, 1, 2, ... in order of first appearance, so callers store and compare ints instead of strings.
+ * Open addressing over a power-of-two slot array; the hash folds case while it reads the characters and slots are
+ * compared with regionMatches(ignoreCase), so a lookup never allocates (no toLowerCase copy).
+ * Lookups are lock-free, adding a name takes a lock. nameOf returns the first spelling seen.*/
+
+public class SymbolTable {
+    // One name and its id (immutable, so a reader that sees the slot sees both)
+    private static final class Entry {
+        final String name;
+        final int hash;
+        final int id;
+
+        Entry(String name, int hash, int id) {
+            this.name = name;
+            this.hash = hash;
+            this.id = id;
+        }
+    }
+
+    private volatile AtomicReferenceArray<Entry> slots = new AtomicReferenceArray<>(16);
+    private volatile String[] names = new String[8]; // id -> first spelling
+    private volatile int count = 0;
+
+    // Id of a name, adding it if it is new
+    public int idOf(String name) {
+        int id = find(name);
+        return id >= 0 ? id : add(name);
+    }
+
+    // Id of a name if it is known, otherwise -1
+    public int find(String name) {
+        int h = hash(name);
+        AtomicReferenceArray<Entry> table = slots;
+        int mask = table.length() - 1;
+        for (int i = h & mask; ; i = (i + 1) & mask) {
+            Entry e = table.get(i);
+            if (e == null) return -1;
+            if (e.hash == h && matches(e.name, name)) return e.id;
+        }
+    }
+
+    // First spelling stored for an id
+    public String nameOf(int id) {
+        return names[id];
+    }
+
+    // Number of distinct names
+    public int size() {
+        return count;
+    }
+
+    // Slow path for a new name. The name is stored under its id before the slot is published.
+    private synchronized int add(String name) {
+        int id = find(name);
+        if (id >= 0) return id; // added by another thread first
+        id = count;
+        String[] table = names;
+        if (id == table.length) table = Arrays.copyOf(table, id * 2);
+        table[id] = name;
+        names = table;
+        if (2 * (id + 1) > slots.length()) rehash(slots.length() * 2); // keep the load factor at most 1/2
+        insert(slots, new Entry(name, hash(name), id));
+        count = id + 1;
+        return id;
+    }
+
+    private void rehash(int capacity) {
+        AtomicReferenceArray<Entry> grown = new AtomicReferenceArray<>(capacity);
+        AtomicReferenceArray<Entry> old = slots;
+        for (int i = 0; i < old.length(); i++) {
+            Entry e = old.get(i);
+            if (e != null) insert(grown, e);
+        }
+        slots = grown;
+    }
+
+    private static void insert(AtomicReferenceArray<Entry> table, Entry e) {
+        int mask = table.length() - 1;
+        int i = e.hash & mask;
+        while (table.get(i) != null) i = (i + 1) & mask;
+        table.set(i, e);
+    }
+
+    private static boolean matches(String stored, String name) {
+        return stored.length() == name.length() && stored.regionMatches(true, 0, name, 0, name.length());
+    }
+
+    // Hash of the case-folded characters, equal for names that are equal ignoring case
+    static int hash(String s) {
+        int h = 0;
+        for (int i = 0; i < s.length(); i++) h = 31 * h + Character.toLowerCase(Character.toUpperCase(s.charAt(i)));
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,337 @@
+package util;
+
+import model.disease.DiseaseDictionary;
+import model.disease.DiseaseRecordLinkedList;
+import model.disease.HistoryArchive;
+import model.hospital.Hospital;
+import model.hospital.HospitalManager;
+import model.outbreak.OutbreakReport;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.function.Consumer;
+
+/* Deterministic synthetic workload: hospitals, weekly disease records and outbreak reports built from a seed.
+ *   - hospitals "Hospital-<i>" spread round robin over regions "Region-<r>", diseases "Disease<d>";
+ *   - hospital sizes and disease prevalence follow a Zipf law (skew), so a few hospitals and diseases dominate;
+ *   - each (region, disease) gets seasonal waves plus a few outbreaks shaped as bell curves with heavy-tailed
+ *     heights, every hospital follows its region's curve a few weeks late or early;
+ *   - a (hospital, disease, week) cell is reported about records / (weeks * sum of weights) times, each record
+ *     carrying a log-normal share of the expected cases (counts are skewed, never below 1);
+ *   - a report is raised when a hospital's expected cases for a disease first exceed reportThreshold times its baseline
+ *     (only hospitals expecting at least reportMinCases cases that week report).
+ * Every cell draws from its own random stream derived from (seed, hospital, disease, week), so the same config always
+ * gives the same data, whether it is generated in week order for ingestion or one hospital at a time for storage.
+ * Run: java util.WorkloadGenerator [key=value...] (archives=<dir> | csv=<file>), keys as in Config.*/
+
+public class WorkloadGenerator {
+    // Parameters, all with defaults; set from "key=value" strings
+    public static class Config {
+        public long seed = 42;
+        public int hospitals = 1000;
+        public int regions = 25;
+        public int diseases = 20;
+        public int weeks = 520;
+        public long records = 1_000_000;       // expected number of records (the exact count depends on the seed)
+        public double skew = 1.0;              // Zipf exponent of hospital sizes and disease prevalence
+        public double outbreaksPerYear = 1.5;  // per region and disease
+        public double reportThreshold = 4.0;   // expected cases over baseline that raise a report, 0 for no reports
+        public int reportMinCases = 500;       // smaller hospitals do not raise reports
+        public int baseline = 20;              // average weekly cases of a (hospital, disease) outside outbreaks
+
+        // Set one parameter from "key=value"; unknown keys are an error
+        public Config set(String keyValue) {
+            int eq = keyValue.indexOf('=');
+            if (eq < 0) throw new IllegalArgumentException("expected key=value: " + keyValue);
+            String key = keyValue.substring(0, eq).trim(), value = keyValue.substring(eq + 1).trim();
+            switch (key) {
+                case "seed": seed = Long.parseLong(value); break;
+                case "hospitals": hospitals = Integer.parseInt(value); break;
+                case "regions": regions = Integer.parseInt(value); break;
+                case "diseases": diseases = Integer.parseInt(value); break;
+                case "weeks": weeks = Integer.parseInt(value); break;
+                case "records": records = Long.parseLong(value); break;
+                case "skew": skew = Double.parseDouble(value); break;
+                case "outbreaksPerYear": outbreaksPerYear = Double.parseDouble(value); break;
+                case "reportThreshold": reportThreshold = Double.parseDouble(value); break;
+                case "reportMinCases": reportMinCases = Integer.parseInt(value); break;
+                case "baseline": baseline = Integer.parseInt(value); break;
+                default: throw new IllegalArgumentException("unknown workload parameter: " + key);
+            }
+            return this;
+        }
+
+        // Comma separated "key=value" pairs, e.g. "hospitals=10000,records=5000000,seed=7"
+        public static Config parse(String spec) {
+            Config c = new Config();
+            for (String part : spec.split(",")) {
+                if (!part.isBlank()) c.set(part);
+            }
+            return c;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("seed=%d hospitals=%d regions=%d diseases=%d weeks=%d records=%d skew=%.2f",
+                    seed, hospitals, regions, diseases, weeks, records, skew);
+        }
+    }
+
+    // Receives one generated record
+    public interface RecordSink {
+        void record(int hospital, int diseaseId, int week, int count);
+    }
+
+    private static final int MAX_LAG = 2; // hospitals follow their region's curve up to 2 weeks early or late
+
+    private final Config config;
+    private final int[] diseaseIds;  // DiseaseDictionary id of each generated disease
+    private final double[] expected; // expected records per week of each (hospital, disease): hospitalWeight * diseaseWeight * scale
+    private final double[] baseline; // expected weekly cases of each (hospital, disease) outside outbreaks
+    private final int[] lag;         // weeks each hospital lags its region
+    private final float[] curve;     // (region, disease, week + MAX_LAG) -> multiple of baseline cases
+
+    public WorkloadGenerator(Config config) {
+        if (config.hospitals < 1 || config.regions < 1 || config.diseases < 1 || config.weeks < 1 || config.records < 0) {
+            throw new IllegalArgumentException("invalid workload: " + config);
+        }
+        this.config = config;
+        int h = config.hospitals, d = config.diseases;
+        diseaseIds = new int[d];
+        for (int i = 0; i < d; i++) diseaseIds[i] = DiseaseDictionary.idOf("Disease" + i);
+        double[] hospitalWeight = zipf(h, config.skew), diseaseWeight = zipf(d, config.skew);
+        double weightSum = 0;
+        for (double hw : hospitalWeight) {
+            for (double dw : diseaseWeight) weightSum += hw * dw;
+        }
+        double scale = config.records / (config.weeks * weightSum);
+        double mean = weightSum / ((double) h * d);
+        expected = new double[h * d];
+        baseline = new double[h * d];
+        lag = new int[h];
+        for (int i = 0; i < h; i++) {
+            lag[i] = Math.floorMod(mix(config.seed, i, -1, -1), 2 * MAX_LAG + 1) - MAX_LAG;
+            for (int j = 0; j < d; j++) {
+                expected[i * d + j] = hospitalWeight[i] * diseaseWeight[j] * scale;
+                baseline[i * d + j] = config.baseline * hospitalWeight[i] * diseaseWeight[j] / mean;
+            }
+        }
+        curve = buildCurves();
+    }
+
+    public Config config() {
+        return config;
+    }
+
+    public String hospitalName(int hospital) {
+        return "Hospital-" + hospital;
+    }
+
+    public String regionName(int hospital) {
+        return "Region-" + hospital % config.regions;
+    }
+
+    public String diseaseName(int disease) {
+        return "Disease" + disease;
+    }
+
+    /* Every record in week order (then hospital, then disease), the way a live feed delivers them.
+     * reports (may be null) gets each outbreak report in the week it is raised, after that week's records.*/
+    public void generate(RecordSink records, Consumer<OutbreakReport> reports) {
+        for (int w = 1; w <= config.weeks; w++) {
+            for (int h = 0; h < config.hospitals; h++) {
+                for (int d = 0; d < config.diseases; d++) cell(h, d, w, records);
+            }
+            if (reports == null || config.reportThreshold <= 0) continue;
+            for (int h = 0; h < config.hospitals; h++) {
+                for (int d = 0; d < config.diseases; d++) {
+                    OutbreakReport report = report(h, d, w);
+                    if (report != null) reports.accept(report);
+                }
+            }
+        }
+    }
+
+    // Feed everything through a batch sink (e.g. SystemEngine.ingestBatch), returns the rows it kept. Hospitals must already be registered.
+    public long ingest(HospitalManager hospitals, RecordImporter.BatchSink sink, Consumer<OutbreakReport> reports) {
+        Hospital[] byIndex = new Hospital[config.hospitals];
+        for (int h = 0; h < byIndex.length; h++) {
+            byIndex[h] = hospitals.getHospitalByName(hospitalName(h));
+            if (byIndex[h] == null) throw new IllegalStateException("hospital not registered: " + hospitalName(h));
+        }
+        int size = RecordImporter.BATCH_SIZE;
+        Hospital[] hs = new Hospital[size];
+        int[] ds = new int[size], ws = new int[size], cs = new int[size];
+        int[] filled = {0};
+        long[] total = {0};
+        generate((h, diseaseId, week, count) -> {
+            int i = filled[0]++;
+            hs[i] = byIndex[h];
+            ds[i] = diseaseId;
+            ws[i] = week;
+            cs[i] = count;
+            if (filled[0] == size) {
+                total[0] += sink.accept(hs, ds, ws, cs, size);
+                filled[0] = 0;
+            }
+        }, report -> {
+            // reports of a week follow its records, so flush them first
+            if (filled[0] > 0) {
+                total[0] += sink.accept(hs, ds, ws, cs, filled[0]);
+                filled[0] = 0;
+            }
+            if (reports != null) reports.accept(report);
+        });
+        if (filled[0] > 0) total[0] += sink.accept(hs, ds, ws, cs, filled[0]);
+        return total[0];
+    }
+
+    // One hospital's history, the same rows in the same order as generate() gives that hospital
+    public DiseaseRecordLinkedList history(int hospital) {
+        DiseaseRecordLinkedList list = new DiseaseRecordLinkedList();
+        for (int w = 1; w <= config.weeks; w++) {
+            for (int d = 0; d < config.diseases; d++) cell(hospital, d, w, (h, diseaseId, week, count) -> list.append(diseaseId, week, count));
+        }
+        return list;
+    }
+
+    // Write every hospital straight to a history archive in dir (one hospital in memory at a time). Returns the rows written.
+    public long writeArchives(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        long rows = 0;
+        for (int h = 0; h < config.hospitals; h++) {
+            DiseaseRecordLinkedList list = history(h);
+            HistoryArchive.write(dir.resolve(hospitalName(h) + ".hsa"), hospitalName(h), regionName(h), list);
+            rows += list.size();
+        }
+        return rows;
+    }
+
+    // Write every record as a hospital,disease,week,count CSV file (the format RecordImporter loads). Returns the rows written.
+    public long writeCsv(Path file) throws IOException {
+        long[] rows = {0};
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("hospital,disease,week,count\n");
+            IOException[] failed = {null};
+            generate((h, diseaseId, week, count) -> {
+                if (failed[0] != null) return;
+                try {
+                    out.write(hospitalName(h) + ',' + DiseaseDictionary.nameOf(diseaseId) + ',' + week + ',' + count + '\n');
+                    rows[0]++;
+                } catch (IOException e) {
+                    failed[0] = e;
+                }
+            }, null);
+            if (failed[0] != null) throw failed[0];
+        }
+        return rows[0];
+    }
+
+    // Emit the records of one (hospital, disease, week) cell
+    private void cell(int h, int d, int w, RecordSink sink) {
+        int i = h * config.diseases + d;
+        SplittableRandom r = new SplittableRandom(mix(config.seed, h, d, w));
+        double lambda = expected[i];
+        int n = (int) lambda + (r.nextDouble() < lambda - (int) lambda ? 1 : 0);
+        if (n == 0) return;
+        double share = baseline[i] * multiple(h, d, w) / n; // expected cases per record this week
+        for (int k = 0; k < n; k++) {
+            double noise = Math.exp(0.5 * gaussian(r) - 0.125); // log-normal with mean 1
+            sink.record(h, diseaseIds[d], w, (int) Math.max(1, Math.round(share * noise)));
+        }
+    }
+
+    // Report raised when a hospital's expected cases cross the threshold (upwards) in week w, else null
+    private OutbreakReport report(int h, int d, int w) {
+        double now = multiple(h, d, w);
+        if (now < config.reportThreshold || (w > 1 && multiple(h, d, w - 1) >= config.reportThreshold)) return null;
+        int cases = (int) Math.round(baseline[h * config.diseases + d] * now);
+        if (cases < config.reportMinCases) return null;
+        String summary = String.format("%s cases rising at %s (week %d, %.1fx baseline)", diseaseName(d), hospitalName(h), w, now);
+        return new OutbreakReport(regionName(h), hospitalName(h), summary, cases);
+    }
+
+    // Expected cases of a hospital in week w as a multiple of its baseline
+    private double multiple(int h, int d, int w) {
+        int r = h % config.regions;
+        return curve[(r * config.diseases + d) * (config.weeks + 2 * MAX_LAG) + w - 1 + MAX_LAG - lag[h]];
+    }
+
+    // Seasonal wave plus outbreaks of every (region, disease), sampled for weeks 1 - MAX_LAG .. weeks + MAX_LAG
+    private float[] buildCurves() {
+        int span = config.weeks + 2 * MAX_LAG;
+        float[] c = new float[config.regions * config.diseases * span];
+        double outbreaks = config.outbreaksPerYear * config.weeks / 52.0;
+        for (int r = 0; r < config.regions; r++) {
+            for (int d = 0; d < config.diseases; d++) {
+                SplittableRandom rnd = new SplittableRandom(mix(config.seed, -2 - r, d, -1));
+                double phase = new SplittableRandom(mix(config.seed, -1, d, -1)).nextDouble(52); // shared by all regions
+                int n = (int) outbreaks + (rnd.nextDouble() < outbreaks - (int) outbreaks ? 1 : 0);
+                double[] peak = new double[n], width = new double[n], height = new double[n];
+                for (int k = 0; k < n; k++) {
+                    peak[k] = 1 + rnd.nextDouble(config.weeks);
+                    width[k] = 1.5 + rnd.nextDouble(4.5);
+                    height[k] = Math.exp(Math.log(6) + 0.8 * gaussian(rnd)); // median 6x baseline, heavy tail
+                }
+                int base = (r * config.diseases + d) * span;
+                for (int x = 0; x < span; x++) {
+                    int week = x + 1 - MAX_LAG;
+                    double m = 1 + 0.3 * Math.sin(2 * Math.PI * (week + phase) / 52);
+                    for (int k = 0; k < n; k++) {
+                        double z = (week - peak[k]) / width[k];
+                        if (z > -6 && z < 6) m += height[k] * Math.exp(-0.5 * z * z);
+                    }
+                    c[base + x] = (float) m;
+                }
+            }
+        }
+        return c;
+    }
+
+    // Zipf weights 1, 1/2^s, 1/3^s, ...
+    private static double[] zipf(int n, double s) {
+        double[] w = new double[n];
+        for (int i = 0; i < n; i++) w[i] = 1 / Math.pow(i + 1, s);
+        return w;
+    }
+
+    private static double gaussian(SplittableRandom r) {
+        double u = 1 - r.nextDouble(); // (0, 1]
+        return Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * r.nextDouble());
+    }
+
+    // Seed of one cell's random stream (SplitMix64 finalizer over the coordinates)
+    private static long mix(long seed, long a, long b, long c) {
+        return step(step(step(seed, a), b), c);
+    }
+
+    private static long step(long z, long v) {
+        z += 0x9E3779B97F4A7C15L + v;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Config config = new Config();
+        String archives = null, csv = null;
+        for (String arg : args) {
+            if (arg.startsWith("archives=")) archives = arg.substring("archives=".length());
+            else if (arg.startsWith("csv=")) csv = arg.substring("csv=".length());
+            else config.set(arg);
+        }
+        if (archives == null && csv == null) {
+            System.out.println("Usage: java util.WorkloadGenerator [key=value...] (archives=<dir> | csv=<file>)");
+            return;
+        }
+        WorkloadGenerator generator = new WorkloadGenerator(config);
+        long start = System.nanoTime();
+        long rows = archives != null ? generator.writeArchives(Path.of(archives)) : generator.writeCsv(Path.of(csv));
+        System.out.printf("%s: %d records written to %s in %.2f s%n", config, rows, archives != null ? archives : csv,
+                (System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,226 @@
+package util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/* Append-only binary log with group commit.
+ * Each entry is framed as [int payload length][byte type][payload][int CRC32 of type + payload].
+ * Appends only copy the entry into an in-memory buffer. A flush writes everything buffered so far with one
+ * write and one fsync, so threads waiting for durability at the same time share a single fsync.
+ * A background thread also flushes every few milliseconds, which bounds what a crash can lose for callers that don't wait.
+ * On replay a torn or corrupt entry at the end (crash in the middle of a write) marks the end of the log.*/
+
+public class WriteAheadLog implements Closeable {
+    private static final int HEADER = 5;  // length + type
+    private static final int TRAILER = 4; // crc
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    // Called for every valid entry on replay; the payload buffer is only valid during the call
+    public interface EntryReader {
+        void entry(byte type, ByteBuffer payload) throws IOException;
+    }
+
+    private final FileChannel channel;
+    private final boolean fsync;
+    private final CRC32 crc = new CRC32(); // used under this object's lock
+
+    // Entries are appended to active under this object's lock; a flush swaps it with spare and writes it
+    private ByteBuffer active = ByteBuffer.allocate(BUFFER_SIZE);
+    private ByteBuffer spare = ByteBuffer.allocate(BUFFER_SIZE);
+    private long appended;         // log size including buffered entries
+    private volatile long durable; // log size known to be on disk
+    private IOException failure;   // first write error, reported to every later caller
+    private boolean closed;
+
+    private final Object flushLock = new Object(); // one flush at a time
+    private final Thread flusher;
+
+    // Open (or create) a log for appending. validLength is where replay stopped, anything after it is cut off.
+    public WriteAheadLog(Path file, long validLength, boolean fsync, long flushIntervalMillis) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.fsync = fsync;
+        channel.truncate(validLength);
+        channel.position(validLength);
+        appended = durable = validLength;
+        flusher = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(flushIntervalMillis);
+                    if (isClosed()) return;
+                    if (durable < appendedLength()) flush();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException | UncheckedIOException e) {
+                    // kept in failure and reported to writers
+                }
+            }
+        }, "wal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    // Append one entry. payload writes at most maxPayload bytes into the buffer it is given.
+    // Returns the log position after the entry, to pass to awaitDurable.
+    public long append(byte type, int maxPayload, Consumer<ByteBuffer> payload) {
+        int need = HEADER + maxPayload + TRAILER;
+        while (true) {
+            synchronized (this) {
+                if (failure != null) throw new UncheckedIOException("write-ahead log failed", failure);
+                if (closed) throw new IllegalStateException("write-ahead log is closed");
+                if (active.position() == 0 && active.capacity() < need) active = ByteBuffer.allocate(need); // one big entry
+                if (active.remaining() >= need) {
+                    int start = active.position();
+                    active.position(start + HEADER);
+                    payload.accept(active);
+                    int end = active.position();
+                    active.putInt(start, end - start - HEADER);
+                    active.put(start + 4, type);
+                    crc.reset();
+                    crc.update(active.array(), start + 4, end - start - 4);
+                    active.putInt((int) crc.getValue());
+                    appended += active.position() - start;
+                    return appended;
+                }
+            }
+            flushQuietly(); // buffer full, write it out and retry
+        }
+    }
+
+    // Wait until everything up to position is on disk (one fsync may cover many callers)
+    public void awaitDurable(long position) {
+        if (durable >= position) return;
+        flushQuietly();
+    }
+
+    // Write and fsync everything appended so far
+    public void flush() throws IOException {
+        synchronized (flushLock) {
+            ByteBuffer toWrite;
+            long upTo;
+            synchronized (this) {
+                if (failure != null) throw failure;
+                if (active.position() == 0 && durable == appended) return;
+                toWrite = active;
+                active = spare;
+                upTo = appended;
+            }
+            try {
+                toWrite.flip();
+                while (toWrite.hasRemaining()) channel.write(toWrite);
+                if (fsync) channel.force(false);
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                }
+                throw e;
+            }
+            toWrite.clear();
+            synchronized (this) {
+                spare = toWrite.capacity() > BUFFER_SIZE ? ByteBuffer.allocate(BUFFER_SIZE) : toWrite; // drop an oversized buffer
+            }
+            durable = upTo;
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("write-ahead log failed", e);
+        }
+    }
+
+    // Log size in bytes, including entries not yet flushed
+    public synchronized long appendedLength() {
+        return appended;
+    }
+
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    // Flush what is buffered and close the file
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            synchronized (this) {
+                closed = true;
+            }
+            flusher.interrupt();
+            channel.close();
+        }
+    }
+
+    // Read every valid entry of a log file in order. Returns the length of the valid part (0 if the file is missing).
+    public static long replay(Path file, EntryReader reader) throws IOException {
+        if (!Files.exists(file)) return 0;
+        CRC32 check = new CRC32();
+        long valid = 0;
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = in.size();
+            ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+            buf.limit(0);
+            while (true) {
+                if (buf.remaining() < HEADER) {
+                    buf = fill(in, buf, HEADER);
+                    if (buf.remaining() < HEADER) return valid; // end of file
+                }
+                int start = buf.position();
+                int length = buf.getInt(start);
+                if (length < 0 || valid + HEADER + (long) length + TRAILER > size) return valid; // torn entry at the end
+                int need = HEADER + length + TRAILER;
+                if (buf.remaining() < need) {
+                    buf = fill(in, buf, need);
+                    start = buf.position();
+                }
+                check.reset();
+                check.update(buf.array(), start + 4, length + 1);
+                if ((int) check.getValue() != buf.getInt(start + HEADER + length)) return valid; // corrupt tail
+                ByteBuffer payload = buf.duplicate();
+                payload.position(start + HEADER).limit(start + HEADER + length);
+                reader.entry(buf.get(start + 4), payload.slice());
+                buf.position(start + need);
+                valid += need;
+            }
+        }
+    }
+
+    // Keep the unread bytes and read more until at least need bytes are available (or the file ends)
+    private static ByteBuffer fill(FileChannel in, ByteBuffer buf, int need) throws IOException {
+        if (buf.capacity() < need) {
+            ByteBuffer bigger = ByteBuffer.allocate(need);
+            bigger.put(buf);
+            buf = bigger;
+        } else {
+            buf.compact();
+        }
+        while (buf.position() < need && in.read(buf) >= 0) {
+            // keep reading
+        }
+        buf.flip();
+        return buf;
+    }
+
+    // Strings are written as [int byte length][UTF-8 bytes]
+    public static void putString(ByteBuffer buf, byte[] utf8) {
+        buf.putInt(utf8.length);
+        buf.put(utf8);
+    }
+
+    public static String getString(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
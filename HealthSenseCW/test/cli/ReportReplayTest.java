@@ -0,0 +1,68 @@
+package cli;
+
+import model.outbreak.OutbreakQueueManager;
+import model.outbreak.OutbreakReport;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/* Outbreak reports the workers handled are acknowledged in the log, so a restart only queues the others again,
+ * whether it replays the log or loads a snapshot.
+ * Plain program (no test framework in this project): run it with java cli.ReportReplayTest,
+ * it throws AssertionError on the first failed check and prints "OK" otherwise.*/
+
+public class ReportReplayTest {
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("report-replay");
+        SystemEngine first = new SystemEngine();
+        first.openStore(dir);
+        for (int i = 0; i < 3; i++) first.enqueueReport(new OutbreakReport("Western", "NHSL", "handled " + i, 100 + i));
+        first.startOutbreakPipeline();
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (!unhandled(first).isEmpty()) {
+            check(System.nanoTime() < deadline, "workers handle the reports");
+            Thread.sleep(10);
+        }
+        first.outbreakPipeline.stop();
+        first.enqueueReport(new OutbreakReport("Western", "NHSL", "waiting", 50)); // no worker left to take it
+        first.sync();
+
+        // crash: the first engine is left as it is, the second one replays its log
+        SystemEngine second = new SystemEngine();
+        check(second.openStore(dir), "state found");
+        check(unhandled(second).equals(List.of("waiting")), "log replay keeps only the unhandled report, got " + unhandled(second));
+
+        // the snapshot written on close holds the same, and a report handled after it is acknowledged in the new log
+        second.closeStore();
+        SystemEngine third = new SystemEngine();
+        third.openStore(dir);
+        check(unhandled(third).equals(List.of("waiting")), "snapshot keeps only the unhandled report, got " + unhandled(third));
+        third.startOutbreakPipeline();
+        deadline = System.nanoTime() + 10_000_000_000L;
+        while (!unhandled(third).isEmpty()) {
+            check(System.nanoTime() < deadline, "workers handle the restored report");
+            Thread.sleep(10);
+        }
+        third.outbreakPipeline.stop();
+        third.sync();
+        SystemEngine fourth = new SystemEngine();
+        fourth.openStore(dir);
+        check(unhandled(fourth).isEmpty(), "nothing left after the restored report was handled, got " + unhandled(fourth));
+        System.out.println("OK");
+    }
+
+    // Summaries of the reports waiting in every region queue
+    private static List<String> unhandled(SystemEngine engine) {
+        List<String> summaries = new ArrayList<>();
+        for (OutbreakQueueManager.RegionQueue rq : engine.queueManager.regionQueues()) {
+            for (OutbreakReport r : rq.unhandled()) summaries.add(r.summary());
+        }
+        return summaries;
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+}
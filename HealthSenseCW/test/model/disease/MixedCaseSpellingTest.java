@@ -0,0 +1,102 @@
+package model.disease;
+
+import model.hospital.Hospital;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/* Spellings of a disease that differ only in case are one disease for the trend cube's analytics.
+ * Plain program (no test framework in this project): run it with java model.disease.MixedCaseSpellingTest,
+ * it throws AssertionError on the first failed check and prints "OK" otherwise.*/
+
+public class MixedCaseSpellingTest {
+    public static void main(String[] args) {
+        Hospital nhsl = hospital("NHSL", 0);
+        Hospital thj = hospital("THJ", 1);
+        PeakDetector peaks = new PeakDetector(PeakDetector.DEFAULT_WINDOW);
+        TrendCube cube = new TrendCube(peaks, Leaderboard.DEFAULT_SIZE);
+        int dengue = DiseaseDictionary.idOf("Dengue");
+        int lower = DiseaseDictionary.idOf("dengue");
+        check(dengue != lower, "spellings keep their own ids");
+        check(DiseaseDictionary.symbolOf(dengue) == DiseaseDictionary.symbolOf(lower), "spellings share a symbol");
+
+        cube.recordAdded(nhsl, dengue, 10, 120);
+        cube.recordAdded(nhsl, dengue, 11, 180);
+        cube.recordAdded(nhsl, dengue, 12, 250);
+        cube.recordAdded(thj, dengue, 11, 95);
+        cube.recordAdded(nhsl, lower, 13, 500);
+
+        // NHSL peaks once, at week 13 of the merged series, not once per spelling
+        check(cube.trend(nhsl, "DENGUE").peakWeek() == 13, "merged peak week");
+        check(cube.nationalTrend("dengue").total(13) == 500, "national total");
+        check(peaks.synchronizedWeeks("Dengue", false, 0, 1).equals(weeks(11, 1, 13, 1)), "overall peaks");
+        check(peaks.synchronizedWeeks("dEnGuE", false, 0, 1).equals(weeks(11, 1, 13, 1)), "overall peaks, any case");
+        check(peaks.synchronizedWeeks("Dengue", false, 2, 2).equals(weeks(11, 2, 12, 2, 13, 2)), "overall peaks within 2");
+
+        // the leaderboards rank the merged cell once, under the first spelling
+        cube.recordAdded(nhsl, lower, 12, 100);
+        List<Leaderboard.Entry> top = cube.leaderboard().top(-1, "DENGUE", 2);
+        check(top.size() == 2 && top.get(0).week == 13 && top.get(0).cases == 500, "top cell");
+        check(top.get(1).week == 12 && top.get(1).cases == 350 && top.get(1).disease().equals("Dengue"), "merged cell");
+        check(same(cube.leaderboard().top(0, "", 2), top), "regional board, all diseases");
+        cube.recordRemoved(nhsl, lower, 12, 100);
+
+        // more cases under the other spelling of a week move the peak back
+        cube.recordAdded(nhsl, lower, 12, 300);
+        check(peaks.synchronizedWeeks("Dengue", false, 0, 1).equals(weeks(11, 1, 12, 1)), "peak after adding a spelling");
+        cube.recordRemoved(nhsl, lower, 12, 300);
+        cube.recordRemoved(nhsl, lower, 13, 500);
+        check(peaks.synchronizedWeeks("Dengue", false, 0, 1).equals(weeks(11, 1, 12, 1)), "peak after undo");
+        check(peaks.synchronizedWeeks("Dengue", true, 0, 1).equals(weeks(11, 1, 12, 1)), "local peaks after undo");
+
+        // the fork/join scans add spellings up the same way, sequentially and split across threads
+        Hospital a = hospital("A", 2), b = hospital("B", 3);
+        a.diseaseHistory.append(dengue, 10, 120);
+        a.diseaseHistory.append(dengue, 12, 250);
+        a.diseaseHistory.append(lower, 13, 500);
+        b.diseaseHistory.append(lower, 11, 95);
+        b.diseaseHistory.append(dengue, 11, 10);
+        int other = DiseaseDictionary.idOf("Cholera");
+        for (int i = 0; i < ParallelAnalytics.LEAF_ROWS; i++) { // enough rows for the pool to split between the hospitals
+            a.diseaseHistory.append(other, 1 + i % 50, 1);
+            b.diseaseHistory.append(other, 1 + i % 50, 1);
+        }
+        List<Hospital> both = Arrays.asList(a, b);
+        check(ParallelAnalytics.sequential().synchronizedPeaks(both, "DENGUE", 0, 1).equals(weeks(11, 1, 13, 1)), "scanned peaks");
+        ForkJoinPool pool = new ForkJoinPool(2);
+        check(new ParallelAnalytics(pool).synchronizedPeaks(both, "dengue", 0, 1).equals(weeks(11, 1, 13, 1)), "scanned peaks on a pool");
+        pool.shutdown();
+        System.out.println("OK");
+    }
+
+    private static Hospital hospital(String name, int id) {
+        Hospital h = new Hospital(name, "Western");
+        h.id = id;
+        h.regionId = 0;
+        return h;
+    }
+
+    // week, count, week, count, ... in week order
+    private static Map<Integer, Integer> weeks(int... pairs) {
+        Map<Integer, Integer> weeks = new LinkedHashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) weeks.put(pairs[i], pairs[i + 1]);
+        return weeks;
+    }
+
+    // Same cells in the same order
+    private static boolean same(List<Leaderboard.Entry> a, List<Leaderboard.Entry> b) {
+        if (a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            Leaderboard.Entry x = a.get(i), y = b.get(i);
+            if (x.hospital != y.hospital || x.symbol != y.symbol || x.week != y.week || x.cases != y.cases) return false;
+        }
+        return true;
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+}